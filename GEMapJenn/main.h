@@ -40,6 +40,7 @@ void toggle_pause ();
 
 // Miguel
 extern std::string fileToDump;
+void saveResult(double fitness);
 
 #endif
 
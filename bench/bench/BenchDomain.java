@@ -0,0 +1,44 @@
+package bench;
+
+import world.Rng;
+import world.domain.Domain;
+import world.domain.Individual;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Deterministic in-memory domain for benchmarks: individuals are scored from
+ * a hash of their genotype, so no external program is run.
+ */
+public class BenchDomain extends Domain
+{
+	/**
+	 * Constructor.
+	 * @param seed Seed for the domain's random number generator.
+	 */
+	public BenchDomain(final long seed)
+	{
+		super("Bench", 64);
+		setRng(new Rng(seed));
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Measurement is in-memory, so any number of threads may measure at once.
+	 */
+	@Override
+	public boolean isThreadSafe()
+	{
+		return true;
+	}
+
+	@Override
+	public Individual individual(final long genotype)
+	{
+		final BenchIndividual indiv = new BenchIndividual(this, genotype);
+		indiv.repair();
+		return indiv;
+	}
+
+}
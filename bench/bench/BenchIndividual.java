@@ -0,0 +1,46 @@
+package bench;
+
+import world.Utils;
+import world.domain.Domain;
+import world.domain.Individual;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Individual scored from a hash of its genotype, in roughly the proportions
+ * seen with jenn: about a third don't map (typicality 0), the rest get a
+ * rating of 1..5 out of 5.
+ */
+public class BenchIndividual extends Individual
+{
+	/**
+	 * Constructor.
+	 * @param domain Domain associated with this individual.
+	 * @param genotype Genotype value.
+	 */
+	public BenchIndividual(final Domain domain, final long genotype)
+	{
+		super(domain, genotype);
+	}
+
+	//-------------------------------------------------------------------------
+
+	@Override
+	public void measureTypicality()
+	{
+		typicality = ((Utils.hash(genotype) & 0xffff) % 100 < 35) ? 0 : 1;
+	}
+
+	@Override
+	public void measureQuality()
+	{
+		quality = (typicality == 0) ? 0 : (1 + ((Utils.hash(genotype) >>> 32) % 5)) / 5.0;
+	}
+
+	@Override
+	public String export(final String path)
+	{
+		return "";
+	}
+
+}
@@ -0,0 +1,28 @@
+package bench;
+
+import world.Rng;
+import world.Utils;
+import world.World;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * World over a BenchDomain, installed as Utils.world so that searches and
+ * populations can be benchmarked without jenn.
+ */
+public class BenchWorld extends World
+{
+	/**
+	 * Constructor. Installs this world as Utils.world.
+	 * @param seed Master seed.
+	 */
+	public BenchWorld(final long seed)
+	{
+		super(new BenchDomain(new Rng(seed).nextLong()));
+		this.seed = seed;
+		rng = new Rng(seed);
+		rng.nextLong();  // taken for the domain
+		Utils.world = this;
+	}
+
+}
@@ -0,0 +1,83 @@
+package search;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bench.BenchWorld;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * GA variation and selection operators, on a population bred for a few
+ * generations in the in-memory bench domain.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchGABench {
+	private SearchGA ga;
+
+	private long genotypeA;
+	private long genotypeB;
+
+	private final long[] children = new long[1000];
+
+	// -------------------------------------------------------------------------
+
+	@Setup
+	public void setup() {
+		new BenchWorld(5);  // before constructing the search
+
+		ga = new SearchGA();
+		ga.budget = 1000;
+		ga.search();
+
+		genotypeA = ga.selectParent();
+		genotypeB = ga.selectParent();
+	}
+
+	// -------------------------------------------------------------------------
+
+	@Benchmark
+	public long breedChild() {
+		return ga.breedChild();
+	}
+
+	@Benchmark
+	public long selectParent() {
+		return ga.selectParent();
+	}
+
+	@Benchmark
+	public long mutate() {
+		return ga.mutate(genotypeA);
+	}
+
+	@Benchmark
+	public long crossOver() {
+		return ga.crossOver(genotypeA, genotypeB);
+	}
+
+	/**
+	 * A whole generation of children, as bred during search.
+	 */
+	@Benchmark
+	public long[] breedGeneration() {
+		ga.variation.breed(ga.pops[ga.generation % 2], ga.tournamentSize, children, 0, children.length);
+		return children;
+	}
+
+}
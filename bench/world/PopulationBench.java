@@ -0,0 +1,117 @@
+package world;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bench.BenchWorld;
+import world.domain.Domain;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Population insertion and diversity measurement, on full populations of
+ * various sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PopulationBench
+{
+	/** Number of members. */
+	@Param({ "1000", "100000", "1000000" })
+	public int size;
+
+	/** Storage: "columnar" or "objects". */
+	@Param({ "columnar", "objects" })
+	public String storage;
+
+	private Domain domain;
+	private Population population;
+
+	/** Source of the genotypes inserted, a new one each time. */
+	private Random rng;
+
+	private PrintStream stdout;
+
+	//-------------------------------------------------------------------------
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		domain = new BenchWorld(1).domain();
+		population = storage.equals("columnar") ? new ColumnarPopulation(domain, size) : new Population(size);
+
+		rng = new Random(2);
+		while (population.size() < size)
+			population.insert(domain.individual(rng.nextLong(), 1, rng.nextDouble()));
+
+		// measureDiversityCOI() reports to stdout
+		stdout = System.out;
+		System.setOut(new PrintStream(new OutputStream()
+		{
+			@Override
+			public void write(final int b)
+			{
+				// discard
+			}
+		}));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		System.setOut(stdout);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Inserts a new genotype into a full population, evicting the least fit.
+	 * Genotypes are 64-bit random, so practically never already present and
+	 * never rejected as duplicates; the time includes creating the individual.
+	 */
+	@Benchmark
+	public int insert()
+	{
+		population.insert(domain.individual(rng.nextLong(), 1, rng.nextDouble()));
+		return population.size();
+	}
+
+	/**
+	 * Centre of inertia diversity of the best 10% (up to the sample size).
+	 */
+	@Benchmark
+	public void measureDiversityCOI()
+	{
+		population.measureDiversityCOI();
+	}
+
+	/**
+	 * Diversity of the whole population, from the incrementally kept counts.
+	 */
+	@Benchmark
+	public double diversity()
+	{
+		return population.diversity().coi(domain.numBits());
+	}
+
+}
@@ -0,0 +1,79 @@
+package world;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Statistics over fitness-like samples: measuring stored samples versus
+ * accumulating them as a stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsBench
+{
+	/** Number of samples. */
+	@Param({ "10000", "1000000" })
+	public int numSamples;
+
+	private double[] samples;
+	private Stats stats;
+
+	//-------------------------------------------------------------------------
+
+	@Setup
+	public void setup()
+	{
+		final Random rng = new Random(3);
+		samples = new double[numSamples];
+		stats = new Stats("bench");
+		for (int n = 0; n < numSamples; n++)
+		{
+			samples[n] = (1 + rng.nextInt(5)) / 5.0;
+			stats.addSample(samples[n]);
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Measures stored samples.
+	 */
+	@Benchmark
+	public double measure()
+	{
+		stats.measure();
+		return stats.mean();
+	}
+
+	/**
+	 * Accumulates all samples into streaming stats, including quantiles.
+	 */
+	@Benchmark
+	public double streaming()
+	{
+		final StreamingStats streaming = new StreamingStats("bench");
+		for (int n = 0; n < numSamples; n++)
+			streaming.addSample(samples[n]);
+		streaming.measure();
+		return streaming.p90();
+	}
+
+}
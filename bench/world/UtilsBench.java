@@ -0,0 +1,65 @@
+package world;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Bit counting over 1024 random genotypes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilsBench
+{
+	private final long[] genotypes = new long[1024];
+
+	//-------------------------------------------------------------------------
+
+	@Setup
+	public void setup()
+	{
+		final Random rng = new Random(4);
+		for (int n = 0; n < genotypes.length; n++)
+			genotypes[n] = rng.nextLong();
+	}
+
+	//-------------------------------------------------------------------------
+
+	@Benchmark
+	public int countBits()
+	{
+		int total = 0;
+		for (final long genotype : genotypes)
+			total += Utils.countBits(genotype);
+		return total;
+	}
+
+	/**
+	 * Baseline: intrinsic popcount.
+	 */
+	@Benchmark
+	public int bitCount()
+	{
+		int total = 0;
+		for (final long genotype : genotypes)
+			total += Long.bitCount(genotype);
+		return total;
+	}
+
+}
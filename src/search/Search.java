@@ -1,12 +1,19 @@
 package search;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import world.Checkpoint;
+import world.Exporter;
 import world.domain.Domain;
+import world.domain.EvaluationCache;
+import world.domain.EvaluationJournal;
 import world.Population;
-import world.Stats;
+import world.Rng;
+import world.StreamingStats;
 import world.Utils;
 
-import java.util.Random;
-
 //-----------------------------------------------------------------------------
 
 /**
@@ -36,8 +43,20 @@ public abstract class Search
 	/** Threshold for acceptance into population (0..1). */
 	protected final double typicalityThreshold = 0.5;
 
-	/** Random number generator. */
-	protected static Random rng = new Random(System.currentTimeMillis());
+	/** Random number generator: this search's own stream. */
+	protected Rng rng = Utils.world.rng().split();
+
+	/** Surrogate model screening candidates before measurement, if any. */
+	protected Surrogate surrogate;
+
+	/** Periodic snapshot of this search, if any. */
+	protected Checkpoint checkpoint;
+	
+	/** Export of the best found so far while searching, if any. */
+	protected Exporter exporter;
+	
+	/** Whether state was restored from a checkpoint, to continue from. */
+	protected boolean resumed = false;
 
 	/** Facilitator for interactive -- has the user terminated */
 	protected boolean userQuit = false;
@@ -71,6 +90,131 @@ public abstract class Search
 		return numTried;
 	}
 	
+	/**
+	 * @return Number of individuals worth measuring together, i.e. the 
+	 *         number of evaluation slots available.
+	 */
+	public int batchSize()
+	{
+		return (domain.pool() == null) ? 1 : domain.pool().numSlots();
+	}
+	
+	/**
+	 * @param surrogate Surrogate model to screen candidates with, or null
+	 *                  to measure every candidate.
+	 */
+	public void setSurrogate(final Surrogate surrogate)
+	{
+		this.surrogate = surrogate;
+	}
+	
+	/**
+	 * Passes a measured result on to the surrogate model, if any.
+	 */
+	protected void learn(final long genotype, final double typicality, final double quality)
+	{
+		if (surrogate != null)
+			surrogate.learn(genotype, typicality, quality, typicalityThreshold);
+	}
+	
+	/**
+	 * Records an evaluation in the domain's journal, if any.
+	 * @param genotype Genotype.
+	 * @param typicality Typicality value.
+	 * @param quality Quality value.
+	 * @param measureTime Time taken to measure in ns, or 0 if not measured afresh.
+	 * @param generation Generation within this search.
+	 */
+	protected void record
+	(
+		final long genotype, final double typicality, final double quality, 
+		final long measureTime, final int generation
+	)
+	{
+		final EvaluationJournal journal = domain.journal();
+		if (journal != null)
+			journal.append(name, generation, genotype, typicality, quality, measureTime);
+	}
+	
+	/**
+	 * @param checkpoint Periodic snapshot to take of this search, or null.
+	 */
+	public void setCheckpoint(final Checkpoint checkpoint)
+	{
+		this.checkpoint = checkpoint;
+	}
+	
+	/**
+	 * @param exporter Export to publish the best found to while searching, or null.
+	 */
+	public void setExporter(final Exporter exporter)
+	{
+		this.exporter = exporter;
+	}
+	
+	/**
+	 * Publishes the best found so far for export, and takes a snapshot if 
+	 * one is due. Call where the search's state is complete, e.g. between 
+	 * generations.
+	 */
+	protected void progress()
+	{
+		if (exporter != null)
+			exporter.publish(master);
+		checkpoint();
+	}
+	
+	/**
+	 * Takes a snapshot if one is due.
+	 */
+	protected void checkpoint()
+	{
+		if (checkpoint == null || !checkpoint.due())
+			return;
+		try
+		{
+			checkpoint.save(this, master);
+		}
+		catch (IOException e)
+		{
+			System.out.println("Failed to write checkpoint " + checkpoint.file() + ": " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Writes the state needed to continue this search. Subclasses add their
+	 * own state after this.
+	 * @param out Output.
+	 * @throws IOException If the state could not be written.
+	 */
+	public void writeState(final DataOutput out) throws IOException
+	{
+		out.writeInt(numTried);
+		out.writeInt(numTypical);
+		rng.writeState(out);
+		out.writeBoolean(surrogate != null);
+		if (surrogate != null)
+			surrogate.writeState(out);
+	}
+	
+	/**
+	 * Restores state written by writeState(), so that the next search
+	 * continues rather than starts afresh.
+	 * @param in Input.
+	 * @throws IOException If the state could not be read.
+	 */
+	public void readState(final DataInput in) throws IOException
+	{
+		numTried   = in.readInt();
+		numTypical = in.readInt();
+		rng.readState(in);
+		if (in.readBoolean() != (surrogate != null))
+			throw new IOException("Checkpoint and run differ in surrogate screening.");
+		if (surrogate != null)
+			surrogate.readState(in);
+		resumed = true;
+	}
+	
 	//-------------------------------------------------------------------------
 
     /**
@@ -86,17 +230,40 @@ public abstract class Search
 		System.out.print("\n" + name() + ": ");
 		long startAt = System.currentTimeMillis();	
 		
-		numTried = 0;
+		final EvaluationCache cache = domain.cache();
+		final long hitsAt   = (cache == null) ? 0 : cache.hits();
+		final long missesAt = (cache == null) ? 0 : cache.misses();
+		
+		final StreamingStats latency = domain.latency();
+		synchronized (latency)
+		{
+			latency.clear();
+		}
+		
+		if (!resumed)
+			numTried = 0;
 		search();	
+		resumed = false;
 		
 		final double searchTime = (System.currentTimeMillis() - startAt) / 1000.0;				
 		System.out.printf("%d typical examples out of %d tried in %.3fs (%d collisions).\n", 
 				numTypical, numTried, searchTime, master.numCollisions());
+		if (cache != null)
+			System.out.printf("    Cache: %d hits, %d misses, %d entries.\n", 
+					cache.hits() - hitsAt, cache.misses() - missesAt, cache.size());
+		
+		synchronized (latency)
+		{
+			if (latency.count() > 0)
+				System.out.printf("    Measure time (ms): p50=%.1f, p90=%.1f, p99=%.1f, max=%.1f.\n", 
+						latency.p50(), latency.p90(), latency.p99(), latency.max());
+		}
 		
 		//	Show the result
-		final Stats stats = new Stats(name());
-		for (int i = 0; i < master.size(); i++)
-			stats.addSample(master.get(i).fitness());
+		final StreamingStats stats = new StreamingStats(name());
+		final Population sample = master.sample();
+		for (int i = 0; i < sample.size(); i++)
+			stats.addSample(sample.fitness(i));
 		stats.measure();
 		stats.show();
 		
@@ -0,0 +1,164 @@
+package search;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import world.domain.Enumerator;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Exhaustive search: measures each genotype standing for a distinct
+ * individual exactly once, in the domain's order (see Domain.enumerator()),
+ * e.g. for jenn each distinct phenotype the grammar derives within 16 codons.
+ *
+ * The walk can be limited to a range of positions in that order and split
+ * into shards, each taking every numShards-th position, so that several
+ * runs cover it between them without overlap. Positions skipped are walked
+ * but not measured. The walk continues where it left off when resumed from
+ * a checkpoint.
+ */
+public class SearchEnum extends Search {
+
+	/** First position to measure, and the position to stop at. */
+	private final long from;
+	private final long to;
+
+	/** Shard measured, of the number of shards. */
+	private final int shard;
+	private final int numShards;
+
+	/** Walk of the distinct genotypes, once started. */
+	private Enumerator walk;
+
+	/** Number of genotypes walked. */
+	private long position;
+
+	/** Whether the walk is over. */
+	private boolean complete;
+
+	/**
+	 * Constructor: measure every distinct genotype.
+	 */
+	public SearchEnum() {
+		this(0, Long.MAX_VALUE, 0, 1);
+	}
+
+	/**
+	 * Constructor.
+	 * @param from First position in the walk to measure.
+	 * @param to Position in the walk to stop at.
+	 * @param shard Shard to measure (0..numShards-1).
+	 * @param numShards Number of shards the walk is split into.
+	 */
+	public SearchEnum(final long from, final long to, final int shard, final int numShards) {
+		super("Enum");
+		if (from < 0 || to < from)
+			throw new IllegalArgumentException("Bad walk range " + from + "-" + to + ".");
+		if (numShards < 1 || shard < 0 || shard >= numShards)
+			throw new IllegalArgumentException("Bad shard " + shard + "/" + numShards + ".");
+		this.from = from;
+		this.to = to;
+		this.shard = shard;
+		this.numShards = numShards;
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * @return Number of genotypes walked so far, measured or not.
+	 */
+	public long position() {
+		return position;
+	}
+
+	/**
+	 * @return Whether the whole range has been walked.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Measures the distinct genotypes in the range and shard, in order,
+	 * a batch at a time, until the budget is spent or the walk is over.
+	 */
+	@Override
+	public void search() {
+		if (!resumed) {
+			walk = domain.enumerator();
+			position = 0;
+			complete = false;
+		}
+
+		// One genotype per evaluation slot
+		final long[] genotypes = new long[batchSize()];
+		final double[] typicality = new double[genotypes.length];
+		final double[] quality = new double[genotypes.length];
+		final long[] times = new long[genotypes.length];
+
+		while (numTried < budget && !userQuit && !complete) {
+			final int max = Math.min(genotypes.length, budget - numTried);
+			int num = 0;
+			while (num < max) {
+				if (position >= to || !walk.next()) {
+					complete = true;
+					break;
+				}
+				final long at = position++;
+				if (at >= from && (at - from) % numShards == shard)
+					genotypes[num++] = walk.genotype();
+			}
+			if (num == 0)
+				break;
+			domain.evaluate(genotypes, typicality, quality, times, num);
+
+			for (int n = 0; n < num; n++) {
+				if (quality[n] == -1) {
+					userQuit = true;
+					break;
+				}
+				numTried++;
+				record(genotypes[n], typicality[n], quality[n], times[n], 0);
+				learn(genotypes[n], typicality[n], quality[n]);
+
+				if (typicality[n] >= typicalityThreshold) {
+					// add individual to master population
+					master.insert(genotypes[n], typicality[n], quality[n]);
+					numTypical++;
+				}
+			}
+			progress();
+		}
+		if (complete)
+			System.out.print("walked all " + position + ", ");
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Adds the walk's position: the number walked and the last genotype.
+	 */
+	@Override
+	public void writeState(final DataOutput out) throws IOException {
+		super.writeState(out);
+		out.writeLong(position);
+		out.writeLong((walk == null) ? 0 : walk.genotype());
+		out.writeBoolean(complete);
+	}
+
+	@Override
+	public void readState(final DataInput in) throws IOException {
+		super.readState(in);
+		position = in.readLong();
+		final long genotype = in.readLong();
+		complete = in.readBoolean();
+		walk = domain.enumerator();
+		if (position > 0)
+			walk.resume(genotype);
+	}
+
+}
@@ -1,6 +1,14 @@
 package search;
 
-import world.domain.Individual;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import world.Checkpoint;
+import world.ColumnarPopulation;
+import world.Metrics;
 import world.Population;
 
 //-----------------------------------------------------------------------------
@@ -11,6 +19,15 @@ import world.Population;
  * @author Cameron Browne
  */
 public class SearchGA extends Search {
+	/** Metrics shared by all GA searches, islands included. */
+	static final Metrics.Timer BREED = Metrics.timer("search.breed");
+	static final Metrics.Timer INSERT = Metrics.timer("search.insert");
+	static final Metrics.Counter BRED = Metrics.counter("search.bred");
+	static final Metrics.Counter TRIED = Metrics.counter("search.tried");
+	static final Metrics.Counter TYPICAL = Metrics.counter("search.typical");
+	static final Metrics.Counter COLLISIONS = Metrics.counter("search.collisions");
+	static final Metrics.Counter GENERATIONS = Metrics.counter("search.generations");
+
 	/** Tournament size for selection. */
 	protected int tournamentSize = 4;
 
@@ -28,7 +45,21 @@ public class SearchGA extends Search {
 
 	/** Generation count during search. */
 	protected int generation;
-	
+
+	/** COI diversity of each generation bred, as a convergence signal. */
+	protected final List<Double> diversityByGeneration = new ArrayList<Double>();
+
+	/** Variation operators. */
+	protected final Variation variation;
+
+	/** Genotypes of the batch being evaluated, and their results. */
+	protected long[] batch;
+	protected double[] batchTypicality;
+	protected double[] batchQuality;
+	protected long[] batchTime;
+
+	/** Children bred for the surrogate to choose the batch from. */
+	protected long[] candidates;
 
 	// -------------------------------------------------------------------------
 
@@ -39,62 +70,201 @@ public class SearchGA extends Search {
 		super("GA");
 
 		pops = new Population[2];
-		pops[0] = new Population();
-		pops[1] = new Population();
+		pops[0] = new ColumnarPopulation(domain);
+		pops[1] = new ColumnarPopulation(domain);
+
+		variation = new Variation(rng, domain.numBits(), crossoverRate, crossoverType);
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * @return COI diversity of each generation bred in the last search.
+	 */
+	public List<Double> diversityByGeneration() {
+		return diversityByGeneration;
 	}
 
 	// -------------------------------------------------------------------------
 
 	@Override
 	public void search() {
-		// Seed the population
+		if (!resumed)
+			seedPopulation();
+		progress();
+
+		// Breed until budget met
+		while (numTried < budget && !userQuit) {
+			breedGeneration();
+			progress();
+		}
+	}
+
+	// -------------------------------------------------------------------------
+
+	@Override
+	public void writeState(final DataOutput out) throws IOException {
+		super.writeState(out);
+		out.writeInt(generation);
+		out.writeInt(diversityByGeneration.size());
+		for (final Double coi : diversityByGeneration)
+			out.writeDouble(coi.doubleValue());
+		Checkpoint.write(out, population());
+	}
+
+	@Override
+	public void readState(final DataInput in) throws IOException {
+		super.readState(in);
+		generation = in.readInt();
+		diversityByGeneration.clear();
+		for (int n = in.readInt(); n > 0; n--)
+			diversityByGeneration.add(Double.valueOf(in.readDouble()));
+		pops[0].clear();
+		pops[1].clear();
+		Checkpoint.read(in, population());
+		allocateBatch();
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Fills the first generation with random individuals.
+	 */
+	void seedPopulation() {
+		allocateBatch();
+
 		generation = 0;
+		diversityByGeneration.clear();
 		while (pops[0].size() < popSize & !userQuit) {
-			Individual indiv = domain.individual(domain.randomGenotype());
-			indiv.measure();
-			if (indiv.quality() == -1) {
+			final int num = popSize - pops[0].size();
+			for (int n = 0; n < num; n++)
+				batch[n] = domain.randomGenotype(rng);
+			evaluateAndAdd(num, pops[0]);
+		}
+	}
+
+	/**
+	 * Allocates the arrays reused for each batch.
+	 */
+	void allocateBatch() {
+		batch = new long[popSize];
+		batchTypicality = new double[popSize];
+		batchQuality = new double[popSize];
+		batchTime = new long[popSize];
+		if (surrogate != null)
+			candidates = new long[popSize * surrogate.ratio()];
+	}
+
+	/**
+	 * Breeds the next generation from the current one, within the budget.
+	 */
+	void breedGeneration() {
+		final Population nextPop = pops[(generation + 1) % 2];
+		nextPop.clear();
+
+		while (nextPop.size() < popSize && numTried < budget && !userQuit) {
+			// Children are bred from the current generation only, so can be measured together
+			final int num = Math.min(popSize - nextPop.size(), budget - numTried);
+			final long startAt = System.nanoTime();
+			breedBatch(num);
+			BREED.record(System.nanoTime() - startAt);
+			BRED.add(num);
+			evaluateAndAdd(num, nextPop);
+		}
+		diversityByGeneration.add(Double.valueOf(nextPop.diversity().coi(domain.numBits())));
+		generation++;
+		GENERATIONS.increment();
+	}
+
+	/**
+	 * Breeds the first genotypes of the batch from the current generation.
+	 * With a surrogate, several times as many children are bred and those
+	 * predicted best make up the batch.
+	 * 
+	 * @param num
+	 *            Number of genotypes to breed.
+	 */
+	void breedBatch(final int num) {
+		final Population pop = pops[generation % 2];
+		if (surrogate == null) {
+			variation.breed(pop, tournamentSize, batch, 0, num);
+			return;
+		}
+		final int numCandidates = num * surrogate.ratio();
+		variation.breed(pop, tournamentSize, candidates, 0, numCandidates);
+		surrogate.select(candidates, numCandidates, batch, num);
+	}
+
+	/**
+	 * @return Current generation's population.
+	 */
+	public Population population() {
+		return pops[generation % 2];
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Evaluate the first genotypes of the batch and add them to the specified
+	 * population.
+	 * 
+	 * @param num
+	 *            Number of genotypes to evaluate.
+	 * @param pop
+	 *            Population.
+	 */
+	void evaluateAndAdd(final int num, final Population pop) {
+		evaluate(num);
+		for (int n = 0; n < num; n++) {
+			if (batchQuality[n] == -1) {
 				userQuit = true;
-				continue;
+				return;
 			}
 			numTried++;
-			addToPopulation(indiv, pops[0]);
+			record(batch[n], batchTypicality[n], batchQuality[n], batchTime[n], generation);
+			learn(batch[n], batchTypicality[n], batchQuality[n]);
+			final long startAt = System.nanoTime();
+			addToPopulation(batch[n], batchTypicality[n], batchQuality[n], pop);
+			INSERT.record(System.nanoTime() - startAt);
+			if (batchTypicality[n] >= typicalityThreshold)
+				TYPICAL.increment();
 		}
+		TRIED.add(num);
+	}
 
-		// Breed until budget met
-		while (numTried < budget && !userQuit) {
-			// Breed the next generation
-			final Population nextPop = pops[(generation + 1) % 2];
-			nextPop.clear();
-
-			while (nextPop.size() < popSize && numTried < budget) {
-				Individual indiv = breedChild();
-				indiv.measure();
-				if (indiv.quality() == -1) {
-					userQuit = true;
-					break;
-				}
-				numTried++;
-				addToPopulation(indiv, nextPop);
-			}
-			generation++;
-		}
+	/**
+	 * Evaluate the first genotypes of the batch.
+	 * 
+	 * @param num
+	 *            Number of genotypes to evaluate.
+	 */
+	void evaluate(final int num) {
+		domain.evaluate(batch, batchTypicality, batchQuality, batchTime, num);
 	}
 
 	// -------------------------------------------------------------------------
 
 	/**
-	 * Add the specified individual to the specified population.
+	 * Add a measured genotype to the specified population.
 	 * 
-	 * @param indiv
-	 *            Individual to add.
+	 * @param genotype
+	 *            Genotype.
+	 * @param typicality
+	 *            Typicality value.
+	 * @param quality
+	 *            Quality value.
 	 * @param pop
 	 *            Population.
 	 */
-	void addToPopulation(final Individual indiv, final Population pop) {
-		pop.insert(indiv);
-
-		if (indiv.typicality() >= typicalityThreshold) {
-			master.insert(indiv); // also add individual to master population
+	void addToPopulation(final long genotype, final double typicality,
+			final double quality, final Population pop) {
+		pop.insert(genotype, typicality, quality);
+
+		if (typicality >= typicalityThreshold) {
+			// also add individual to master population
+			final int collisions = master.numCollisions();
+			master.insert(genotype, typicality, quality);
+			COLLISIONS.add(master.numCollisions() - collisions);
 			numTypical++;
 		}
 	}
@@ -102,49 +272,20 @@ public class SearchGA extends Search {
 	// -------------------------------------------------------------------------
 
 	/**
-	 * @return Individual bred from current population.
+	 * @return Genotype bred from current population.
 	 */
-	Individual breedChild() {
-		long genotype;
-
-		final long genotypeA = selectParent().genotype();
-
-		if (rng.nextInt(100) < crossoverRate) {
-			// Crossover with second parent (don't care if same individual)
-			final long genotypeB = selectParent().genotype();
-			genotype = crossOver(genotypeA, genotypeB, crossoverType);
-			do {
-				genotype = mutate(genotype);
-			} while (genotype == genotypeA || genotype == genotypeB);
-		} else {
-			// No crossover
-			do {
-				genotype = mutate(genotypeA);
-			} while (genotype == genotypeA);
-		}
-		return domain.individual(genotype);
+	long breedChild() {
+		return variation.breed(pops[generation % 2], tournamentSize);
 	}
 
 	// -------------------------------------------------------------------------
 
 	/**
-	 * @return Parent from population using tournament selection.
+	 * @return Genotype of parent from population using tournament selection.
 	 */
-	Individual selectParent() {
-		Individual parent = null;
-		double maxScore = -1000;
-
+	long selectParent() {
 		final Population pop = pops[generation % 2];
-
-		for (int t = 0; t < tournamentSize; t++) {
-			final int pid = rng.nextInt(pop.size());
-			Individual indiv = pop.get(pid);
-			if (indiv.fitness() > maxScore) {
-				parent = indiv;
-				maxScore = indiv.fitness();
-			}
-		}
-		return parent;
+		return pop.genotype(variation.selectRank(pop.size(), tournamentSize));
 	}
 
 	// -------------------------------------------------------------------------
@@ -156,33 +297,10 @@ public class SearchGA extends Search {
 	 *            Genotype from first parent.
 	 * @param genotypeB
 	 *            Genotype from second parent.
-	 * @param xType
-	 *            Crossover type (0=uniform, 1=single-point, 2=double-point).
-	 * @return Bits resulting from crossover.
+	 * @return Bits resulting from crossover of this search's type.
 	 */
-	public long crossOver(final long genotypeA, final long genotypeB,
-			final int xType) {
-		long mask = 0;
-
-		switch (xType) {
-		case 0: // Uniform crossover
-			mask = rng.nextLong();
-			break;
-		case 1: // Single-point crossover
-			mask = (1L << (rng.nextInt() % domain.numBits()));
-			break;
-		case 2: // Double-point crossover
-			mask = (1L << (rng.nextInt() % domain.numBits()))
-					^ (1L << (rng.nextInt() % domain.numBits()));
-			break;
-		default:
-			System.out.println("bad crossover type " + xType + ".");
-		}
-
-		if (rng.nextInt(2) == 0)
-			mask = ~mask; // randomly invert to swap order of parents
-
-		return ((genotypeA & mask) | (genotypeB & ~mask)) & domain.bitsMask();
+	public long crossOver(final long genotypeA, final long genotypeB) {
+		return variation.crossOver(genotypeA, genotypeB);
 	}
 
 	// -------------------------------------------------------------------------
@@ -195,11 +313,7 @@ public class SearchGA extends Search {
 	 * @return Mutated genotype.
 	 */
 	public long mutate(final long genotype) {
-		long result = genotype;
-		for (int b = 0; b < domain.numBits(); b++)
-			if (rng.nextInt(domain.numBits()) == 0)
-				result ^= (1L << b);
-		return result;
+		return genotype ^ variation.mutationMask();
 	}
 
 	// -------------------------------------------------------------------------
@@ -0,0 +1,326 @@
+package search;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import world.Population;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Island-model GA: several independent GA populations evolve in parallel,
+ * exchanging their best individuals every few generations.
+ *
+ * Islands are scheduled on a fork/join pool one migration interval at a time.
+ * Each island has its own random number stream, and typical individuals are
+ * passed on to the master population between intervals in island order, so a
+ * run is reproducible from its seed whatever the thread scheduling.
+ */
+public class SearchIslands extends Search {
+	/** Migration topologies. */
+	public enum Topology {
+		/** Island i sends to island i+1, the last to the first. */
+		RING,
+		/** Each island sends to another island chosen at random. */
+		RANDOM
+	}
+
+	/** Islands. */
+	protected final Island[] islands;
+
+	/** Migration topology. */
+	protected final Topology topology;
+
+	/** Generations between migrations. */
+	protected final int interval;
+
+	/** Number of best individuals each island sends. */
+	protected final int numMigrants;
+
+	/** Threads evolving islands. */
+	protected final ForkJoinPool forkJoinPool;
+
+	/** Guards evaluation, if the domain can only measure one at a time. */
+	protected final Object evaluationLock = new Object();
+
+	/** Set once the user quits on any island. */
+	protected volatile boolean quit;
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * A GA population evolving on its own, within the island model.
+	 */
+	protected class Island extends SearchGA {
+		/** Typical individuals found since last passed to the master population. */
+		long[] typicalGenotypes = new long[16];
+		double[] typicalTypicality = new double[16];
+		double[] typicalQuality = new double[16];
+		int numTypicalFound;
+
+		/** Island number. */
+		final int index;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param index
+		 *            Island number.
+		 */
+		Island(final int index) {
+			this.index = index;
+			name = "GA island " + index;
+		}
+
+		/**
+		 * Evolves this island for up to the specified number of generations,
+		 * seeding it first if new.
+		 *
+		 * @param generations
+		 *            Number of generations.
+		 * @param quota
+		 *            Number of individuals this island may measure.
+		 */
+		void evolve(final int generations, final int quota) {
+			// Domain draws (e.g. repairs) from this island's stream, not the
+			// pool thread's, so runs replay
+			domain.useStream(1 + index);
+			try {
+				budget = numTried + quota;
+				if (batch == null)
+					seedPopulation();
+				for (int g = 0; g < generations && numTried < budget && !userQuit; g++)
+					breedGeneration();
+				if (userQuit)
+					quit = true;
+			} finally {
+				domain.useStream(0);
+			}
+		}
+
+		@Override
+		void breedGeneration() {
+			if (quit)
+				userQuit = true;  // another island quit
+			else
+				super.breedGeneration();
+		}
+
+		@Override
+		void evaluate(final int num) {
+			if (domain.isThreadSafe()) {
+				super.evaluate(num);
+				return;
+			}
+			synchronized (evaluationLock) {
+				super.evaluate(num);
+			}
+		}
+
+		/**
+		 * Keeps typical individuals for the master population, which is not
+		 * thread-safe, rather than adding them directly.
+		 */
+		@Override
+		void addToPopulation(final long genotype, final double typicality,
+				final double quality, final Population pop) {
+			pop.insert(genotype, typicality, quality);
+
+			if (typicality >= typicalityThreshold) {
+				if (numTypicalFound == typicalGenotypes.length) {
+					typicalGenotypes = Arrays.copyOf(typicalGenotypes, numTypicalFound * 2);
+					typicalTypicality = Arrays.copyOf(typicalTypicality, numTypicalFound * 2);
+					typicalQuality = Arrays.copyOf(typicalQuality, numTypicalFound * 2);
+				}
+				typicalGenotypes[numTypicalFound] = genotype;
+				typicalTypicality[numTypicalFound] = typicality;
+				typicalQuality[numTypicalFound] = quality;
+				numTypicalFound++;
+				numTypical++;
+			}
+		}
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 *
+	 * @param numIslands
+	 *            Number of islands.
+	 * @param topology
+	 *            Migration topology.
+	 * @param interval
+	 *            Generations between migrations.
+	 * @param numMigrants
+	 *            Number of best individuals each island sends.
+	 */
+	public SearchIslands(final int numIslands, final Topology topology,
+			final int interval, final int numMigrants) {
+		super("Islands");
+
+		this.topology = topology;
+		this.interval = interval;
+		this.numMigrants = numMigrants;
+
+		islands = new Island[numIslands];
+		for (int i = 0; i < numIslands; i++)
+			islands[i] = new Island(i);
+
+		forkJoinPool = new ForkJoinPool(Math.min(numIslands, Runtime.getRuntime().availableProcessors()));
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Each island learns its own surrogate model of the same kind, as the
+	 * models are not thread-safe.
+	 */
+	@Override
+	public void setSurrogate(final Surrogate surrogate) {
+		super.setSurrogate(surrogate);
+		for (final Island island : islands)
+			island.setSurrogate((surrogate == null) ? null : new Surrogate(domain.numBits(), surrogate.ratio()));
+	}
+
+	// -------------------------------------------------------------------------
+
+	@Override
+	public void search() {
+		quit = false;
+		for (final Island island : islands) {
+			if (!resumed) {
+				island.numTried = 0;
+				island.numTypical = 0;
+			}
+			island.userQuit = false;
+		}
+
+		while (numTried < budget && !userQuit) {
+			// Share the remaining budget between islands
+			final int remaining = budget - numTried;
+			final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(islands.length);
+			for (int i = 0; i < islands.length; i++) {
+				final Island island = islands[i];
+				final int quota = remaining / islands.length + ((i < remaining % islands.length) ? 1 : 0);
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						island.evolve(interval, quota);
+						return null;
+					}
+				});
+			}
+			runAll(tasks);
+
+			collect();
+			if (quit)
+				userQuit = true;
+			else
+				migrate();
+			progress();
+		}
+	}
+
+	// -------------------------------------------------------------------------
+
+	@Override
+	public void writeState(final DataOutput out) throws IOException {
+		super.writeState(out);
+		for (final Island island : islands)
+			island.writeState(out);
+	}
+
+	@Override
+	public void readState(final DataInput in) throws IOException {
+		super.readState(in);
+		for (final Island island : islands)
+			island.readState(in);
+	}
+
+	/**
+	 * Runs tasks on the fork/join pool, returning when all are done.
+	 */
+	protected void runAll(final List<Callable<Void>> tasks) {
+		for (final Future<Void> future : forkJoinPool.invokeAll(tasks)) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				userQuit = true;
+				return;
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Passes typical individuals found by each island to the master
+	 * population, and totals the islands' counts.
+	 */
+	protected void collect() {
+		numTried = 0;
+		numTypical = 0;
+		final int collisions = master.numCollisions();
+		for (final Island island : islands) {
+			for (int n = 0; n < island.numTypicalFound; n++)
+				master.insert(island.typicalGenotypes[n], island.typicalTypicality[n], island.typicalQuality[n]);
+			island.numTypicalFound = 0;
+
+			numTried += island.numTried;
+			numTypical += island.numTypical;
+		}
+		SearchGA.COLLISIONS.add(master.numCollisions() - collisions);
+	}
+
+	/**
+	 * Sends copies of each island's best individuals to another island, all
+	 * at once.
+	 */
+	protected void migrate() {
+		if (islands.length < 2)
+			return;
+
+		// Choose all migrants before any arrive
+		final int[] destinations = new int[islands.length];
+		final long[][] genotypes = new long[islands.length][];
+		final double[][] typicality = new double[islands.length][];
+		final double[][] quality = new double[islands.length][];
+		for (int i = 0; i < islands.length; i++) {
+			if (topology == Topology.RING) {
+				destinations[i] = (i + 1) % islands.length;
+			} else {
+				final int other = rng.nextInt(islands.length - 1);
+				destinations[i] = (other < i) ? other : other + 1;
+			}
+
+			final Population pop = islands[i].population();
+			final int num = Math.min(numMigrants, pop.size());
+			genotypes[i] = new long[num];
+			typicality[i] = new double[num];
+			quality[i] = new double[num];
+			for (int n = 0; n < num; n++) {
+				genotypes[i][n] = pop.genotype(n);
+				typicality[i][n] = pop.typicality(n);
+				quality[i][n] = pop.quality(n);
+			}
+		}
+
+		// Migrants join the destination's current generation, which breeds the next
+		for (int i = 0; i < islands.length; i++) {
+			final Population pop = islands[destinations[i]].population();
+			for (int n = 0; n < genotypes[i].length; n++)
+				pop.insert(genotypes[i][n], typicality[i][n], quality[i][n]);
+		}
+	}
+
+}
@@ -1,7 +1,5 @@
 package search;
 
-import world.domain.Individual;
-
 //-----------------------------------------------------------------------------
 
 /**
@@ -25,20 +23,41 @@ public class SearchMC extends Search {
 	 */
 	@Override
 	public void search() {
-		while (numTried < budget && !userQuit) // each iteration involves one measure()
+		// One genotype per evaluation slot
+		final long[] genotypes = new long[batchSize()];
+		final double[] typicality = new double[genotypes.length];
+		final double[] quality = new double[genotypes.length];
+		final long[] times = new long[genotypes.length];
+
+		// Random candidates for the surrogate, if any, to choose from
+		final long[] candidates = (surrogate == null) ? genotypes : new long[genotypes.length * surrogate.ratio()];
+
+		while (numTried < budget && !userQuit) // each individual involves one measure()
 		{
-			// Create a random individual
-			Individual indiv = domain.individual(domain.randomGenotype());
-			indiv.measure();
-			if (indiv.quality() == -1) {
-				userQuit = true;
-			}
-			numTried++;
+			final int num = Math.min(genotypes.length, budget - numTried);
+			final int numCandidates = (surrogate == null) ? num : num * surrogate.ratio();
+			for (int n = 0; n < numCandidates; n++)
+				candidates[n] = domain.randomGenotype(rng);
+			if (surrogate != null)
+				surrogate.select(candidates, numCandidates, genotypes, num);
+			domain.evaluate(genotypes, typicality, quality, times, num);
+
+			for (int n = 0; n < num; n++) {
+				if (quality[n] == -1) {
+					userQuit = true;
+					break;
+				}
+				numTried++;
+				record(genotypes[n], typicality[n], quality[n], times[n], 0);
+				learn(genotypes[n], typicality[n], quality[n]);
 
-			if (indiv.typicality() >= typicalityThreshold) {
-				master.insert(indiv); // add individual to master population
-				numTypical++;
+				if (typicality[n] >= typicalityThreshold) {
+					// add individual to master population
+					master.insert(genotypes[n], typicality[n], quality[n]);
+					numTypical++;
+				}
 			}
+			progress();
 		}
 	}
 
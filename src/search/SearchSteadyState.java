@@ -0,0 +1,202 @@
+package search;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import world.Checkpoint;
+import world.ColumnarPopulation;
+import world.Population;
+import world.domain.EvaluatorPool;
+import world.domain.Individual;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Asynchronous steady-state GA.
+ *
+ * Rather than breeding a generation at a time, a new child is bred from the
+ * current population whenever an evaluation slot frees up, and each result
+ * joins the population as soon as it arrives. A slow measurement then only
+ * holds up its own slot, never a whole generation.
+ */
+public class SearchSteadyState extends Search {
+	/** How results replace existing members once the population is full. */
+	public enum Replacement {
+		/** Replace the least fit member, if fitter. */
+		WORST,
+		/** Replace the least fit of a few random members. */
+		TOURNAMENT
+	}
+
+	/** Tournament size for selection and tournament replacement. */
+	protected int tournamentSize = 4;
+
+	/** Crossover rate as a percentage (0..100). */
+	protected int crossoverRate = 50;
+
+	/** Crossover type (0=uniform, 1=single-point, 2=double-point). */
+	protected int crossoverType = 0;
+
+	/** Population size. */
+	protected int popSize = 10;
+
+	/** Replacement policy. */
+	protected final Replacement replacement;
+
+	/** Population bred from. */
+	protected final Population pop;
+
+	/** Variation operators. */
+	protected final Variation variation;
+
+	/** Children bred for the surrogate to choose from. */
+	private long[] candidates = new long[0];
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 *
+	 * @param replacement
+	 *            Replacement policy.
+	 */
+	public SearchSteadyState(final Replacement replacement) {
+		super("Steady-state GA");
+
+		this.replacement = replacement;
+
+		// Population is capped for replace-worst, else managed by tournament
+		pop = new ColumnarPopulation(domain, (replacement == Replacement.WORST) ? popSize : Integer.MAX_VALUE);
+		variation = new Variation(rng, domain.numBits(), crossoverRate, crossoverType);
+	}
+
+	// -------------------------------------------------------------------------
+
+	@Override
+	public void search() {
+		final EvaluatorPool evaluators = domain.pool();
+		final BlockingQueue<Individual> done = new LinkedBlockingQueue<Individual>();
+		final int maxPending = batchSize();
+
+		int numSubmitted = numTried;
+		int numPending = 0;
+		while (true) {
+			// Keep every slot busy
+			while (numPending < maxPending && numSubmitted < budget && !userQuit) {
+				final Individual child = domain.individual(breedChild());
+				if (evaluators != null) {
+					evaluators.submit(child, done);
+				} else {
+					domain.measure(child);
+					done.add(child);
+				}
+				numSubmitted++;
+				numPending++;
+			}
+			if (numPending == 0)
+				break;
+
+			// Take the next result to finish, in whatever order
+			final Individual indiv;
+			try {
+				indiv = done.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				userQuit = true;
+				break;  // pending measurements finish in the background
+			}
+			numPending--;
+
+			if (indiv.isCancelled())
+				continue;  // never measured, e.g. the pool was shut down
+			if (indiv.quality() == -1) {
+				userQuit = true;  // wait for those pending, but start no more
+				continue;
+			}
+			numTried++;
+			// No generations as such: count results in population sizes instead
+			record(indiv.genotype(), indiv.typicality(), indiv.quality(), indiv.measureTime(), numTried / popSize);
+			learn(indiv.genotype(), indiv.typicality(), indiv.quality());
+			addToPopulation(indiv.genotype(), indiv.typicality(), indiv.quality());
+			progress();
+		}
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Measurements still pending are not part of the state: on resuming, the
+	 * budget they held is bred again (their results, if they finished, being
+	 * in the evaluation cache).
+	 */
+	@Override
+	public void writeState(final DataOutput out) throws IOException {
+		super.writeState(out);
+		Checkpoint.write(out, pop);
+	}
+
+	@Override
+	public void readState(final DataInput in) throws IOException {
+		super.readState(in);
+		pop.clear();
+		Checkpoint.read(in, pop);
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * @return Child genotype, or random genotype while the population is
+	 *         still filling. With a surrogate, the child predicted best of
+	 *         several.
+	 */
+	long breedChild() {
+		if (pop.size() < popSize)
+			return domain.randomGenotype(rng);
+		if (surrogate == null)
+			return variation.breed(pop, tournamentSize);
+
+		if (candidates.length < surrogate.ratio())
+			candidates = new long[surrogate.ratio()];
+		variation.breed(pop, tournamentSize, candidates, 0, surrogate.ratio());
+		surrogate.select(candidates, surrogate.ratio(), candidates, 1);
+		return candidates[0];
+	}
+
+	/**
+	 * Add a measured genotype to the population, replacing a member if full.
+	 *
+	 * @param genotype
+	 *            Genotype.
+	 * @param typicality
+	 *            Typicality value.
+	 * @param quality
+	 *            Quality value.
+	 */
+	void addToPopulation(final long genotype, final double typicality,
+			final double quality) {
+		if (replacement == Replacement.TOURNAMENT && pop.size() >= popSize) {
+			if (!pop.contains(genotype)) {
+				// Least fit of the tournament is the one of highest rank
+				int worst = 0;
+				for (int t = 0; t < tournamentSize; t++)
+					worst = Math.max(worst, rng.nextInt(pop.size()));
+				if (pop.fitness(worst) <= (typicality + quality) / 2.0) {
+					pop.remove(worst);
+					pop.insert(genotype, typicality, quality);
+				}
+			}
+		} else {
+			pop.insert(genotype, typicality, quality);
+		}
+
+		if (typicality >= typicalityThreshold) {
+			// also add individual to master population
+			master.insert(genotype, typicality, quality);
+			numTypical++;
+		}
+	}
+
+}
@@ -0,0 +1,251 @@
+package search;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Surrogate model for screening candidates before they are measured.
+ *
+ * Learns online, from each measured result, to predict whether a genotype is
+ * typical and how good it is, by logistic regression over its codons (each
+ * 4-bit codon value one-hot encoded, so a prediction is a sum of one weight
+ * per codon). Searches then generate several candidates per measurement and
+ * only measure those predicted best.
+ */
+public class Surrogate {
+	/** Bits per codon. */
+	public static final int CODON_BITS = 4;
+
+	/** Results to learn from before screening starts. */
+	public static final int MIN_SAMPLES = 50;
+
+	/** Candidates generated per genotype measured. */
+	protected final int ratio;
+
+	/** Number of codons per genotype. */
+	protected final int numCodons;
+
+	/** Weights per codon value, then bias, for typicality and quality. */
+	protected final double[] typicalWeights;
+	protected final double[] qualityWeights;
+
+	/** SGD learning rate. */
+	protected double learningRate = 0.1;
+
+	/** Highest quality seen, to scale quality into 0..1. */
+	protected double maxQuality;
+
+	/** Number of results learnt from. */
+	protected int numLearned;
+
+	/** Scores of candidates being selected from. */
+	private double[] scores = new double[0];
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 *
+	 * @param numBits
+	 *            Number of genotype bits.
+	 * @param ratio
+	 *            Candidates generated per genotype measured (at least 1).
+	 */
+	public Surrogate(final int numBits, final int ratio) {
+		this.ratio = Math.max(1, ratio);
+		numCodons = (numBits + CODON_BITS - 1) / CODON_BITS;
+		typicalWeights = new double[(numCodons << CODON_BITS) + 1];
+		qualityWeights = new double[(numCodons << CODON_BITS) + 1];
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * @return Candidates generated per genotype measured.
+	 */
+	public int ratio() {
+		return ratio;
+	}
+
+	/**
+	 * @return Number of results learnt from.
+	 */
+	public int numLearned() {
+		return numLearned;
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * @param genotype
+	 *            Genotype.
+	 * @return Predicted probability that the genotype is typical.
+	 */
+	public double predictTypical(final long genotype) {
+		return sigmoid(dot(typicalWeights, genotype));
+	}
+
+	/**
+	 * @param genotype
+	 *            Genotype.
+	 * @return Predicted quality if typical, as a fraction of the best seen.
+	 */
+	public double predictQuality(final long genotype) {
+		return sigmoid(dot(qualityWeights, genotype));
+	}
+
+	/**
+	 * @param genotype
+	 *            Genotype.
+	 * @return Predicted fitness, where atypical genotypes score 0.
+	 */
+	public double score(final long genotype) {
+		return predictTypical(genotype) * (1 + predictQuality(genotype)) / 2;
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Learns from a measured result.
+	 *
+	 * @param genotype
+	 *            Genotype.
+	 * @param typicality
+	 *            Measured typicality.
+	 * @param quality
+	 *            Measured quality.
+	 * @param threshold
+	 *            Typicality threshold for acceptance.
+	 */
+	public void learn(final long genotype, final double typicality,
+			final double quality, final double threshold) {
+		final boolean typical = typicality >= threshold;
+		update(typicalWeights, genotype, typical ? 1 : 0);
+
+		if (typical) {
+			maxQuality = Math.max(maxQuality, quality);
+			if (maxQuality > 0)
+				update(qualityWeights, genotype, quality / maxQuality);
+		}
+		numLearned++;
+	}
+
+	/**
+	 * Chooses the candidates predicted best. Until enough results have been
+	 * learnt, the first candidates are chosen as they are.
+	 *
+	 * @param candidates
+	 *            Candidate genotypes.
+	 * @param numCandidates
+	 *            Number of candidates.
+	 * @param chosen
+	 *            Receives the genotypes chosen (may be candidates itself).
+	 * @param num
+	 *            Number to choose.
+	 */
+	public void select(final long[] candidates, final int numCandidates,
+			final long[] chosen, final int num) {
+		if (numLearned < MIN_SAMPLES || numCandidates <= num) {
+			System.arraycopy(candidates, 0, chosen, 0, Math.min(num, numCandidates));
+			return;
+		}
+
+		if (scores.length < numCandidates)
+			scores = new double[numCandidates];
+		for (int n = 0; n < numCandidates; n++)
+			scores[n] = score(candidates[n]);
+
+		// Move the best to the front, one at a time (num is small)
+		for (int n = 0; n < num; n++) {
+			int best = n;
+			for (int m = n + 1; m < numCandidates; m++)
+				if (scores[m] > scores[best])
+					best = m;
+			final long genotype = candidates[best];
+			candidates[best] = candidates[n];
+			candidates[n] = genotype;
+			scores[best] = scores[n];
+			chosen[n] = genotype;
+		}
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Writes what has been learnt, e.g. to a checkpoint.
+	 * 
+	 * @param out
+	 *            Output.
+	 * @throws IOException
+	 *             If the model could not be written.
+	 */
+	public void writeState(final DataOutput out) throws IOException {
+		out.writeInt(typicalWeights.length);
+		for (int w = 0; w < typicalWeights.length; w++) {
+			out.writeDouble(typicalWeights[w]);
+			out.writeDouble(qualityWeights[w]);
+		}
+		out.writeDouble(maxQuality);
+		out.writeInt(numLearned);
+	}
+
+	/**
+	 * Restores what was learnt from writeState().
+	 * 
+	 * @param in
+	 *            Input.
+	 * @throws IOException
+	 *             If the model could not be read or is of another size.
+	 */
+	public void readState(final DataInput in) throws IOException {
+		if (in.readInt() != typicalWeights.length)
+			throw new IOException("Surrogate model is for another genotype size.");
+		for (int w = 0; w < typicalWeights.length; w++) {
+			typicalWeights[w] = in.readDouble();
+			qualityWeights[w] = in.readDouble();
+		}
+		maxQuality = in.readDouble();
+		numLearned = in.readInt();
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * @return Weighted sum of the genotype's codon features, plus bias.
+	 */
+	protected double dot(final double[] weights, final long genotype) {
+		double sum = weights[weights.length - 1];
+		for (int c = 0; c < numCodons; c++)
+			sum += weights[feature(genotype, c)];
+		return sum;
+	}
+
+	/**
+	 * One step of stochastic gradient descent on log loss.
+	 */
+	protected void update(final double[] weights, final long genotype,
+			final double target) {
+		final double error = sigmoid(dot(weights, genotype)) - target;
+		final double step = learningRate * error;
+		for (int c = 0; c < numCodons; c++)
+			weights[feature(genotype, c)] -= step;
+		weights[weights.length - 1] -= step;
+	}
+
+	/**
+	 * @return Feature index of the value of codon c, codons being read from
+	 *         the most significant bits as by the GE mapper.
+	 */
+	protected int feature(final long genotype, final int c) {
+		final int shift = Math.max(0, numCodons * CODON_BITS - CODON_BITS * (c + 1));
+		return (c << CODON_BITS) | (int) ((genotype >>> shift) & ((1 << CODON_BITS) - 1));
+	}
+
+	protected static double sigmoid(final double x) {
+		return 1 / (1 + Math.exp(-x));
+	}
+
+}
@@ -0,0 +1,183 @@
+package search;
+
+import world.Population;
+import world.Rng;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Variation operators for the GA, producing child genotypes in bulk without
+ * allocating.
+ *
+ * Mutation flips each bit with probability 1/B, drawing the gaps between
+ * flipped bits from the geometric distribution rather than a random number
+ * per bit. Parents are chosen by tournament on rank, as populations are kept
+ * in order of fitness.
+ */
+public class Variation {
+	/** Random number stream. */
+	protected final Rng rng;
+
+	/** Number of genotype bits and their mask. */
+	protected final int numBits;
+	protected final long bitsMask;
+
+	/** Crossover rate as a percentage (0..100). */
+	protected final int crossoverRate;
+
+	/** Crossover type (0=uniform, 1=single-point, 2=double-point). */
+	protected final int crossoverType;
+
+	/** 1 / log(1 - p) for mutation probability p = 1/B, for geometric skips. */
+	protected final double skipScale;
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 *
+	 * @param rng
+	 *            Random number stream, used by this engine only.
+	 * @param numBits
+	 *            Number of genotype bits.
+	 * @param crossoverRate
+	 *            Crossover rate as a percentage (0..100).
+	 * @param crossoverType
+	 *            Crossover type (0=uniform, 1=single-point, 2=double-point).
+	 */
+	public Variation(final Rng rng, final int numBits, final int crossoverRate,
+			final int crossoverType) {
+		if (crossoverType < 0 || crossoverType > 2)
+			throw new IllegalArgumentException("Bad crossover type " + crossoverType + ".");
+
+		this.rng = rng;
+		this.numBits = numBits;
+		this.bitsMask = 0xffffffffffffffffL >>> (64 - numBits);
+		this.crossoverRate = crossoverRate;
+		this.crossoverType = crossoverType;
+
+		skipScale = 1.0 / Math.log(1.0 - 1.0 / numBits);
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Breeds children from a population into an array.
+	 *
+	 * @param parents
+	 *            Population to select parents from (not empty).
+	 * @param tournamentSize
+	 *            Tournament size for selection.
+	 * @param children
+	 *            Receives the child genotypes.
+	 * @param from
+	 *            First index to fill.
+	 * @param to
+	 *            Index after the last to fill.
+	 */
+	public void breed(final Population parents, final int tournamentSize,
+			final long[] children, final int from, final int to) {
+		for (int n = from; n < to; n++)
+			children[n] = breed(parents, tournamentSize);
+	}
+
+	/**
+	 * Breeds a child that differs from its parent(s).
+	 *
+	 * @param parents
+	 *            Population to select parents from (not empty).
+	 * @param tournamentSize
+	 *            Tournament size for selection.
+	 * @return Child genotype.
+	 */
+	public long breed(final Population parents, final int tournamentSize) {
+		final long genotypeA = parents.genotype(selectRank(parents.size(), tournamentSize));
+
+		if (rng.nextInt(100) < crossoverRate) {
+			// Crossover with second parent (don't care if same individual)
+			final long genotypeB = parents.genotype(selectRank(parents.size(), tournamentSize));
+			final long crossed = crossOver(genotypeA, genotypeB);
+			long child;
+			do {
+				child = crossed ^ mutationMask();
+			} while (child == genotypeA || child == genotypeB);
+			return child;
+		}
+
+		// No crossover: mutate at least one bit
+		long mask;
+		do {
+			mask = mutationMask();
+		} while (mask == 0);
+		return genotypeA ^ mask;
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Tournament selection on rank: the best of several random members is the
+	 * one of lowest rank, so fitness need not be looked up.
+	 *
+	 * @param size
+	 *            Population size.
+	 * @param tournamentSize
+	 *            Tournament size.
+	 * @return Rank of the winner (0 is fittest).
+	 */
+	public int selectRank(final int size, final int tournamentSize) {
+		int best = size;
+		for (int t = 0; t < tournamentSize; t++)
+			best = Math.min(best, rng.nextInt(size));
+		return best;
+	}
+
+	/**
+	 * @param genotypeA
+	 *            Genotype from first parent.
+	 * @param genotypeB
+	 *            Genotype from second parent.
+	 * @return Bits resulting from crossover of the configured type.
+	 */
+	public long crossOver(final long genotypeA, final long genotypeB) {
+		long mask = crossoverMask();
+		if (rng.nextBoolean())
+			mask = ~mask; // randomly invert to swap order of parents
+		return ((genotypeA & mask) | (genotypeB & ~mask)) & bitsMask;
+	}
+
+	/**
+	 * @return Mask of bits to take from the first parent: random bits for
+	 *         uniform crossover, else all bits from one or between two random
+	 *         cut points.
+	 */
+	public long crossoverMask() {
+		switch (crossoverType) {
+		case 0: // Uniform crossover
+			return rng.nextLong();
+		case 1: // Single-point crossover
+			return -1L << rng.nextInt(numBits);
+		default: // Double-point crossover
+			return (-1L << rng.nextInt(numBits)) ^ (-1L << rng.nextInt(numBits));
+		}
+	}
+
+	/**
+	 * Bits to flip in a mutation, each with probability 1/B. Rather than a
+	 * random draw per bit, the gap to the next flipped bit is drawn from the
+	 * geometric distribution, so about two draws are needed per mutation.
+	 *
+	 * @return Mask of bits to flip.
+	 */
+	public long mutationMask() {
+		long mask = 0;
+		int bit = -1;
+		while (true) {
+			// 1 - nextDouble() is in (0, 1], avoiding log(0)
+			bit += 1 + (int) (Math.log(1.0 - rng.nextDouble()) * skipScale);
+			if (bit >= numBits || bit < 0)
+				return mask;
+			mask |= 1L << bit;
+		}
+	}
+
+}
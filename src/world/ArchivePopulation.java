@@ -0,0 +1,487 @@
+package world;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import world.domain.Domain;
+import world.domain.Individual;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Master population in bounded memory, for runs finding far more typical
+ * individuals than can be kept and sorted: an exact archive of the best K,
+ * and a uniform sample of all typical individuals inserted, for diversity
+ * and statistics.
+ *
+ * The best are held column-wise in a min-heap with the worst at the root, so
+ * most insertions are turned away by one comparison, and the rest cost
+ * O(log K). They are only sorted when read by rank, after a change. Ties in
+ * fitness keep their order of insertion, so the best are exactly those a
+ * Population of K members would keep.
+ *
+ * The sample is a reservoir of sampleSize members, maintained with Li's
+ * Algorithm L: after it fills, the number of insertions to skip until the
+ * next one sampled is drawn directly, so insertions skipped cost nothing.
+ * Duplicates are detected, by canonical genotype, among the best and among
+ * those sampled only.
+ */
+public class ArchivePopulation extends Population
+{
+	/** Domain for creating individual views and canonical genotypes. */
+	protected final Domain domain;
+
+	/** Random number stream for sampling. */
+	protected final Rng rng;
+
+	/** Values of the best, by slot. */
+	protected final long[] genotypeColumn;
+	protected final long[] keyColumn;
+	protected final double[] typicalityColumn;
+	protected final double[] qualityColumn;
+	protected final double[] fitnessColumn;
+
+	/** Order of insertion of the best, by slot, to break ties in fitness. */
+	protected final long[] orderColumn;
+
+	/** Slots of the best, as a min-heap with the worst at the root. */
+	protected final int[] heap;
+
+	/** Number of best held. */
+	protected int numBest;
+
+	/** Canonical genotypes of the best, for duplicate detection. */
+	protected final LongHashSet bestKeys;
+
+	/** Slots of the best in rank order (0 is fittest), if up to date. */
+	protected final int[] ranking;
+	protected boolean ranked;
+
+	/** Number of insertions, for breaking ties. */
+	protected long numInserted;
+
+	/** Uniform sample of all typical individuals inserted. */
+	protected final ColumnarPopulation reservoir;
+
+	/** Number of typical individuals seen by the sample. */
+	protected long numSeen;
+
+	/** Insertion to sample next, once the reservoir is full. */
+	protected long nextSampled;
+
+	/** Algorithm L's running weight. */
+	protected double weight;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 * @param domain  Domain for creating individual views.
+	 * @param maxBest Number of best individuals to keep.
+	 * @param rng     Random number stream for sampling.
+	 */
+	public ArchivePopulation(final Domain domain, final int maxBest, final Rng rng)
+	{
+		super(maxBest);
+		this.domain = domain;
+		this.rng    = rng;
+
+		genotypeColumn   = new long[maxBest];
+		keyColumn        = new long[maxBest];
+		typicalityColumn = new double[maxBest];
+		qualityColumn    = new double[maxBest];
+		fitnessColumn    = new double[maxBest];
+		orderColumn      = new long[maxBest];
+		heap             = new int[maxBest];
+		ranking          = new int[maxBest];
+		bestKeys         = new LongHashSet(maxBest);
+
+		reservoir = new ColumnarPopulation(domain, Integer.MAX_VALUE);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Number of best individuals held.
+	 */
+	@Override
+	public int size()
+	{
+		return numBest;
+	}
+
+	/**
+	 * @param i Index (0 is fittest).
+	 * @return New individual holding the values of the i-th best.
+	 */
+	@Override
+	public Individual get(final int i)
+	{
+		final int slot = slot(i);
+		return domain.individual(genotypeColumn[slot], typicalityColumn[slot], qualityColumn[slot]);
+	}
+
+	@Override
+	public long genotype(final int i)
+	{
+		return genotypeColumn[slot(i)];
+	}
+
+	@Override
+	public double typicality(final int i)
+	{
+		return typicalityColumn[slot(i)];
+	}
+
+	@Override
+	public double quality(final int i)
+	{
+		return qualityColumn[slot(i)];
+	}
+
+	@Override
+	public double fitness(final int i)
+	{
+		return fitnessColumn[slot(i)];
+	}
+
+	/**
+	 * @return Uniform sample of all typical individuals inserted.
+	 */
+	@Override
+	public Population sample()
+	{
+		return reservoir;
+	}
+
+	/**
+	 * @return Per-bit counts over the sample.
+	 */
+	@Override
+	public Diversity diversity()
+	{
+		return reservoir.diversity();
+	}
+
+	/**
+	 * @return Whether one of the best has this genotype, or one standing for it.
+	 */
+	@Override
+	public boolean contains(final long genotype)
+	{
+		return bestKeys.contains(key(genotype));
+	}
+
+	/**
+	 * @return Number of typical individuals inserted since cleared.
+	 */
+	public long numSeen()
+	{
+		return numSeen;
+	}
+
+	//-------------------------------------------------------------------------
+
+	@Override
+	public void clear()
+	{
+		numBest = 0;
+		bestKeys.clear();
+		ranked = false;
+		numCollisions = 0;
+
+		reservoir.clear();
+		numSeen = 0;
+	}
+
+	@Override
+	public void insert(final Individual indiv)
+	{
+		insert(indiv.genotype(), indiv.typicality(), indiv.quality());
+	}
+
+	/**
+	 * Offers the values to the best, then to the sample. Duplicates of one of
+	 * the best that would otherwise be among them are counted as collisions.
+	 */
+	@Override
+	public void insert(final long genotype, final double typicality, final double quality)
+	{
+		offer(genotype, typicality, quality);
+		sample(genotype, typicality, quality);
+	}
+
+	/**
+	 * Removes the best at the specified position.
+	 * @param i Index (0 is fittest).
+	 */
+	@Override
+	public void remove(final int i)
+	{
+		final int slot = slot(i);
+		int at = 0;
+		while (heap[at] != slot)
+			at++;
+
+		bestKeys.remove(keyColumn[slot]);
+		numBest--;
+		if (at < numBest)
+		{
+			heap[at] = heap[numBest];
+			siftDown(heap, at, numBest);
+			siftUp(at);
+		}
+
+		// Keep slots 0..numBest-1 in use, as offer() fills slot numBest next
+		if (slot != numBest)
+		{
+			genotypeColumn[slot]   = genotypeColumn[numBest];
+			keyColumn[slot]        = keyColumn[numBest];
+			typicalityColumn[slot] = typicalityColumn[numBest];
+			qualityColumn[slot]    = qualityColumn[numBest];
+			fitnessColumn[slot]    = fitnessColumn[numBest];
+			orderColumn[slot]      = orderColumn[numBest];
+
+			at = 0;
+			while (heap[at] != numBest)
+				at++;
+			heap[at] = slot;
+		}
+		ranked = false;
+	}
+
+	@Override
+	protected long key(final long genotype)
+	{
+		return domain.canonical(genotype);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Adds the values to the best if among them and unique, replacing the worst
+	 * if full.
+	 */
+	protected void offer(final long genotype, final double typicality, final double quality)
+	{
+		final double fitness = (typicality + quality) / 2.0;
+		final long order = numInserted++;
+		if (numBest == maxMembers && !worse(fitnessColumn[heap[0]], orderColumn[heap[0]], fitness, order))
+			return;  // no better than the worst of the best
+
+		final long key = key(genotype);
+		if (!bestKeys.add(key))
+		{
+			numCollisions++;
+			return;  // don't add duplicates
+		}
+
+		final int slot;
+		if (numBest < maxMembers)
+			slot = numBest;
+		else
+			bestKeys.remove(keyColumn[slot = heap[0]]);
+
+		genotypeColumn[slot]   = genotype;
+		keyColumn[slot]        = key;
+		typicalityColumn[slot] = typicality;
+		qualityColumn[slot]    = quality;
+		fitnessColumn[slot]    = fitness;
+		orderColumn[slot]      = order;
+
+		if (numBest < maxMembers)
+		{
+			heap[numBest] = slot;
+			siftUp(numBest++);
+		}
+		else
+		{
+			siftDown(heap, 0, numBest);
+		}
+		ranked = false;
+	}
+
+	/**
+	 * Counts the values into the sample, replacing a random member if picked
+	 * once the sample is full.
+	 */
+	protected void sample(final long genotype, final double typicality, final double quality)
+	{
+		numSeen++;
+		if (reservoir.size() < sampleSize)
+		{
+			reservoir.insert(genotype, typicality, quality);  // duplicates are not added
+			if (reservoir.size() == sampleSize)
+			{
+				weight = Math.exp(Math.log(1 - rng.nextDouble()) / sampleSize);
+				skip();
+			}
+			return;
+		}
+		if (numSeen < nextSampled)
+			return;
+
+		if (!reservoir.contains(genotype))
+		{
+			reservoir.remove(rng.nextInt(sampleSize));
+			reservoir.insert(genotype, typicality, quality);
+		}
+		weight *= Math.exp(Math.log(1 - rng.nextDouble()) / sampleSize);
+		skip();
+	}
+
+	/**
+	 * Draws the next insertion to sample.
+	 */
+	protected void skip()
+	{
+		final double gap = Math.floor(Math.log(1 - rng.nextDouble()) / Math.log1p(-weight));
+		nextSampled = (gap < Long.MAX_VALUE - numSeen) ? numSeen + (long)gap + 1 : Long.MAX_VALUE;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Whether a member of fitness fa inserted at oa ranks below one of
+	 *         fitness fb inserted at ob.
+	 */
+	protected static boolean worse(final double fa, final long oa, final double fb, final long ob)
+	{
+		return fa < fb || (fa == fb && oa > ob);
+	}
+
+	/**
+	 * @return Whether the best in slot a ranks below that in slot b.
+	 */
+	protected boolean worse(final int a, final int b)
+	{
+		return worse(fitnessColumn[a], orderColumn[a], fitnessColumn[b], orderColumn[b]);
+	}
+
+	/**
+	 * Moves the slot at the specified heap position up to its place.
+	 */
+	protected void siftUp(int at)
+	{
+		final int slot = heap[at];
+		while (at > 0)
+		{
+			final int parent = (at - 1) >>> 1;
+			if (!worse(slot, heap[parent]))
+				break;
+			heap[at] = heap[parent];
+			at = parent;
+		}
+		heap[at] = slot;
+	}
+
+	/**
+	 * Moves the slot at the specified position of a min-heap of slots down to
+	 * its place.
+	 */
+	protected void siftDown(final int[] slots, int at, final int num)
+	{
+		final int slot = slots[at];
+		while (true)
+		{
+			int child = 2 * at + 1;
+			if (child >= num)
+				break;
+			if (child + 1 < num && worse(slots[child + 1], slots[child]))
+				child++;
+			if (!worse(slots[child], slot))
+				break;
+			slots[at] = slots[child];
+			at = child;
+		}
+		slots[at] = slot;
+	}
+
+	/**
+	 * @param i Index (0 is fittest).
+	 * @return Slot of the i-th best, ranking them first if changed.
+	 */
+	protected int slot(final int i)
+	{
+		if (i < 0 || i >= numBest)
+			throw new IndexOutOfBoundsException("Index " + i + " of " + numBest + ".");
+		if (!ranked)
+		{
+			// Heapsort a copy: taking the worst off the end leaves the fittest first
+			System.arraycopy(heap, 0, ranking, 0, numBest);
+			for (int n = numBest - 1; n > 0; n--)
+			{
+				final int worst = ranking[0];
+				ranking[0] = ranking[n];
+				ranking[n] = worst;
+				siftDown(ranking, 0, n);
+			}
+			ranked = true;
+		}
+		return ranking[i];
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Writes the best, fittest first, then the sample and its random number
+	 * stream.
+	 */
+	@Override
+	public void writeState(final DataOutput out) throws IOException
+	{
+		super.writeState(out);
+		out.writeLong(numSeen);
+		out.writeLong(nextSampled);
+		out.writeDouble(weight);
+		rng.writeState(out);
+		reservoir.writeState(out);
+	}
+
+	@Override
+	public void readState(final DataInput in) throws IOException
+	{
+		final int size = in.readInt();
+		for (int i = 0; i < size; i++)
+		{
+			final long genotype = in.readLong();
+			final double typicality = in.readDouble();
+			offer(genotype, typicality, in.readDouble());
+		}
+		numSeen     = in.readLong();
+		nextSampled = in.readLong();
+		weight      = in.readDouble();
+		rng.readState(in);
+		reservoir.readState(in);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Measures diversity by centre of inertia (COI) over the best, and over
+	 * the sample.
+	 */
+	@Override
+	public void measureDiversityCOI()
+	{
+		if (numBest == 0)
+			return;
+
+		final int numBits = domain.numBits();
+		final int numToMeasure = Math.min(sampleSize, numBest);
+
+		final long[] best = new long[numToMeasure];
+		for (int i = 0; i < numToMeasure; i++)
+			best[i] = genotype(i);
+		final double varnBest = Diversity.of(best, 0, numToMeasure).coi(numBits);
+
+		final Diversity sampled = reservoir.diversity();
+		System.out.printf("    Best %d (COI) diversity is %.3f.\n", Integer.valueOf(numToMeasure), Double.valueOf(varnBest));
+		System.out.printf("    Sample of %d out of %d typical: COI %.3f, Hamming %.3f, entropy %.3f.\n",
+				Integer.valueOf(reservoir.size()), Long.valueOf(numSeen),
+				Double.valueOf(sampled.coi(numBits)), Double.valueOf(sampled.hamming(numBits)),
+				Double.valueOf(sampled.entropy(numBits)));
+	}
+
+}
@@ -0,0 +1,226 @@
+package world;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import search.Search;
+import world.domain.Domain;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Periodic snapshot of a running search, from which it can be resumed.
+ *
+ * A snapshot holds the master seed, which search was running and its state
+ * (counters, random number stream, local populations), the domain's random
+ * number streams, then the master population. It is written in full to a
+ * temporary file which is then renamed over the last, and the directory
+ * synced, so a crash at any point leaves a complete snapshot behind.
+ */
+public class Checkpoint
+{
+	/** File signature. */
+	protected static final long MAGIC = 0x4a57434b504f494eL;  // "JWCKPOIN"
+
+	/** Format version. */
+	protected static final int VERSION = 2;
+
+	/** Snapshot file. */
+	protected final File file;
+
+	/** Minimum time between snapshots (ms). */
+	protected final long interval;
+
+	/** Master seed of the run. */
+	protected final long seed;
+
+	/** Domain searched, whose random number streams are saved. */
+	protected final Domain domain;
+
+	/** Index of the search running. */
+	protected int searchIndex;
+
+	/** When the last snapshot was taken. */
+	protected long lastAt = System.currentTimeMillis();
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 * @param file     Snapshot file.
+	 * @param interval Minimum time between snapshots (ms).
+	 * @param seed     Master seed of the run.
+	 * @param domain   Domain searched.
+	 */
+	public Checkpoint(final File file, final long interval, final long seed, final Domain domain)
+	{
+		this.file     = file;
+		this.interval = interval;
+		this.seed     = seed;
+		this.domain   = domain;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Snapshot file.
+	 */
+	public File file()
+	{
+		return file;
+	}
+
+	/**
+	 * @param index Index of the search now running, among the run's searches.
+	 */
+	public void setSearchIndex(final int index)
+	{
+		searchIndex = index;
+	}
+
+	/**
+	 * @return Whether a snapshot is due.
+	 */
+	public boolean due()
+	{
+		return System.currentTimeMillis() - lastAt >= interval;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Writes a snapshot of the search and master population, replacing the
+	 * last one only once complete.
+	 * @param search Search running.
+	 * @param master Master population.
+	 * @throws IOException If the snapshot could not be written.
+	 */
+	public void save(final Search search, final Population master) throws IOException
+	{
+		final File tmp = new File(file.getPath() + ".tmp");
+		final FileOutputStream stream = new FileOutputStream(tmp);
+		try
+		{
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(seed);
+			out.writeInt(searchIndex);
+			out.writeUTF(search.name());
+			search.writeState(out);
+			domain.writeState(out);
+			write(out, master);
+			out.flush();
+			stream.getFD().sync();
+		}
+		finally
+		{
+			stream.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Utils.syncDirectory(file);  // make the rename itself durable
+		lastAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * @param file Snapshot file.
+	 * @return Master seed of the run snapshot, to set up the run again before
+	 *         restoring it.
+	 * @throws IOException If the file is not a valid snapshot.
+	 */
+	public static long seed(final File file) throws IOException
+	{
+		final DataInputStream in = open(file);
+		try
+		{
+			return in.readLong();
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Restores the snapshot search's state and the master population.
+	 * @param searches Searches of the run, set up as when the snapshot was taken.
+	 * @param master   Master population, to be filled.
+	 * @return Index of the search restored, from which to continue.
+	 * @throws IOException If the snapshot is invalid or does not fit the searches.
+	 */
+	public int restore(final List<Search> searches, final Population master) throws IOException
+	{
+		final DataInputStream in = open(file);
+		try
+		{
+			if (in.readLong() != seed)
+				throw new IOException(file + " is from a run with a different seed.");
+			final int index = in.readInt();
+			final String name = in.readUTF();
+			if (index < 0 || index >= searches.size() || !searches.get(index).name().equals(name))
+				throw new IOException(file + " is from search " + name + ", not set up in this run.");
+
+			searches.get(index).readState(in);
+			domain.readState(in);
+			master.clear();
+			read(in, master);
+
+			searchIndex = index;
+			return index;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Writes a population's members, fittest first.
+	 * @param out Output.
+	 * @param pop Population.
+	 * @throws IOException If the population could not be written.
+	 */
+	public static void write(final DataOutput out, final Population pop) throws IOException
+	{
+		pop.writeState(out);
+	}
+
+	/**
+	 * Reads members written by write() into a population.
+	 * @param in  Input.
+	 * @param pop Population to add to.
+	 * @throws IOException If the members could not be read.
+	 */
+	public static void read(final DataInput in, final Population pop) throws IOException
+	{
+		pop.readState(in);
+	}
+
+	/**
+	 * Opens a snapshot file, positioned after the header.
+	 */
+	protected static DataInputStream open(final File file) throws IOException
+	{
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		if (in.readLong() != MAGIC || in.readInt() != VERSION)
+		{
+			in.close();
+			throw new IOException(file + " is not a valid checkpoint.");
+		}
+		return in;
+	}
+
+}
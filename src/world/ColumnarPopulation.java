@@ -0,0 +1,141 @@
+package world;
+
+import java.util.Arrays;
+
+import world.domain.Domain;
+import world.domain.Individual;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Population held column-wise, as parallel arrays of genotype, typicality and
+ * quality, rather than as Individual objects. Each member then costs a few
+ * dozen bytes, and scans over genotypes or fitness don't chase pointers.
+ *
+ * Individuals are only created when requested through get(), as views of the
+ * stored values. Fitness is taken as (typicality + quality) / 2, as per
+ * Individual.fitness().
+ */
+public class ColumnarPopulation extends Population
+{
+	/** Domain for creating individual views and canonical genotypes. */
+	protected final Domain domain;
+
+	/** Member values, by node id in the ranking. */
+	protected long[] genotypeColumn = new long[16];
+	protected double[] typicalityColumn = new double[16];
+	protected double[] qualityColumn = new double[16];
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 * @param domain Domain for creating individual views.
+	 */
+	public ColumnarPopulation(final Domain domain)
+	{
+		this(domain, 10000);
+	}
+
+	/**
+	 * Constructor.
+	 * @param domain Domain for creating individual views.
+	 * @param maxMembers Maximum number of members allowed in population.
+	 */
+	public ColumnarPopulation(final Domain domain, final int maxMembers)
+	{
+		super(maxMembers);
+		this.domain = domain;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param i Index (0 is fittest).
+	 * @return New individual holding the values stored at position i.
+	 */
+	@Override
+	public Individual get(final int i)
+	{
+		final int node = members.node(i);
+		return domain.individual(genotypeColumn[node], typicalityColumn[node], qualityColumn[node]);
+	}
+
+	@Override
+	public long genotype(final int i)
+	{
+		return genotypeColumn[members.node(i)];
+	}
+
+	@Override
+	public double typicality(final int i)
+	{
+		return typicalityColumn[members.node(i)];
+	}
+
+	@Override
+	public double quality(final int i)
+	{
+		return qualityColumn[members.node(i)];
+	}
+
+	@Override
+	public double fitness(final int i)
+	{
+		final int node = members.node(i);
+		return (typicalityColumn[node] + qualityColumn[node]) / 2.0;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Stores the individual's values if its genotype is unique.
+	 * The individual itself is not kept.
+	 */
+	@Override
+	public void insert(final Individual indiv)
+	{
+		insert(indiv.genotype(), indiv.typicality(), indiv.quality());
+	}
+
+	/**
+	 * Stores the values directly, without creating an individual.
+	 */
+	@Override
+	public void insert(final long genotype, final double typicality, final double quality)
+	{
+		final int node = admit(genotype, (typicality + quality) / 2.0);
+		if (node < 0)
+			return;  // don't add duplicates
+		if (members.capacity() > genotypeColumn.length)
+		{
+			genotypeColumn   = Arrays.copyOf(genotypeColumn, members.capacity());
+			typicalityColumn = Arrays.copyOf(typicalityColumn, members.capacity());
+			qualityColumn    = Arrays.copyOf(qualityColumn, members.capacity());
+		}
+		genotypeColumn[node]   = genotype;
+		typicalityColumn[node] = typicality;
+		qualityColumn[node]    = quality;
+
+		evict();
+	}
+
+	@Override
+	protected long key(final long genotype)
+	{
+		return domain.canonical(genotype);
+	}
+
+	@Override
+	protected long genotypeOf(final int node)
+	{
+		return genotypeColumn[node];
+	}
+
+	@Override
+	protected void release(final int node)
+	{
+		// Nothing to release: slot is overwritten when the node id is reused
+	}
+
+}
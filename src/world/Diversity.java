@@ -0,0 +1,242 @@
+package world;
+
+import java.util.Arrays;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Per-bit on-counts over a set of genotypes, from which diversity measures
+ * follow in O(numBits) time, however many genotypes there are.
+ *
+ * Counts can be kept up to date incrementally as genotypes are added and
+ * removed, or built in one pass over an array of genotypes, and counts from
+ * disjoint sets can be merged.
+ */
+public class Diversity
+{
+	/** Minimum number of genotypes worth counting on several threads. */
+	public static final int PARALLEL_THRESHOLD = 1 << 16;
+
+	/** Number of genotypes with each bit on. */
+	protected final long[] onCounts = new long[Long.SIZE];
+
+	/** Number of genotypes counted. */
+	protected long count;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Number of genotypes counted.
+	 */
+	public long size()
+	{
+		return count;
+	}
+
+	/**
+	 * @param b Bit index.
+	 * @return Number of genotypes with bit b on.
+	 */
+	public long onCount(final int b)
+	{
+		return onCounts[b];
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param genotype Genotype to count.
+	 */
+	public void add(final long genotype)
+	{
+		count++;
+		for (long bits = genotype; bits != 0; bits &= bits - 1)
+			onCounts[Long.numberOfTrailingZeros(bits)]++;
+	}
+
+	/**
+	 * @param genotype Previously counted genotype to discount.
+	 */
+	public void remove(final long genotype)
+	{
+		count--;
+		for (long bits = genotype; bits != 0; bits &= bits - 1)
+			onCounts[Long.numberOfTrailingZeros(bits)]--;
+	}
+
+	/**
+	 * Adds the counts of another (disjoint) set of genotypes.
+	 * @param other Counts to add.
+	 */
+	public void merge(final Diversity other)
+	{
+		count += other.count;
+		for (int b = 0; b < Long.SIZE; b++)
+			onCounts[b] += other.onCounts[b];
+	}
+
+	/**
+	 * Discounts all genotypes.
+	 */
+	public void clear()
+	{
+		count = 0;
+		Arrays.fill(onCounts, 0);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Morrison & De Jong's centre of inertia (COI) diversity: mean squared
+	 * distance of genotypes from their centroid, per bit.
+	 * @param numBits Number of genotype bits in use.
+	 * @return Diversity in 0..0.25.
+	 */
+	public double coi(final int numBits)
+	{
+		if (count == 0)
+			return 0;
+
+		// Mean of (p - x)^2 over genotypes is p(1 - p) for each bit
+		double total = 0;
+		for (int b = 0; b < numBits; b++)
+		{
+			final double p = onCounts[b] / (double)count;
+			total += p * (1 - p);
+		}
+		return total / numBits;
+	}
+
+	/**
+	 * Mean Hamming distance between pairs of distinct genotypes, per bit.
+	 * Each bit separates its on and off genotypes, so the sum of pairwise
+	 * popcount(a ^ b) is the sum over bits of on * off.
+	 * @param numBits Number of genotype bits in use.
+	 * @return Diversity in 0..1.
+	 */
+	public double hamming(final int numBits)
+	{
+		if (count < 2)
+			return 0;
+
+		double total = 0;
+		for (int b = 0; b < numBits; b++)
+			total += onCounts[b] * (double)(count - onCounts[b]);
+		return total / (count * (count - 1) / 2.0) / numBits;
+	}
+
+	/**
+	 * Mean Shannon entropy of each bit over the genotypes.
+	 * @param numBits Number of genotype bits in use.
+	 * @return Diversity in 0..1.
+	 */
+	public double entropy(final int numBits)
+	{
+		if (count == 0)
+			return 0;
+
+		double total = 0;
+		for (int b = 0; b < numBits; b++)
+		{
+			final double p = onCounts[b] / (double)count;
+			if (p > 0 && p < 1)
+				total -= p * Math.log(p) + (1 - p) * Math.log(1 - p);
+		}
+		return total / Math.log(2) / numBits;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Counts an array of genotypes. Genotypes are taken 64 at a time and
+	 * transposed into bit columns, so that each bit's count for the block is
+	 * a single popcount. Large arrays are split over several threads.
+	 * @param genotypes Genotypes.
+	 * @param from First index to count.
+	 * @param to Index after the last to count.
+	 * @return Counts over the genotypes.
+	 */
+	public static Diversity of(final long[] genotypes, final int from, final int to)
+	{
+		final int numThreads = Math.min(Runtime.getRuntime().availableProcessors(), (to - from) / (PARALLEL_THRESHOLD / 4));
+		if (to - from < PARALLEL_THRESHOLD || numThreads < 2)
+			return count(genotypes, from, to);
+
+		final Diversity[] parts = new Diversity[numThreads];
+		final Thread[] threads = new Thread[numThreads];
+		for (int t = 0; t < numThreads; t++)
+		{
+			final int part = t;
+			final int partFrom = from + (int)((to - from) * (long)t / numThreads);
+			final int partTo   = from + (int)((to - from) * (long)(t + 1) / numThreads);
+			threads[t] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					parts[part] = count(genotypes, partFrom, partTo);
+				}
+			}, "diversity-" + t);
+			threads[t].start();
+		}
+
+		final Diversity total = new Diversity();
+		for (int t = 0; t < numThreads; t++)
+		{
+			try
+			{
+				threads[t].join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return count(genotypes, from, to);
+			}
+			total.merge(parts[t]);
+		}
+		return total;
+	}
+
+	/**
+	 * Counts an array of genotypes on the current thread.
+	 */
+	protected static Diversity count(final long[] genotypes, final int from, final int to)
+	{
+		final Diversity diversity = new Diversity();
+		final long[] block = new long[Long.SIZE];
+		for (int start = from; start < to; start += Long.SIZE)
+		{
+			final int num = Math.min(Long.SIZE, to - start);
+			System.arraycopy(genotypes, start, block, 0, num);
+			if (num < Long.SIZE)
+				Arrays.fill(block, num, Long.SIZE, 0);
+
+			transpose(block);
+			for (int b = 0; b < Long.SIZE; b++)
+				diversity.onCounts[b] += Long.bitCount(block[b]);
+			diversity.count += num;
+		}
+		return diversity;
+	}
+
+	/**
+	 * Transposes a 64x64 bit matrix in place, so that afterwards bit j of
+	 * row b holds what was bit b of row j.
+	 * From Hacker's Delight (2nd ed.), section 7-3, recursive block swap.
+	 * @param rows Matrix rows.
+	 */
+	protected static void transpose(final long[] rows)
+	{
+		long mask = 0x00000000ffffffffL;
+		for (int width = 32; width != 0; width >>>= 1, mask ^= mask << width)
+		{
+			for (int k = 0; k < Long.SIZE; k = ((k | width) + 1) & ~width)
+			{
+				final long swap = ((rows[k] >>> width) ^ rows[k | width]) & mask;
+				rows[k] ^= swap << width;
+				rows[k | width] ^= swap;
+			}
+		}
+	}
+
+}
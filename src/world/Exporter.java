@@ -0,0 +1,267 @@
+package world;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import world.domain.Domain;
+import world.domain.Individual;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Keeps an output directory in step with the best members of a population
+ * while the search runs, on a background thread.
+ *
+ * The search publishes the current best every so often, which costs no more
+ * than reading them; the exporter thread then exports those new to the best,
+ * deletes those no longer among them, and rewrites the summary file, which is
+ * replaced in one step so it is never seen half written. If several updates
+ * are published while an export is running, only the latest is exported.
+ */
+public class Exporter
+{
+	/** Summary file name. */
+	public static final String SUMMARY = "summary.txt";
+
+	/** Domain of the individuals exported. */
+	protected final Domain domain;
+
+	/** Output directory. */
+	protected final File dir;
+
+	/** Number of best members to export. */
+	protected final int numToExport;
+
+	/** Thread exporting. */
+	protected final ExecutorService executor;
+
+	/** Latest best published but not yet exported, if any. */
+	protected final AtomicReference<Best> pending = new AtomicReference<Best>();
+
+	/** Best last published (publishing thread only). */
+	protected Best published;
+
+	/** Files exported, by genotype (exporter thread only), or null before the first export. */
+	protected Map<Long, String> exported;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Values of the best members at some point.
+	 */
+	protected static class Best
+	{
+		final int num;
+		final long[] genotypes;
+		final double[] typicality;
+		final double[] quality;
+
+		Best(final Population pop, final int max)
+		{
+			num = Math.min(max, pop.size());
+			genotypes  = new long[num];
+			typicality = new double[num];
+			quality    = new double[num];
+			for (int i = 0; i < num; i++)
+			{
+				genotypes[i]  = pop.genotype(i);
+				typicality[i] = pop.typicality(i);
+				quality[i]    = pop.quality(i);
+			}
+		}
+
+		boolean sameAs(final Best other)
+		{
+			if (other == null || other.num != num)
+				return false;
+			for (int i = 0; i < num; i++)
+				if (genotypes[i] != other.genotypes[i] || typicality[i] != other.typicality[i] || quality[i] != other.quality[i])
+					return false;
+			return true;
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 * @param domain      Domain of the individuals exported.
+	 * @param dir         Output directory; files already there are replaced.
+	 * @param numToExport Number of best members to export.
+	 */
+	public Exporter(final Domain domain, final File dir, final int numToExport)
+	{
+		this.domain      = domain;
+		this.dir         = dir;
+		this.numToExport = numToExport;
+
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(final Runnable task)
+			{
+				final Thread thread = new Thread(task, "Exporter");
+				thread.setDaemon(true);  // never holds up exit
+				return thread;
+			}
+		});
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Publishes the population's current best for export, if changed since
+	 * last published. Call from the thread that updates the population.
+	 * @param pop Population, in order of fitness.
+	 */
+	public void publish(final Population pop)
+	{
+		final Best best = new Best(pop, numToExport);
+		if (best.sameAs(published))
+			return;
+		published = best;
+
+		if (pending.getAndSet(best) == null)
+		{
+			// No export queued yet: queue one, which takes the latest best
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final Best latest = pending.getAndSet(null);
+					if (latest != null)
+						export(latest);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Waits for exports in progress, up to the specified time, and stops.
+	 * @param timeout Longest time to wait (ms).
+	 * @return Whether all exports were completed.
+	 */
+	public boolean close(final long timeout)
+	{
+		executor.shutdown();
+		try
+		{
+			return executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Brings the output directory in step with the specified best members.
+	 */
+	protected void export(final Best best)
+	{
+		if (exported == null && !prepare())
+			return;
+
+		// Keep those still among the best
+		final Map<Long, String> files = new HashMap<Long, String>();
+		final List<Long> genotypes = new ArrayList<Long>();
+		final List<Individual> added = new ArrayList<Individual>();
+		for (int i = 0; i < best.num; i++)
+		{
+			final Long genotype = Long.valueOf(best.genotypes[i]);
+			final String file = exported.remove(genotype);
+			if (file != null)
+			{
+				files.put(genotype, file);
+			}
+			else
+			{
+				genotypes.add(genotype);
+				added.add(domain.individual(best.genotypes[i], best.typicality[i], best.quality[i]));
+			}
+		}
+
+		// Export those new to the best, rendered as a batch
+		domain.render(added);
+		for (int n = 0; n < added.size(); n++)
+		{
+			final String file = added.get(n).export(dir.getPath());
+			if (file.isEmpty())
+				System.out.println("Failed to export " + String.format("0x%x", genotypes.get(n)) + ".");
+			files.put(genotypes.get(n), file);
+		}
+
+		// The rest are no longer among the best
+		for (final String file : exported.values())
+			if (!file.isEmpty())
+				new File(file).delete();
+		exported = files;
+
+		writeSummary(best);
+	}
+
+	/**
+	 * Creates the output directory, or clears it of files from previous runs.
+	 * @return Whether the directory is ready.
+	 */
+	protected boolean prepare()
+	{
+		if (!dir.exists() && !dir.mkdirs())
+		{
+			System.out.println("Failed to create directory " + dir + ".");
+			return false;
+		}
+		final File[] files = dir.listFiles();
+		if (files != null)
+			for (final File file : files)
+				if (!file.getName().equals(SUMMARY))  // replaced when written
+					file.delete();
+		exported = new HashMap<Long, String>();
+		return true;
+	}
+
+	/**
+	 * Writes the summary to a temporary file, then moves it over the last.
+	 */
+	@SuppressWarnings("boxing")
+	protected void writeSummary(final Best best)
+	{
+		final File tmp = new File(dir, SUMMARY + ".tmp");
+		try
+		{
+			final PrintStream out = new PrintStream(new FileOutputStream(tmp));
+			for (int i = 0; i < best.num; i++)
+			{
+				final String file = exported.get(Long.valueOf(best.genotypes[i]));
+				if (file != null && !file.isEmpty())
+					out.printf("%s: typicality=%.3f, quality=%.3f.\n", file, best.typicality[i], best.quality[i]);
+			}
+			out.close();
+			if (out.checkError())
+				throw new IOException("write failed");
+			Files.move(tmp.toPath(), new File(dir, SUMMARY).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e)
+		{
+			System.out.println("Failed to write " + SUMMARY + ": " + e.getMessage());
+		}
+	}
+
+}
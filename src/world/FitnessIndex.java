@@ -0,0 +1,390 @@
+package world;
+
+import java.util.Arrays;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Ranking of population members by decreasing fitness, with O(log n) 
+ * insertion, removal by rank, and access by rank.
+ *
+ * Each member is identified by a node id, which the population uses to index
+ * its own storage of the member. Node ids are reused once removed.
+ *
+ * Implemented as a treap with subtree sizes for rank lookup. Node fields are
+ * interleaved in a few flat arrays, so that each level of the tree costs as
+ * few cache misses as possible. Members of equal fitness keep their order
+ * of insertion.
+ */
+class FitnessIndex
+{
+	/** No node. */
+	protected static final int NIL = -1;
+
+	/** Sort keys per node: [2n] = inverted fitness bits, [2n+1] = insertion order. */
+	protected long[] keys;
+
+	/** Links per node: [4n] = left, [4n+1] = right, [4n+2] = size, [4n+3] = priority. */
+	protected int[] links;
+
+	/** Number of nodes allocated. */
+	protected int capacity;
+
+	/** Root node. */
+	protected int root = NIL;
+
+	/** Next unused node, and head of the list of freed nodes (linked by left). */
+	protected int used;
+	protected int free = NIL;
+
+	/** Insertion counter, to order individuals of equal fitness. */
+	protected long numInserted;
+
+	/** Priority generator state (xorshift). */
+	protected int seed = 0x2545f491;
+
+	/** Nodes in rank order, if built since the last change, else null. */
+	protected int[] ranked;
+
+	/** Number of rank lookups since the last change. */
+	protected int numLookups;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 */
+	FitnessIndex()
+	{
+		allocate(16);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Number of members.
+	 */
+	int size()
+	{
+		return sizeOf(root);
+	}
+
+	/**
+	 * @return Number of node ids allocated; all node ids are below this.
+	 */
+	int capacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * @param rank Rank (0 is fittest).
+	 * @return Node id of the member at the specified rank.
+	 */
+	int node(final int rank)
+	{
+		if (rank < 0 || rank >= size())
+			throw new IndexOutOfBoundsException("Rank " + rank + " of " + size() + ".");
+
+		if (ranked != null)
+			return ranked[rank];
+
+		// Repeated lookups without changes (e.g. scanning the population):
+		// flatten the tree once, rather than walking it every time
+		if (++numLookups > 32)
+		{
+			ranked = new int[size()];
+			flatten(root, 0);
+			return ranked[rank];
+		}
+
+		int node = root;
+		int r = rank;
+		while (true)
+		{
+			final int leftSize = sizeOf(links[4 * node]);
+			if (r < leftSize)
+			{
+				node = links[4 * node];
+			}
+			else if (r == leftSize)
+			{
+				return node;
+			}
+			else
+			{
+				r -= leftSize + 1;
+				node = links[4 * node + 1];
+			}
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Inserts a member after all others of greater or equal fitness.
+	 * @param fitness Member's fitness.
+	 * @return Node id for the new member.
+	 */
+	int insert(final double fitness)
+	{
+		changed();
+		final int node = newNode(fitness);
+		root = insert(root, node);
+		return node;
+	}
+
+	/**
+	 * Removes the least fit member.
+	 * @return Node id of the member removed, or NIL if empty.
+	 */
+	int removeLast()
+	{
+		if (root == NIL)
+			return NIL;
+		changed();
+
+		// Find the rightmost node, decrementing sizes on the way down
+		int parent = NIL;
+		int node = root;
+		while (links[4 * node + 1] != NIL)
+		{
+			links[4 * node + 2]--;
+			parent = node;
+			node = links[4 * node + 1];
+		}
+		if (parent == NIL)
+			root = links[4 * node];
+		else
+			links[4 * parent + 1] = links[4 * node];
+
+		links[4 * node] = free;
+		free = node;
+		return node;
+	}
+
+	/**
+	 * Removes the member at the specified rank.
+	 * @param rank Rank (0 is fittest).
+	 * @return Node id of the member removed.
+	 */
+	int remove(final int rank)
+	{
+		if (rank < 0 || rank >= size())
+			throw new IndexOutOfBoundsException("Rank " + rank + " of " + size() + ".");
+		changed();
+
+		// Find the node, decrementing sizes on the way down
+		int parent = NIL;
+		boolean isLeft = false;
+		int node = root;
+		int r = rank;
+		while (true)
+		{
+			final int leftSize = sizeOf(links[4 * node]);
+			if (r == leftSize)
+				break;
+			links[4 * node + 2]--;
+			parent = node;
+			if (r < leftSize)
+			{
+				isLeft = true;
+				node = links[4 * node];
+			}
+			else
+			{
+				isLeft = false;
+				r -= leftSize + 1;
+				node = links[4 * node + 1];
+			}
+		}
+
+		final int merged = merge(links[4 * node], links[4 * node + 1]);
+		if (parent == NIL)
+			root = merged;
+		else
+			links[4 * parent + (isLeft ? 0 : 1)] = merged;
+
+		links[4 * node] = free;
+		free = node;
+		return node;
+	}
+
+	/**
+	 * Removes all members.
+	 */
+	void clear()
+	{
+		changed();
+		root = NIL;
+		used = 0;
+		free = NIL;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Forgets the flattened ranking after a change.
+	 */
+	protected void changed()
+	{
+		ranked = null;
+		numLookups = 0;
+	}
+
+	/**
+	 * Writes the subtree in rank order into the flattened ranking.
+	 * @return Next rank to fill.
+	 */
+	protected int flatten(final int node, final int from)
+	{
+		if (node == NIL)
+			return from;
+		final int at = flatten(links[4 * node], from);
+		ranked[at] = node;
+		return flatten(links[4 * node + 1], at + 1);
+	}
+
+	/**
+	 * @return Whether node a comes before node b.
+	 */
+	protected boolean before(final int a, final int b)
+	{
+		final long ka = keys[2 * a];
+		final long kb = keys[2 * b];
+		return ka < kb || (ka == kb && keys[2 * a + 1] < keys[2 * b + 1]);
+	}
+
+	/**
+	 * Inserts a node into the subtree.
+	 * @return New subtree root.
+	 */
+	protected int insert(final int subtree, final int node)
+	{
+		if (subtree == NIL)
+			return node;
+
+		if (links[4 * node + 3] > links[4 * subtree + 3])
+		{
+			split(subtree, node);
+			links[4 * node + 2] = 1 + sizeOf(links[4 * node]) + sizeOf(links[4 * node + 1]);
+			return node;
+		}
+
+		if (before(node, subtree))
+			links[4 * subtree] = insert(links[4 * subtree], node);
+		else
+			links[4 * subtree + 1] = insert(links[4 * subtree + 1], node);
+		links[4 * subtree + 2]++;
+		return subtree;
+	}
+
+	/**
+	 * Splits the subtree into the nodes before and after the specified node,
+	 * which become its left and right subtrees.
+	 */
+	protected void split(final int subtree, final int node)
+	{
+		if (subtree == NIL)
+		{
+			links[4 * node] = NIL;
+			links[4 * node + 1] = NIL;
+			return;
+		}
+		if (before(subtree, node))
+		{
+			split(links[4 * subtree + 1], node);
+			links[4 * subtree + 1] = links[4 * node];
+			links[4 * subtree + 2] = 1 + sizeOf(links[4 * subtree]) + sizeOf(links[4 * subtree + 1]);
+			links[4 * node] = subtree;
+		}
+		else
+		{
+			split(links[4 * subtree], node);
+			links[4 * subtree] = links[4 * node + 1];
+			links[4 * subtree + 2] = 1 + sizeOf(links[4 * subtree]) + sizeOf(links[4 * subtree + 1]);
+			links[4 * node + 1] = subtree;
+		}
+	}
+
+	/**
+	 * Merges two subtrees, all of whose nodes in a come before those in b.
+	 * @return New subtree root.
+	 */
+	protected int merge(final int a, final int b)
+	{
+		if (a == NIL)
+			return b;
+		if (b == NIL)
+			return a;
+
+		if (links[4 * a + 3] > links[4 * b + 3])
+		{
+			links[4 * a + 1] = merge(links[4 * a + 1], b);
+			links[4 * a + 2] = 1 + sizeOf(links[4 * a]) + sizeOf(links[4 * a + 1]);
+			return a;
+		}
+		links[4 * b] = merge(a, links[4 * b]);
+		links[4 * b + 2] = 1 + sizeOf(links[4 * b]) + sizeOf(links[4 * b + 1]);
+		return b;
+	}
+
+	protected int sizeOf(final int node)
+	{
+		return (node == NIL) ? 0 : links[4 * node + 2];
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return New leaf node for a member of the given fitness.
+	 */
+	protected int newNode(final double fitness)
+	{
+		int node;
+		if (free != NIL)
+		{
+			node = free;
+			free = links[4 * node];
+		}
+		else
+		{
+			if (used == capacity)
+				allocate(capacity * 2);
+			node = used++;
+		}
+
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+
+		keys[2 * node] = descending(fitness);
+		keys[2 * node + 1] = numInserted++;
+		links[4 * node] = NIL;
+		links[4 * node + 1] = NIL;
+		links[4 * node + 2] = 1;
+		links[4 * node + 3] = seed;
+		return node;
+	}
+
+	/**
+	 * @return Key that sorts in decreasing order of the given fitness.
+	 */
+	protected static long descending(final double fitness)
+	{
+		final long bits = Double.doubleToLongBits(fitness);
+		final long ascending = (bits < 0) ? ~bits : bits | Long.MIN_VALUE;
+		return ~ascending ^ Long.MIN_VALUE;
+	}
+
+	/**
+	 * Resizes node storage.
+	 */
+	protected void allocate(final int num)
+	{
+		keys  = (keys == null) ? new long[2 * num] : Arrays.copyOf(keys, 2 * num);
+		links = (links == null) ? new int[4 * num] : Arrays.copyOf(links, 4 * num);
+		capacity = num;
+	}
+
+}
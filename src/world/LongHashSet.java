@@ -0,0 +1,175 @@
+package world;
+
+import java.util.Arrays;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Set of long values (e.g. genotypes), without boxing.
+ * Open addressing with linear probing; removal shifts entries back rather
+ * than leaving tombstones, so lookups stay short however many removals occur.
+ */
+public class LongHashSet
+{
+	/** Slots; 0 marks an empty slot, so the value 0 is tracked separately. */
+	protected long[] slots;
+
+	/** Whether 0 is in the set. */
+	protected boolean hasZero;
+
+	/** Number of non-zero values in the set. */
+	protected int count;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 */
+	public LongHashSet()
+	{
+		this(16);
+	}
+
+	/**
+	 * Constructor.
+	 * @param expected Expected number of values.
+	 */
+	public LongHashSet(final int expected)
+	{
+		int capacity = 16;
+		while (capacity < expected * 2)
+			capacity <<= 1;
+		slots = new long[capacity];
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Number of values in the set.
+	 */
+	public int size()
+	{
+		return count + (hasZero ? 1 : 0);
+	}
+
+	/**
+	 * @param value Value to look for.
+	 * @return Whether the value is in the set.
+	 */
+	public boolean contains(final long value)
+	{
+		if (value == 0)
+			return hasZero;
+		return slots[slotOf(value)] == value;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param value Value to add.
+	 * @return Whether the value was added (i.e. was not already present).
+	 */
+	public boolean add(final long value)
+	{
+		if (value == 0)
+		{
+			if (hasZero)
+				return false;
+			hasZero = true;
+			return true;
+		}
+
+		int at = slotOf(value);
+		if (slots[at] == value)
+			return false;
+
+		if (count + 1 > slots.length / 2)
+		{
+			grow();
+			at = slotOf(value);
+		}
+		slots[at] = value;
+		count++;
+		return true;
+	}
+
+	/**
+	 * @param value Value to remove.
+	 * @return Whether the value was present.
+	 */
+	public boolean remove(final long value)
+	{
+		if (value == 0)
+		{
+			final boolean had = hasZero;
+			hasZero = false;
+			return had;
+		}
+
+		int at = slotOf(value);
+		if (slots[at] != value)
+			return false;
+
+		// Shift back any following entries that would no longer be reachable
+		final int mask = slots.length - 1;
+		int next = (at + 1) & mask;
+		while (slots[next] != 0)
+		{
+			final int home = (int)Utils.hash(slots[next]) & mask;
+			if (((next - home) & mask) >= ((next - at) & mask))
+			{
+				slots[at] = slots[next];
+				at = next;
+			}
+			next = (next + 1) & mask;
+		}
+		slots[at] = 0;
+		count--;
+		return true;
+	}
+
+	/**
+	 * Removes all values.
+	 */
+	public void clear()
+	{
+		Arrays.fill(slots, 0);
+		hasZero = false;
+		count = 0;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param value Non-zero value.
+	 * @return Slot holding the value, else the empty slot where it would go.
+	 */
+	protected int slotOf(final long value)
+	{
+		final int mask = slots.length - 1;
+		int at = (int)Utils.hash(value) & mask;
+		while (slots[at] != 0 && slots[at] != value)
+			at = (at + 1) & mask;
+		return at;
+	}
+
+	/**
+	 * Doubles the number of slots.
+	 */
+	protected void grow()
+	{
+		final long[] old = slots;
+		slots = new long[old.length * 2];
+		final int mask = slots.length - 1;
+		for (final long value : old)
+		{
+			if (value == 0)
+				continue;
+			int at = (int)Utils.hash(value) & mask;
+			while (slots[at] != 0)
+				at = (at + 1) & mask;
+			slots[at] = value;
+		}
+	}
+
+}
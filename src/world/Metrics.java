@@ -0,0 +1,243 @@
+package world;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Counters and timers for the hot paths of evaluation and search, cheap
+ * enough to leave on: updates go to striped LongAdder cells, so threads
+ * measuring concurrently don't contend, and are only summed when read.
+ *
+ * Metrics are registered by name, once, typically as static fields of the
+ * class updating them, e.g.
+ *
+ *	private static final Metrics.Timer SPAWN = Metrics.timer("jenn.spawn");
+ *	...
+ *	final long startAt = System.nanoTime();
+ *	...
+ *	SPAWN.record(System.nanoTime() - startAt);
+ *
+ * Read them with snapshot(), or through MetricsReporter.
+ */
+public class Metrics
+{
+	/** Registered counters, by name. */
+	protected static final Map<String, Counter> counters = new ConcurrentSkipListMap<String, Counter>();
+
+	/** Registered timers, by name. */
+	protected static final Map<String, Timer> timers = new ConcurrentSkipListMap<String, Timer>();
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Count of events.
+	 */
+	public static class Counter
+	{
+		protected final LongAdder count = new LongAdder();
+
+		/**
+		 * Counts one event.
+		 */
+		public void increment()
+		{
+			count.increment();
+		}
+
+		/**
+		 * Counts the specified number of events.
+		 */
+		public void add(final long num)
+		{
+			count.add(num);
+		}
+
+		/**
+		 * @return Number of events counted.
+		 */
+		public long sum()
+		{
+			return count.sum();
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Count, total and distribution of durations.
+	 *
+	 * Durations are counted in buckets, four per power of two ns, so that
+	 * quantiles are estimated within an eighth of the true duration.
+	 */
+	public static class Timer
+	{
+		/** Number of buckets: durations below 4ns, then four per power of two. */
+		protected static final int NUM_BUCKETS = 4 * 63;
+
+		protected final LongAdder count = new LongAdder();
+		protected final LongAdder total = new LongAdder();
+		protected final LongAccumulator max = new LongAccumulator(new LongBinaryOperator()
+		{
+			@Override
+			public long applyAsLong(final long a, final long b)
+			{
+				return Math.max(a, b);
+			}
+		}, 0);
+		protected final LongAdder[] buckets = new LongAdder[NUM_BUCKETS];
+
+		Timer()
+		{
+			for (int b = 0; b < NUM_BUCKETS; b++)
+				buckets[b] = new LongAdder();
+		}
+
+		/**
+		 * Records a duration.
+		 * @param nanos Duration in ns.
+		 */
+		public void record(final long nanos)
+		{
+			final long ns = Math.max(0, nanos);
+			count.increment();
+			total.add(ns);
+			max.accumulate(ns);
+			buckets[bucket(ns)].increment();
+		}
+
+		/**
+		 * @return Number of durations recorded.
+		 */
+		public long count()
+		{
+			return count.sum();
+		}
+
+		/**
+		 * @return Total of durations recorded (ns).
+		 */
+		public long total()
+		{
+			return total.sum();
+		}
+
+		/**
+		 * @return Longest duration recorded (ns).
+		 */
+		public long max()
+		{
+			return max.get();
+		}
+
+		/**
+		 * @param q Quantile (0..1).
+		 * @return Estimated duration at that quantile (ns), or 0 if none recorded.
+		 */
+		public double quantile(final double q)
+		{
+			final long[] counts = new long[NUM_BUCKETS];
+			long num = 0;
+			for (int b = 0; b < NUM_BUCKETS; b++)
+				num += counts[b] = buckets[b].sum();
+			if (num == 0)
+				return 0;
+
+			final long rank = Math.max(1, (long)Math.ceil(q * num));
+			long seen = 0;
+			for (int b = 0; b < NUM_BUCKETS; b++)
+			{
+				seen += counts[b];
+				if (seen >= rank)
+					return Math.min(midpoint(b), max());
+			}
+			return max();
+		}
+
+		/**
+		 * @return Bucket counting the specified (non-negative) duration.
+		 */
+		protected static int bucket(final long ns)
+		{
+			if (ns < 4)
+				return (int)ns;
+			final int exponent = 63 - Long.numberOfLeadingZeros(ns);
+			return 4 * (exponent - 1) + (int)((ns >>> (exponent - 2)) & 3);
+		}
+
+		/**
+		 * @return Middle of the durations counted in the specified bucket.
+		 */
+		protected static double midpoint(final int b)
+		{
+			if (b < 4)
+				return b;
+			final int shift = b / 4 - 1;
+			return ((4 + b % 4) + 0.5) * (1L << shift);
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param name Metric name, e.g. "search.tried".
+	 * @return Counter registered under that name, registered now if new.
+	 */
+	public static Counter counter(final String name)
+	{
+		synchronized (counters)
+		{
+			Counter counter = counters.get(name);
+			if (counter == null)
+				counters.put(name, counter = new Counter());
+			return counter;
+		}
+	}
+
+	/**
+	 * @param name Metric name, e.g. "jenn.spawn".
+	 * @return Timer registered under that name, registered now if new.
+	 */
+	public static Timer timer(final String name)
+	{
+		synchronized (timers)
+		{
+			Timer timer = timers.get(name);
+			if (timer == null)
+				timers.put(name, timer = new Timer());
+			return timer;
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Current values by name, in order: each counter's sum, and each
+	 *         timer's count, mean, p50, p90, p99 and max (in ms).
+	 */
+	public static Map<String, Number> snapshot()
+	{
+		final Map<String, Number> values = new LinkedHashMap<String, Number>();
+		for (final Map.Entry<String, Counter> entry : counters.entrySet())
+			values.put(entry.getKey(), Long.valueOf(entry.getValue().sum()));
+		for (final Map.Entry<String, Timer> entry : timers.entrySet())
+		{
+			final String name = entry.getKey();
+			final Timer timer = entry.getValue();
+			final long count = timer.count();
+			values.put(name + ".count", Long.valueOf(count));
+			values.put(name + ".mean", Double.valueOf((count == 0) ? 0 : timer.total() / 1e6 / count));
+			values.put(name + ".p50", Double.valueOf(timer.quantile(0.50) / 1e6));
+			values.put(name + ".p90", Double.valueOf(timer.quantile(0.90) / 1e6));
+			values.put(name + ".p99", Double.valueOf(timer.quantile(0.99) / 1e6));
+			values.put(name + ".max", Double.valueOf(timer.max() / 1e6));
+		}
+		return values;
+	}
+
+}
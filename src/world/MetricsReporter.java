@@ -0,0 +1,295 @@
+package world;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Publishes Metrics every so often, on a background thread: as attributes of
+ * a JMX MBean (world:type=Metrics, e.g. for JConsole), and optionally as a
+ * line appended to a snapshot file.
+ *
+ * Each snapshot holds the time (ms since started), the metrics' current
+ * values, and, for each counter and timer, its rate per second since the last
+ * snapshot, as "<name>.rate". The file is CSV, with a header line whenever the
+ * metrics change, unless its name ends in .ndjson, when each snapshot is a
+ * JSON object on a line of its own.
+ */
+public class MetricsReporter implements DynamicMBean
+{
+	/** JMX name the metrics are published under. */
+	public static final String OBJECT_NAME = "world:type=Metrics";
+
+	/** Snapshot file, or null for none. */
+	protected final File file;
+
+	/** Whether the file is NDJSON, else CSV. */
+	protected final boolean json;
+
+	/** Output to the snapshot file, or null for none. */
+	protected PrintStream out;
+
+	/** Names in the last CSV header written. */
+	protected List<String> header;
+
+	/** Thread taking snapshots. */
+	protected final ScheduledExecutorService executor;
+
+	/** Time started (ns). */
+	protected final long startAt = System.nanoTime();
+
+	/** Time of the last snapshot (ns), and its values. */
+	protected long lastAt = startAt;
+	protected Map<String, Number> last = Collections.emptyMap();
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor. Registers the MBean, takes a first snapshot and starts
+	 * taking them every interval.
+	 * @param file     Snapshot file to append to, or null for none.
+	 * @param interval Time between snapshots (ms).
+	 */
+	public MetricsReporter(final File file, final long interval)
+	{
+		this.file = file;
+		json = file != null && file.getName().endsWith(".ndjson");
+		if (file != null)
+		{
+			try
+			{
+				out = new PrintStream(new FileOutputStream(file, true));
+			}
+			catch (IOException e)
+			{
+				System.out.println("Metrics file " + file + " unavailable: " + e.getMessage());
+			}
+		}
+
+		try
+		{
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+		}
+		catch (JMException e)
+		{
+			System.out.println("Unable to publish metrics over JMX: " + e.getMessage());
+		}
+
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(final Runnable task)
+			{
+				final Thread thread = new Thread(task, "Metrics");
+				thread.setDaemon(true);  // never holds up exit
+				return thread;
+			}
+		});
+		report();  // baseline, and attributes to show until the first interval
+		executor.scheduleAtFixedRate(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				report();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Takes a snapshot, publishing it and appending it to the file.
+	 */
+	public synchronized void report()
+	{
+		final long now = System.nanoTime();
+		final double seconds = (now - lastAt) / 1e9;
+
+		final Map<String, Number> values = new LinkedHashMap<String, Number>();
+		values.put("time", Long.valueOf((now - startAt) / 1000000));
+		final Map<String, Number> current = Metrics.snapshot();
+		values.putAll(current);
+		for (final Map.Entry<String, Number> entry : current.entrySet())
+		{
+			final String name = entry.getKey();
+			if (!(entry.getValue() instanceof Long))
+				continue;  // not a count
+			final Number before = last.get(name);
+			final long delta = entry.getValue().longValue() - ((before == null) ? 0 : before.longValue());
+			final String rateName = name.endsWith(".count") ? name.substring(0, name.length() - 6) : name;
+			values.put(rateName + ".rate", Double.valueOf((seconds > 0) ? delta / seconds : 0));
+		}
+		lastAt = now;
+		last = values;
+
+		if (out != null)
+		{
+			write(values);
+			if (out.checkError())
+			{
+				System.out.println("Failed to write metrics to " + file + ".");
+				out.close();
+				out = null;
+			}
+		}
+	}
+
+	/**
+	 * Takes a last snapshot and stops.
+	 */
+	public void close()
+	{
+		executor.shutdownNow();
+		report();
+		synchronized (this)
+		{
+			if (out != null)
+				out.close();
+			out = null;
+		}
+	}
+
+	/**
+	 * Appends a snapshot to the file.
+	 */
+	protected void write(final Map<String, Number> values)
+	{
+		final StringBuilder line = new StringBuilder();
+		if (json)
+		{
+			line.append('{');
+			for (final Map.Entry<String, Number> entry : values.entrySet())
+			{
+				if (line.length() > 1)
+					line.append(',');
+				line.append('"').append(entry.getKey()).append("\":").append(format(entry.getValue()));
+			}
+			line.append('}');
+		}
+		else
+		{
+			final List<String> names = new ArrayList<String>(values.keySet());
+			if (!names.equals(header))
+			{
+				out.println(join(names));
+				header = names;
+			}
+			final List<String> fields = new ArrayList<String>();
+			for (final Number value : values.values())
+				fields.add(format(value));
+			line.append(join(fields));
+		}
+		out.println(line);
+		out.flush();
+	}
+
+	/**
+	 * @return Value as written to the file.
+	 */
+	protected static String format(final Number value)
+	{
+		if (value instanceof Long)
+			return value.toString();
+		return String.format(Locale.ROOT, "%.4f", Double.valueOf(value.doubleValue()));
+	}
+
+	/**
+	 * @return Fields separated by commas.
+	 */
+	protected static String join(final List<String> fields)
+	{
+		final StringBuilder line = new StringBuilder();
+		for (final String field : fields)
+		{
+			if (line.length() > 0)
+				line.append(',');
+			line.append(field);
+		}
+		return line.toString();
+	}
+
+	//-------------------------------------------------------------------------
+	// DynamicMBean: the last snapshot's values as read-only attributes
+
+	@Override
+	public synchronized Object getAttribute(final String name) throws AttributeNotFoundException
+	{
+		final Number value = last.get(name);
+		if (value == null)
+			throw new AttributeNotFoundException(name);
+		return value;
+	}
+
+	@Override
+	public synchronized AttributeList getAttributes(final String[] names)
+	{
+		final AttributeList list = new AttributeList();
+		for (final String name : names)
+			if (last.containsKey(name))
+				list.add(new Attribute(name, last.get(name)));
+		return list;
+	}
+
+	@Override
+	public void setAttribute(final Attribute attribute) throws AttributeNotFoundException
+	{
+		throw new AttributeNotFoundException(attribute.getName() + " is read-only.");
+	}
+
+	@Override
+	public AttributeList setAttributes(final AttributeList attributes)
+	{
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(final String action, final Object[] params, final String[] signature) throws ReflectionException
+	{
+		throw new ReflectionException(new NoSuchMethodException(action), "No operations: " + action);
+	}
+
+	@Override
+	public synchronized MBeanInfo getMBeanInfo()
+	{
+		final List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (final Map.Entry<String, Number> entry : last.entrySet())
+			attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+					entry.getKey(), true, false, false));
+		return new MBeanInfo(getClass().getName(), "Evaluation and search metrics, as of the last snapshot.",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+				new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+	}
+
+}
@@ -1,7 +1,9 @@
 package world;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 
 import world.Utils;
 import world.domain.Individual;
@@ -14,20 +16,48 @@ import world.domain.Individual;
  */
 public class Population 
 {
-	/** Current population. */
-	protected List<Individual> members = new ArrayList<Individual>();
+	/** Ranking of current members by fitness. */
+	protected FitnessIndex members = new FitnessIndex();
+	
+	/** Member individuals, by node id in the ranking. */
+	protected Individual[] indivs = new Individual[16];
+	
+	/** Canonical genotypes of current members, for duplicate detection. */
+	protected LongHashSet genotypes = new LongHashSet();
+	
+	/** Per-bit counts over current members' genotypes. */
+	protected final Diversity diversity = new Diversity();
 		
 	/** Number of duplicates within population. */
 	protected int numCollisions;
 	
 	/** Maximum number of members allowed in population. */
-	protected final int maxMembers = 10000;
+	protected final int maxMembers;
 	
 	/** Diversity sample size. */
 	protected final int sampleSize = 1000;
 	
 	//-------------------------------------------------------------------------
 
+	/**
+	 * Constructor.
+	 */
+	public Population()
+	{
+		this(10000);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param maxMembers Maximum number of members allowed in population.
+	 */
+	public Population(final int maxMembers)
+	{
+		this.maxMembers = maxMembers;
+	}
+	
+	//-------------------------------------------------------------------------
+
 	/**
 	 * @return Size of population.
 	 */
@@ -37,12 +67,75 @@ public class Population
 	}
 
 	/**
-	 * @param i Index.
+	 * @param i Index (0 is fittest).
 	 * @return Individual at position i.
 	 */
 	public Individual get(final int i)
 	{
-		return members.get(i);
+		return indivs[members.node(i)];
+	}
+	
+	/**
+	 * @param i Index (0 is fittest).
+	 * @return Genotype of the individual at position i.
+	 */
+	public long genotype(final int i)
+	{
+		return get(i).genotype();
+	}
+	
+	/**
+	 * @param i Index (0 is fittest).
+	 * @return Typicality of the individual at position i.
+	 */
+	public double typicality(final int i)
+	{
+		return get(i).typicality();
+	}
+	
+	/**
+	 * @param i Index (0 is fittest).
+	 * @return Quality of the individual at position i.
+	 */
+	public double quality(final int i)
+	{
+		return get(i).quality();
+	}
+	
+	/**
+	 * @param i Index (0 is fittest).
+	 * @return Fitness of the individual at position i.
+	 */
+	public double fitness(final int i)
+	{
+		return get(i).fitness();
+	}
+	
+	/**
+	 * @return Members to take statistics over: all of them, unless only a 
+	 *         sample is kept.
+	 */
+	public Population sample()
+	{
+		return this;
+	}
+	
+	/**
+	 * @return Per-bit counts over current members, kept up to date as they 
+	 *         are inserted and evicted.
+	 */
+	public Diversity diversity()
+	{
+		return diversity;
+	}
+	
+	/**
+	 * @param genotype Genotype to look for.
+	 * @return Whether a member has this genotype, or one standing for it.
+	 */
+	public boolean contains(final long genotype)
+	{
+		return genotypes.contains(key(genotype));
 	}
 	
 	/**
@@ -61,6 +154,9 @@ public class Population
 	public void clear()
 	{
 		members.clear();
+		genotypes.clear();
+		diversity.clear();
+		Arrays.fill(indivs, null);
 		numCollisions = 0;
 	}
 	
@@ -68,31 +164,148 @@ public class Population
 	
 	/**
 	 * Insert individual in the population if unique, ordered by fitness.
+	 * Individuals of equal fitness keep their order of insertion.
 	 * 
-	 * Do insertion and collision testing manually -- is faster for ArrayLists.
+	 * O(log n): duplicates are detected by genotype hashing, and members are 
+	 * held in a balanced tree ordered by fitness.
 	 * 
 	 * @param indiv Individual to be inserted.
 	 */
 	public void insert(final Individual indiv)
 	{
-		final int count = members.size();
-		int insertAt = count;
+		final int node = admit(indiv.genotype(), indiv.fitness());
+		if (node < 0)
+			return;  // don't add duplicates
+		if (members.capacity() > indivs.length)
+			indivs = Arrays.copyOf(indivs, members.capacity());
+		indivs[node] = indiv;
 		
-		for (int i = 0; i < members.size(); i++)
+		evict();
+	}
+	
+	/**
+	 * Insert measured values in the population if the genotype is unique, 
+	 * ordered by fitness. Default behaviour: stores them as an individual
+	 * of the current domain.
+	 * @param genotype Genotype.
+	 * @param typicality Typicality value.
+	 * @param quality Quality value.
+	 */
+	public void insert(final long genotype, final double typicality, final double quality)
+	{
+		if (genotypes.contains(key(genotype)))
 		{
-			final Individual member = members.get(i);
-			if (member.genotype() == indiv.genotype())
-			{
-				numCollisions++;
-				return;  // don't add duplicates
-			}
-			if (insertAt == count && member.fitness() < indiv.fitness())
-				insertAt = i;  // insert at position i
-		}		
-		members.add(insertAt, indiv);
-		
+			numCollisions++;
+			return;  // don't create duplicates
+		}
+		insert(Utils.world.domain().individual(genotype, typicality, quality));
+	}
+	
+	/**
+	 * Ranks a new member if its genotype is unique.
+	 * @param genotype Genotype of new member.
+	 * @param fitness Fitness of new member.
+	 * @return Node id for the new member's storage, or -1 if a duplicate.
+	 */
+	protected int admit(final long genotype, final double fitness)
+	{
+		if (!genotypes.add(key(genotype)))
+		{
+			numCollisions++;
+			return -1;
+		}
+		diversity.add(genotype);
+		return members.insert(fitness);
+	}
+	
+	/**
+	 * Removes the member at the specified position.
+	 * @param i Index (0 is fittest).
+	 */
+	public void remove(final int i)
+	{
+		final int node = members.remove(i);
+		final long genotype = genotypeOf(node);
+		genotypes.remove(key(genotype));
+		diversity.remove(genotype);
+		release(node);
+	}
+	
+	/**
+	 * Removes the worst performers while the population is over size.
+	 */
+	protected void evict()
+	{
 		while (members.size() > maxMembers)
-			members.remove(members.size() - 1);  // remove worst performer
+		{
+			final int node = members.removeLast();
+			final long genotype = genotypeOf(node);
+			genotypes.remove(key(genotype));
+			diversity.remove(genotype);
+			release(node);
+		}
+	}
+	
+	/**
+	 * @param genotype Genotype.
+	 * @return Key for duplicate detection: the domain's canonical genotype,
+	 *         so members that would measure the same count as duplicates.
+	 */
+	protected long key(final long genotype)
+	{
+		return Utils.world.domain().canonical(genotype);
+	}
+	
+	/**
+	 * @param node Node id of a member.
+	 * @return Genotype of that member.
+	 */
+	protected long genotypeOf(final int node)
+	{
+		return indivs[node].genotype();
+	}
+	
+	/**
+	 * Releases storage of a removed member.
+	 * @param node Node id of the removed member.
+	 */
+	protected void release(final int node)
+	{
+		indivs[node] = null;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Writes the members, fittest first, for a checkpoint.
+	 * @param out Output.
+	 * @throws IOException If the members could not be written.
+	 */
+	public void writeState(final DataOutput out) throws IOException
+	{
+		out.writeInt(size());
+		for (int i = 0; i < size(); i++)
+		{
+			out.writeLong(genotype(i));
+			out.writeDouble(typicality(i));
+			out.writeDouble(quality(i));
+		}
+	}
+
+	/**
+	 * Reads members written by writeState(), adding them to the population.
+	 * @param in Input.
+	 * @throws IOException If the members could not be read.
+	 */
+	public void readState(final DataInput in) throws IOException
+	{
+		final int size = in.readInt();
+		for (int i = 0; i < size; i++)
+		{
+			final long genotype = in.readLong();
+			final double typicality = in.readDouble();
+			insert(genotype, typicality, in.readDouble());
+		}
 	}
 
 	//-------------------------------------------------------------------------
@@ -109,35 +322,15 @@ public class Population
     	final int numBits = Utils.world.domain().numBits();
     	final int numToMeasure = Math.min(sampleSize, members.size() / 10);  // measure best 10% of population
 		
-    	double[] centroids = new double[numBits];
-
-    	//	Calculate centres of interia
-    	for (int i = 0; i < numToMeasure; i++)
-    	{
-    		final long genotype = members.get(i).genotype();
-    		for (int b = 0; b < numBits; b++)
-    			centroids[b] += (Utils.bitOn(genotype,  b) ? 1 : 0);
-    	}
-   		for (int b = 0; b < numBits; b++)
-			centroids[b] /= numToMeasure;
-     	
-    	//	Measure variance
-   		double varnTotal = 0;
+    	final long[] sample = new long[numToMeasure];
     	for (int i = 0; i < numToMeasure; i++)
-    	{
-      		final long genotype = members.get(i).genotype();   	
-     		double varn = 0;
-        	for (int b = 0; b < numBits; b++)
-    		{
-    			double diff = centroids[b] - (Utils.bitOn(genotype,  b) ? 1 : 0);
-    			varn += diff * diff;
-    		}
-        	varn /= numBits;
-        	varnTotal += varn;
-    	}
-    	varnTotal /= numToMeasure;
+    		sample[i] = genotype(i);
+    	final double varnTotal = Diversity.of(sample, 0, numToMeasure).coi(numBits);
     	
     	System.out.printf("    Population (COI) diversity is %.3f.\n", Double.valueOf(varnTotal));
+    	System.out.printf("    Archive diversity: COI %.3f, Hamming %.3f, entropy %.3f.\n", 
+    			Double.valueOf(diversity.coi(numBits)), Double.valueOf(diversity.hamming(numBits)), 
+    			Double.valueOf(diversity.entropy(numBits)));
     }
      	
 }
@@ -0,0 +1,220 @@
+package world;
+
+import java.util.Arrays;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Quantile estimates over a stream of values, in bounded memory.
+ *
+ * Values are counted in buckets whose bounds grow geometrically, so that any
+ * quantile is estimated within a fixed relative error of the true sample
+ * (as per DDSketch, Masson et al., VLDB 2019). Magnitudes below MIN_MAGNITUDE
+ * count as zero and those above MAX_MAGNITUDE as MAX_MAGNITUDE. Sketches with
+ * the same accuracy can be merged exactly, e.g. to combine per-thread counts.
+ *
+ * Not thread-safe.
+ */
+public class QuantileSketch
+{
+	/** Default relative accuracy of estimates. */
+	public static final double DEFAULT_ACCURACY = 0.01;
+
+	/** Smallest magnitude distinguished from zero. */
+	public static final double MIN_MAGNITUDE = 1e-9;
+
+	/** Largest magnitude distinguished. */
+	public static final double MAX_MAGNITUDE = 1e12;
+
+	/** Relative accuracy of estimates. */
+	protected final double accuracy;
+
+	/** Ratio between successive bucket bounds, and its log. */
+	protected final double gamma;
+	protected final double logGamma;
+
+	/** Number of buckets for each sign. */
+	protected final int numBuckets;
+
+	/** Counts of positive and negative values by bucket, allocated on first use. */
+	protected long[] positive;
+	protected long[] negative;
+
+	/** Count of values of (near) zero magnitude. */
+	protected long zeroCount;
+
+	/** Total count of values. */
+	protected long count;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 */
+	public QuantileSketch()
+	{
+		this(DEFAULT_ACCURACY);
+	}
+
+	/**
+	 * Constructor.
+	 * @param accuracy Relative accuracy of estimates (e.g. 0.01 for 1%).
+	 */
+	public QuantileSketch(final double accuracy)
+	{
+		if (accuracy <= 0 || accuracy >= 1)
+			throw new IllegalArgumentException("Accuracy " + accuracy + " not in (0, 1).");
+
+		this.accuracy = accuracy;
+		gamma = (1 + accuracy) / (1 - accuracy);
+		logGamma = Math.log(gamma);
+		numBuckets = (int)Math.ceil(Math.log(MAX_MAGNITUDE / MIN_MAGNITUDE) / logGamma) + 1;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Number of values added.
+	 */
+	public long count()
+	{
+		return count;
+	}
+
+	/**
+	 * @return Relative accuracy of estimates.
+	 */
+	public double accuracy()
+	{
+		return accuracy;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param value Value to add; NaN is ignored.
+	 */
+	public void add(final double value)
+	{
+		if (Double.isNaN(value))
+			return;
+
+		count++;
+		final double magnitude = Math.abs(value);
+		if (magnitude < MIN_MAGNITUDE)
+		{
+			zeroCount++;
+		}
+		else if (value > 0)
+		{
+			if (positive == null)
+				positive = new long[numBuckets];
+			positive[bucket(magnitude)]++;
+		}
+		else
+		{
+			if (negative == null)
+				negative = new long[numBuckets];
+			negative[bucket(magnitude)]++;
+		}
+	}
+
+	/**
+	 * Adds the values counted by another sketch.
+	 * @param other Sketch of the same accuracy.
+	 */
+	public void merge(final QuantileSketch other)
+	{
+		if (other.accuracy != accuracy)
+			throw new IllegalArgumentException("Can't merge sketches of accuracy " + accuracy + " and " + other.accuracy + ".");
+
+		if (other.positive != null)
+		{
+			if (positive == null)
+				positive = new long[numBuckets];
+			for (int i = 0; i < numBuckets; i++)
+				positive[i] += other.positive[i];
+		}
+		if (other.negative != null)
+		{
+			if (negative == null)
+				negative = new long[numBuckets];
+			for (int i = 0; i < numBuckets; i++)
+				negative[i] += other.negative[i];
+		}
+		zeroCount += other.zeroCount;
+		count += other.count;
+	}
+
+	/**
+	 * Forgets all values.
+	 */
+	public void clear()
+	{
+		if (positive != null)
+			Arrays.fill(positive, 0);
+		if (negative != null)
+			Arrays.fill(negative, 0);
+		zeroCount = 0;
+		count = 0;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param q Quantile in 0..1 (e.g. 0.5 for the median).
+	 * @return Estimate of the value at that quantile, or NaN if no values.
+	 */
+	public double quantile(final double q)
+	{
+		if (count == 0)
+			return Double.NaN;
+
+		final long rank = (long)(Math.max(0, Math.min(1, q)) * (count - 1));
+		long seen = 0;
+
+		// Negative values, most negative first
+		if (negative != null)
+			for (int i = numBuckets - 1; i >= 0; i--)
+			{
+				seen += negative[i];
+				if (seen > rank)
+					return -value(i);
+			}
+
+		seen += zeroCount;
+		if (seen > rank)
+			return 0;
+
+		if (positive != null)
+			for (int i = 0; i < numBuckets; i++)
+			{
+				seen += positive[i];
+				if (seen > rank)
+					return value(i);
+			}
+		return value(numBuckets - 1);  // not reached
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param magnitude Magnitude of at least MIN_MAGNITUDE.
+	 * @return Bucket holding values of this magnitude.
+	 */
+	protected int bucket(final double magnitude)
+	{
+		final int index = (int)Math.ceil(Math.log(magnitude / MIN_MAGNITUDE) / logGamma);
+		return Math.max(0, Math.min(numBuckets - 1, index));
+	}
+
+	/**
+	 * @param index Bucket.
+	 * @return Magnitude within relative accuracy of all that the bucket holds.
+	 */
+	protected double value(final int index)
+	{
+		return MIN_MAGNITUDE * Math.pow(gamma, index) * 2 / (gamma + 1);
+	}
+
+}
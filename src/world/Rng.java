@@ -0,0 +1,208 @@
+package world;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Random;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Fast random number generator with independent streams (xoshiro256**, by
+ * Blackman & Vigna: http://prng.di.unimi.it/).
+ *
+ * Each generator is meant for one thread: unlike java.util.Random there is
+ * no shared atomic seed, so nothing contends. Further generators for other
+ * threads, searches or islands are taken with split(), which hands over the
+ * current stream and jumps this one 2^128 values ahead, so streams never
+ * overlap and are the same on every run from the same seed.
+ *
+ * Extends Random so it can be used wherever a Random is expected.
+ */
+public class Rng extends Random
+{
+	private static final long serialVersionUID = 1L;
+
+	/** Generator state. */
+	private long s0, s1, s2, s3;
+
+	/** Jump polynomial, equivalent to 2^128 calls to nextLong(). */
+	private static final long[] JUMP =
+	{
+		0x180ec6d33cfd0abaL, 0xd5a61266f0c9392cL, 0xa9582618e03fc9aaL, 0x39abdc4529b1661cL
+	};
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 * @param seed Seed; any value, including 0, gives a well-mixed state.
+	 */
+	public Rng(final long seed)
+	{
+		super(seed);  // calls setSeed()
+	}
+
+	/**
+	 * Constructor.
+	 * @param state Generator state to copy.
+	 */
+	private Rng(final long s0, final long s1, final long s2, final long s3)
+	{
+		super(0);
+		this.s0 = s0;
+		this.s1 = s1;
+		this.s2 = s2;
+		this.s3 = s3;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Expands the seed into the generator state with SplitMix64, as
+	 * recommended by the xoshiro authors.
+	 */
+	@Override
+	public synchronized void setSeed(final long seed)
+	{
+		long x = seed;
+		s0 = mix(x += 0x9e3779b97f4a7c15L);
+		s1 = mix(x += 0x9e3779b97f4a7c15L);
+		s2 = mix(x += 0x9e3779b97f4a7c15L);
+		s3 = mix(x += 0x9e3779b97f4a7c15L);
+	}
+
+	/**
+	 * @return Generator for a new stream, independent of this one.
+	 */
+	public synchronized Rng split()
+	{
+		final Rng stream = new Rng(s0, s1, s2, s3);
+		jump();
+		return stream;
+	}
+
+	/**
+	 * Writes the generator state, e.g. to a checkpoint.
+	 * @param out Output.
+	 * @throws IOException If the state could not be written.
+	 */
+	public synchronized void writeState(final DataOutput out) throws IOException
+	{
+		out.writeLong(s0);
+		out.writeLong(s1);
+		out.writeLong(s2);
+		out.writeLong(s3);
+	}
+
+	/**
+	 * Restores the generator state written by writeState().
+	 * @param in Input.
+	 * @throws IOException If the state could not be read.
+	 */
+	public synchronized void readState(final DataInput in) throws IOException
+	{
+		s0 = in.readLong();
+		s1 = in.readLong();
+		s2 = in.readLong();
+		s3 = in.readLong();
+	}
+
+	//-------------------------------------------------------------------------
+
+	@Override
+	public long nextLong()
+	{
+		final long result = Long.rotateLeft(s1 * 5, 7) * 9;
+		final long t = s1 << 17;
+		s2 ^= s0;
+		s3 ^= s1;
+		s1 ^= s2;
+		s0 ^= s3;
+		s2 ^= t;
+		s3 = Long.rotateLeft(s3, 45);
+		return result;
+	}
+
+	@Override
+	protected int next(final int bits)
+	{
+		return (int)(nextLong() >>> (64 - bits));
+	}
+
+	@Override
+	public int nextInt()
+	{
+		return (int)(nextLong() >>> 32);
+	}
+
+	/**
+	 * Unbiased, mostly without division (Lemire, "Fast random integer
+	 * generation in an interval", 2019).
+	 */
+	@Override
+	public int nextInt(final int bound)
+	{
+		if (bound <= 0)
+			throw new IllegalArgumentException("Bound must be positive: " + bound);
+
+		long m = (nextLong() >>> 32) * bound;
+		if ((m & 0xffffffffL) < bound)
+		{
+			final long threshold = (0x100000000L - bound) % bound;
+			while ((m & 0xffffffffL) < threshold)
+				m = (nextLong() >>> 32) * bound;
+		}
+		return (int)(m >>> 32);
+	}
+
+	@Override
+	public boolean nextBoolean()
+	{
+		return nextLong() < 0;
+	}
+
+	@Override
+	public double nextDouble()
+	{
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Advances the state by 2^128 values.
+	 */
+	private void jump()
+	{
+		long t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+		for (final long word : JUMP)
+			for (int b = 0; b < 64; b++)
+			{
+				if ((word & (1L << b)) != 0)
+				{
+					t0 ^= s0;
+					t1 ^= s1;
+					t2 ^= s2;
+					t3 ^= s3;
+				}
+				nextLong();
+			}
+		s0 = t0;
+		s1 = t1;
+		s2 = t2;
+		s3 = t3;
+	}
+
+	/**
+	 * SplitMix64 output function.
+	 */
+	private static long mix(final long x)
+	{
+		long z = x;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -0,0 +1,263 @@
+package world;
+
+//------------------------------------------------------------------------
+
+/**
+ * Statistics of a stream of (double) samples, kept in constant memory.
+ *
+ * Mean and variance are updated per sample (Welford's method), alongside
+ * min/max and a quantile sketch, so samples are not stored; use Stats to
+ * keep them. Stats gathered separately (e.g. per thread) can be combined
+ * with merge(). Not thread-safe.
+ */
+public class StreamingStats
+{
+	/** Description of what these statistics describe. */
+	protected String label = "?";
+
+	/** CI constant, for 95% (see Stats). */
+	protected final double ci = 1.95996;
+
+	/** Mean. */
+	protected double mean;
+
+	/** Variance. */
+	protected double varn;
+
+	/** Standard deviation. */
+	protected double devn;
+
+	/** Confidence interval. */
+	protected double conf;
+
+	/** Minimum value. */
+	protected double min;
+
+	/** Maximum value. */
+	protected double max;
+
+	/** Number of samples. */
+	protected long count;
+
+	/** Sum of squared differences from the current mean. */
+	protected double m2;
+
+	/** Quantile estimates. */
+	protected final QuantileSketch sketch = new QuantileSketch();
+
+	//---------------------------------------------
+
+	/**
+	 * Constructor
+	 * @param str Label.
+	 */
+	public StreamingStats(final String str)
+	{
+		label = str;
+		clear();
+	}
+
+	//---------------------------------------------
+
+	/**
+	 * @return What these statistics describe.
+	 */
+	public String label()
+	{
+		return label;
+	}
+
+	/**
+	 * Add a sample.
+	 * @param val Sample to add.
+	 */
+	public void addSample(double val)
+	{
+		count++;
+		final double diff = val - mean;
+		mean += diff / count;
+		m2 += diff * (val - mean);
+
+		if (val < min)
+			min = val;
+		if (val > max)
+			max = val;
+
+		sketch.add(val);
+	}
+
+	/**
+	 * Adds the samples of another set of statistics.
+	 * @param other Statistics of other samples.
+	 */
+	public void merge(final StreamingStats other)
+	{
+		if (other.count == 0)
+			return;
+
+		// Chan et al.'s pairwise update
+		final long total = count + other.count;
+		final double diff = other.mean - mean;
+		mean += diff * other.count / total;
+		m2 += other.m2 + diff * diff * count * other.count / total;
+		count = total;
+
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+
+		sketch.merge(other.sketch);
+	}
+
+	/**
+	 * @return Number of samples.
+	 */
+	public long count()
+	{
+		return count;
+	}
+
+	/**
+	 * @param q Quantile in 0..1.
+	 * @return Estimate of the sample value at that quantile (within 1%),
+	 *         or NaN if no samples.
+	 */
+	public double quantile(final double q)
+	{
+		if (count == 0)
+			return Double.NaN;
+		return Math.max(min, Math.min(max, sketch.quantile(q)));
+	}
+
+	/**
+	 * @return Estimated median.
+	 */
+	public double p50()
+	{
+		return quantile(0.5);
+	}
+
+	/**
+	 * @return Estimated 90th percentile.
+	 */
+	public double p90()
+	{
+		return quantile(0.9);
+	}
+
+	/**
+	 * @return Estimated 99th percentile.
+	 */
+	public double p99()
+	{
+		return quantile(0.99);
+	}
+
+	/**
+	 * @return Mean.
+	 */
+	public double mean()
+	{
+		return mean;
+	}
+
+	/**
+	 * @return Variance, as of the last measure().
+	 */
+	public double varn()
+	{
+		return varn;
+	}
+
+	/**
+	 * @return Standard deviation, as of the last measure().
+	 */
+	public double devn()
+	{
+		return devn;
+	}
+
+	/**
+	 * @return Confidence interval (95%), as of the last measure().
+	 */
+	public double conf()
+	{
+		return conf;
+	}
+
+	/**
+	 * @return Minimum value, or 0 if no samples.
+	 */
+	public double min()
+	{
+		return (count == 0) ? 0 : min;
+	}
+
+	/**
+	 * @return Maximum value, or 0 if no samples.
+	 */
+	public double max()
+	{
+		return (count == 0) ? 0 : max;
+	}
+
+	/**
+	 * @return Range of values.
+	 */
+	public double range()
+	{
+		return max() - min();
+	}
+
+	//---------------------------------------------
+
+	/**
+	 * Clears this set of statistics.
+	 */
+	public void clear()
+	{
+		count = 0;
+		m2    = 0;
+		mean  = 0;
+		varn  = 0;
+		devn  = 0;
+		conf  = 0;
+		min   = Double.POSITIVE_INFINITY;
+		max   = Double.NEGATIVE_INFINITY;
+		sketch.clear();
+	}
+
+	//---------------------------------------------
+
+	/**
+	 * Derives variance, deviation and confidence interval from the samples
+	 * so far; mean, min and max are always up to date.
+	 */
+	public void measure()
+	{
+		if (count == 0)
+		{
+			varn = 0;
+			devn = 0;
+			conf = 0;
+			return;
+		}
+		varn = m2 / count;
+		devn = Math.sqrt(varn);
+		conf = 2 * ci * devn / Math.sqrt(count);
+	}
+
+	/**
+	 * Shows stats, without quantiles if there are no samples.
+	 */
+	@SuppressWarnings("boxing")
+	public void show()
+	{
+		if (count == 0)
+			System.out.printf("    N=0, min=%.3f, max=%.3f, mean=%.3f (+/-%.3f), p50=-, p90=-, p99=-.\n",
+					min(), max(), mean, devn);
+		else
+			System.out.printf("    N=%d, min=%.3f, max=%.3f, mean=%.3f (+/-%.3f), p50=%.3f, p90=%.3f, p99=%.3f.\n",
+					count, min(), max(), mean, devn, p50(), p90(), p99());
+	}
+
+}
@@ -1,5 +1,10 @@
 package world;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
 //---------------------------------------------------------------------
 
 /** 
@@ -39,6 +44,54 @@ public final class Utils
 		return count;
 	}
 	
+	/**
+	 * Mixes bits for hashing, using the MurmurHash3 64-bit finaliser.
+	 * @param bits Source bits.
+	 * @return Well-distributed hash of the source bits.
+	 */
+	public static long hash(final long bits)
+	{
+		long h = bits;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+	
+	//--------------------------------------------------------------
+	//	Files
+
+	/**
+	 * Flushes the directory holding the specified file to disk, so that a 
+	 * file just created or renamed there survives a crash. Not possible on 
+	 * all platforms (e.g. Windows), where this does nothing.
+	 * @param file File in the directory.
+	 */
+	public static void syncDirectory(final File file)
+	{
+		final File dir = file.getAbsoluteFile().getParentFile();
+		if (dir == null)
+			return;
+		try
+		{
+			final FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+			try
+			{
+				channel.force(true);
+			}
+			finally
+			{
+				channel.close();
+			}
+		}
+		catch (IOException e)
+		{
+			// Directories can't be opened here
+		}
+	}
+	
 	//--------------------------------------------------------------
 
 }
@@ -1,17 +1,20 @@
 package world;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import search.Search;
 import search.SearchGA;
+import search.SearchEnum;
+import search.SearchIslands;
 import search.SearchMC;
+import search.SearchSteadyState;
+import search.Surrogate;
 import world.domain.Domain;
-import world.domain.Individual;
+import world.domain.EvaluationCache;
+import world.domain.EvaluationJournal;
 import world.domain.jenn.JennDomain;
 
 //-----------------------------------------------------------------------------
@@ -22,15 +25,51 @@ import world.domain.jenn.JennDomain;
  * @author Cameron Browne
  */
 public class World {
+	/** Master seed for the run, e.g. -Dseed=42 to replay a run. */
+	protected long seed = Long.getLong("seed", System.nanoTime()).longValue();
+
+	/** Master random number generator, from which all others are split. */
+	protected Rng rng = new Rng(seed);
+
 	/** Current domain. */
-	protected Domain domain = new JennDomain();
+	protected Domain domain;
 
-	/** Master population. */
-	protected Population population = new Population();
+	/** Master population, held column-wise as it can grow large. */
+	protected Population population;
 
 	/** List of search objects. */
 	private List<Search> searches = new ArrayList<Search>();
 
+	/** Periodic snapshot of the running search. */
+	protected Checkpoint checkpoint;
+
+	/** Export of the best individuals to the out directory, kept up to date while searching. */
+	protected Exporter exporter;
+
+	/** Periodic publication of metrics, over JMX and to file. */
+	protected MetricsReporter metrics;
+
+	/** Index of the search restored from a checkpoint, else -1. */
+	protected int resumeFrom = -1;
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Constructor: world of jenn models.
+	 */
+	public World() {
+		this(new JennDomain());
+	}
+
+	/**
+	 * Constructor.
+	 * @param domain Domain to search.
+	 */
+	protected World(final Domain domain) {
+		this.domain = domain;
+		population = new ColumnarPopulation(domain);
+	}
+
 	// -------------------------------------------------------------------------
 
 	/**
@@ -47,6 +86,21 @@ public class World {
 		return population;
 	}
 
+	/**
+	 * @return Master seed for the run.
+	 */
+	public long seed() {
+		return seed;
+	}
+
+	/**
+	 * @return Master random number generator; split() it for a stream of
+	 *         one's own.
+	 */
+	public Rng rng() {
+		return rng;
+	}
+
 	// -------------------------------------------------------------------------
 
 	/**
@@ -55,8 +109,114 @@ public class World {
 	private void init() {
 		Utils.world = this; // set before constructing Search objects
 
+		// Snapshot of the search taken every so often, e.g. -Dcheckpoint=run.checkpoint
+		// -DcheckpointInterval=60 (seconds), continued from with -Dresume=true
+		final File checkpointFile = new File(System.getProperty("checkpoint", "search.checkpoint"));
+		final boolean resume = Boolean.getBoolean("resume");
+		if (resume) {
+			try {
+				seed = Checkpoint.seed(checkpointFile);
+				rng = new Rng(seed);
+			} catch (IOException e) {
+				System.out.println("Unable to resume from " + checkpointFile + ": " + e.getMessage());
+				System.exit(1);
+			}
+			System.out.println("Resuming from " + checkpointFile + ".");
+		}
+
+		// Streams are split from the master seed in a fixed order, so the
+		// same seed gives the same run
+		System.out.println("Seed: " + seed + " (replay with -Dseed=" + seed + ")");
+		domain.setRng(rng.split());
+
+		// Master population kept in bounded memory as the best K and a sample
+		// of the rest, for long runs, e.g. -Darchive=100
+		final int archive = Integer.getInteger("archive", 0).intValue();
+		if (archive > 0)
+			population = new ArchivePopulation(domain, archive, rng.split());
+
+		// Reuse results measured in previous runs
+		final File cacheFile = new File(domain.name().toLowerCase() + ".cache");
+		try {
+			domain.setCache(new EvaluationCache(cacheFile));
+		} catch (IOException e) {
+			System.out.println("Evaluation cache " + cacheFile + " unavailable: " + e.getMessage());
+		}
+
+		// Journal of every evaluation, for offline analysis, e.g. -Djournal=run.journal
+		// (-Djournal= for none)
+		final String journalFile = System.getProperty("journal", domain.name().toLowerCase() + ".journal");
+		if (!journalFile.isEmpty()) {
+			try {
+				domain.setJournal(new EvaluationJournal(new File(journalFile), 1000));
+			} catch (IOException e) {
+				System.out.println("Evaluation journal " + journalFile + " unavailable: " + e.getMessage());
+			}
+		}
+
+		// Metrics over JMX, and every so often to a CSV or NDJSON file, e.g.
+		// -Dmetrics=run.csv -DmetricsInterval=10 (seconds)
+		final String metricsFile = System.getProperty("metrics");
+		metrics = new MetricsReporter((metricsFile == null || metricsFile.isEmpty()) ? null : new File(metricsFile),
+				1000L * Integer.getInteger("metricsInterval", 10).intValue());
+
+		// Number of concurrent evaluations, e.g. -Dslots=8
+		final int numSlots = Integer.getInteger("slots", 1).intValue();
+		try {
+			domain.setNumSlots(numSlots);
+		} catch (IOException e) {
+			System.out.println("Unable to prepare " + numSlots + " evaluation slots: " + e.getMessage());
+		}
+
+		// Measurements running slower than usual (p95) started again in a free
+		// slot, whichever finishes first being taken, e.g. -Dslots=8 -Dhedge=true
+		domain.setHedge(Boolean.getBoolean("hedge"));
+
 		//searches.add(new SearchMC());
-		searches.add(new SearchGA());
+
+		// Number of GA islands evolving in parallel, e.g. -Dislands=8
+		final int numIslands = Integer.getInteger("islands", 1).intValue();
+		if (numIslands > 1) {
+			final String topology = System.getProperty("topology", "ring");
+			searches.add(new SearchIslands(numIslands, SearchIslands.Topology.valueOf(topology.toUpperCase()),
+					Integer.getInteger("migrationInterval", 5).intValue(), Integer.getInteger("migrants", 2).intValue()));
+		} else if (System.getProperty("enum") != null) {
+			// Exhaustive walk of the distinct genotypes, e.g. -Denum=all, or
+			// -Denum=2/8 for the third of eight shards, and -DenumRange=0-50000
+			// for part of the walk
+			final String[] shard = System.getProperty("enum").split("/");
+			final String[] range = System.getProperty("enumRange", "0-" + Long.MAX_VALUE).split("-");
+			searches.add(new SearchEnum(Long.parseLong(range[0]), Long.parseLong(range[1]),
+					(shard.length == 2) ? Integer.parseInt(shard[0]) : 0, (shard.length == 2) ? Integer.parseInt(shard[1]) : 1));
+		} else if (System.getProperty("steady") != null) {
+			// Steady-state GA, e.g. -Dsteady=worst or -Dsteady=tournament
+			searches.add(new SearchSteadyState(
+					SearchSteadyState.Replacement.valueOf(System.getProperty("steady").toUpperCase())));
+		} else {
+			searches.add(new SearchGA());
+		}
+
+		// Candidates generated per measurement for a surrogate model to screen, e.g. -Dscreen=4
+		final int screen = Integer.getInteger("screen", 1).intValue();
+		if (screen > 1)
+			for (final Search search : searches)
+				search.setSurrogate(new Surrogate(domain.numBits(), screen));
+
+		exporter = new Exporter(domain, new File("out"), 10);
+		for (final Search search : searches)
+			search.setExporter(exporter);
+
+		checkpoint = new Checkpoint(checkpointFile, 1000L * Integer.getInteger("checkpointInterval", 60).intValue(), seed, domain);
+		for (final Search search : searches)
+			search.setCheckpoint(checkpoint);
+		if (resume) {
+			try {
+				resumeFrom = checkpoint.restore(searches, population);
+			} catch (IOException e) {
+				System.out.println("Unable to resume from " + checkpointFile + ": " + e.getMessage());
+				System.exit(1);
+			}
+		}
 	}
 
 	// -------------------------------------------------------------------------
@@ -69,58 +229,29 @@ public class World {
 
 		System.out.println("Domain: " + domain.name());
 
-		for (int s = 0; s < searches.size(); s++) {
+		for (int s = Math.max(0, resumeFrom); s < searches.size(); s++) {
 			final Search search = searches.get(s);
-			population.clear();
+			if (s != resumeFrom)
+				population.clear(); // else restored
+			checkpoint.setSearchIndex(s);
 			search.conduct(budget);
 		}
 		exportExamples();
+
+		metrics.close();
+		domain.close();
 	}
 
 	// -------------------------------------------------------------------------
 
 	/**
-	 * Export representative individuals to file.
+	 * Export representative individuals to file, waiting a while for the
+	 * export to finish but not holding up exit for a slow file system.
 	 */
-	@SuppressWarnings("boxing")
 	void exportExamples() {
-		final int numToExport = 10;
-
-		// Create "out" directory if needed
-		final String path = new String("out");
-		File dir = new File(path);
-		if (!dir.exists() && !dir.mkdir()) {
-			System.out.println("Failed to create directory " + path + ".");
-			return;
-		}
-
-		// Empty the directory
-		final String[] files = dir.list();
-		for (int i = 0; i < files.length; i++) {
-			File file = new File(dir, files[i]);
-			file.delete();
-		}
-
-		// Create summary file and export
-		final String fileName = path + "/summary.txt";
-		try {
-			PrintStream out = new PrintStream(new FileOutputStream(fileName));
-
-			// Export representative individuals
-			for (int i = 0; i < numToExport && i < population.size(); i++) {
-				final Individual indiv = population.get(i);
-				final String exportedTo = indiv.export(path);
-				if (exportedTo == "") {
-					System.out.println("Failed to save file " + fileName + ".");
-				} else {
-					out.printf("%s: typicality=%.3f, quality=%.3f.\n",
-							exportedTo, indiv.typicality(), indiv.quality());
-				}
-			}
-			out.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		}
+		exporter.publish(population);
+		if (!exporter.close(60000))
+			System.out.println("Export to out unfinished.");
 	}
 
 	// -------------------------------------------------------------------------
@@ -1,6 +1,14 @@
 package world.domain;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import world.Metrics;
+import world.Rng;
+import world.StreamingStats;
 import world.domain.Individual;
 
 //-----------------------------------------------------------------------------
@@ -20,8 +28,30 @@ public abstract class Domain
 	/** Mask for all potential on-bits. */
 	protected long bitsMask;
 
-	/** Random number generator. */
-	public Random rng = new Random(System.currentTimeMillis());
+	/** Random number generator, from which the numbered streams are split. */
+	protected Rng rng = new Rng(System.nanoTime());
+	
+	/** Random number streams, split from rng in index order as needed. */
+	protected final List<Rng> streams = new ArrayList<Rng>();
+	
+	/** Stream each thread draws from, stream 0 unless chosen; replaced with the streams. */
+	protected volatile ThreadLocal<Rng> current = newCurrent();
+	
+	/** Cache of measured results, or null if not caching. */
+	protected EvaluationCache cache;
+	
+	/** Journal of every evaluation, or null if not journalling. */
+	protected EvaluationJournal journal;
+
+	/** Pool for concurrent measurement, or null to measure serially. */
+	protected EvaluatorPool pool;
+	
+	/** Time taken by each measurement not found in the cache, in ms. */
+	protected final StreamingStats latency = new StreamingStats("Measure time (ms)");
+	
+	/** Measurements, and results found in the cache instead, over all domains. */
+	private static final Metrics.Timer MEASURE = Metrics.timer("domain.measure");
+	private static final Metrics.Counter CACHED = Metrics.counter("domain.cached");
 
 	//-------------------------------------------------------------------------
 
@@ -49,6 +79,46 @@ public abstract class Domain
 	 */
 	public abstract Individual individual(final long genotype);
 	
+	/** 
+	 * Constructs an individual with already measured values, e.g. as a view 
+	 * of stored results. The genotype is used as is, without repair.
+	 * @param genotype Individual's genotype value.
+	 * @param typicality Measured typicality.
+	 * @param quality Measured quality.
+	 * @return New individual.
+	 */
+	public Individual individual(final long genotype, final double typicality, final double quality)
+	{
+		final Individual indiv = individual(genotype);
+		indiv.genotype   = genotype;
+		indiv.typicality = typicality;
+		indiv.quality    = quality;
+		return indiv;
+	}
+	
+	/**
+	 * Reduces a genotype to the one genotype standing for all those that 
+	 * would measure the same (e.g. that map to the same phenotype), so that 
+	 * duplicates are detected and measurements reused across them.
+	 * Default behaviour: every genotype stands for itself.
+	 * @param genotype Genotype.
+	 * @return Canonical genotype.
+	 */
+	public long canonical(final long genotype)
+	{
+		return genotype;
+	}
+
+	/**
+	 * @return New walk of the genotypes standing for distinct individuals,
+	 *         each canonical (see canonical()), e.g. for exhaustive search.
+	 *         Default behaviour: every genotype, as each stands for itself.
+	 */
+	public Enumerator enumerator()
+	{
+		return new Enumerator(this);
+	}
+
 	//-------------------------------------------------------------------------
 
 	/**
@@ -74,15 +144,357 @@ public abstract class Domain
 	{
 		return bitsMask;
 	}
+	
+	/**
+	 * @return Cache of measured results, or null if not caching.
+	 */
+	public EvaluationCache cache()
+	{
+		return cache;
+	}
+	
+	/**
+	 * @param cache Cache of measured results to use, or null for none.
+	 */
+	public void setCache(final EvaluationCache cache)
+	{
+		this.cache = cache;
+	}
+
+	/**
+	 * @return Journal of every evaluation, or null if not journalling.
+	 */
+	public EvaluationJournal journal()
+	{
+		return journal;
+	}
+
+	/**
+	 * @param journal Journal to record every evaluation in, or null for none.
+	 */
+	public void setJournal(final EvaluationJournal journal)
+	{
+		this.journal = journal;
+	}
+
+	/**
+	 * @return Pool for concurrent measurement, or null if measuring serially.
+	 */
+	public EvaluatorPool pool()
+	{
+		return pool;
+	}
+	
+	/**
+	 * @return Time taken by measurements not found in the cache, in ms.
+	 *         Synchronise on it while reading, as pool threads update it.
+	 */
+	public StreamingStats latency()
+	{
+		return latency;
+	}
+	
+	/**
+	 * Sets the number of individuals that may be measured concurrently.
+	 * @param numSlots Number of evaluation slots (1 to measure serially).
+	 * @throws IOException If an evaluation slot cannot be prepared.
+	 */
+	public void setNumSlots(final int numSlots) throws IOException
+	{
+		if (pool != null)
+			pool.shutdown();
+		pool = (numSlots > 1) ? new EvaluatorPool(this, numSlots) : null;
+	}
+
+	/**
+	 * Sets whether measurements running past the usual time (p95) are 
+	 * started again in a free slot, taking whichever finishes first.
+	 * Only when measuring concurrently.
+	 * @param hedge Whether to hedge slow measurements.
+	 */
+	public void setHedge(final boolean hedge)
+	{
+		if (pool != null)
+			pool.setHedge(hedge);
+	}
+
+	/**
+	 * @return Whether several threads may measure individuals at once. 
+	 *         Default behaviour: only through an evaluation pool, whose 
+	 *         slots keep measurements apart.
+	 */
+	public boolean isThreadSafe()
+	{
+		return pool != null;
+	}
+	
+	/**
+	 * Prepares an evaluation slot for concurrent measurement, e.g. by creating 
+	 * its own working area. Default behaviour: nothing to prepare.
+	 * @param slot Slot index.
+	 * @throws IOException If the slot cannot be prepared.
+	 */
+	public void prepareSlot(final int slot) throws IOException
+	{
+		// Nothing to do
+	}
+	
+	/**
+	 * Renders the individuals' exported form, e.g. images, ahead of export,
+	 * as one batch. Lets domains skip rendering while measuring, and do it 
+	 * only for those exported. Default behaviour: nothing to render.
+	 * @param indivs Individuals about to be exported.
+	 */
+	public void render(final List<Individual> indivs)
+	{
+		// Nothing to do
+	}
+	
+	/**
+	 * Releases the evaluation pool, cache and journal.
+	 */
+	public void close()
+	{
+		if (pool != null)
+			pool.shutdown();
+		if (cache != null)
+			cache.close();
+		if (journal != null)
+			journal.close();
+	}
+
+	//------------------------------------------------------------------
+
+	/**
+	 * Measures the individual, reusing the cached result if it has been seen before.
+	 * @param indiv Individual to measure.
+	 */
+	public void measure(final Individual indiv)
+	{
+		measure(indiv, -1);
+	}
+	
+	/**
+	 * Measures the individual in the specified evaluation slot, reusing the 
+	 * cached result if it, or a genotype with the same canonical form, has
+	 * been seen before.
+	 * @param indiv Individual to measure.
+	 * @param slot Evaluation slot, or -1 if not measuring concurrently.
+	 */
+	public void measure(final Individual indiv, final int slot)
+	{
+		indiv.measureTime = 0;
+		indiv.failed = false;
+		final long key = (cache == null) ? 0 : canonical(indiv.genotype());
+		if (cache != null && cache.fetch(key, indiv))
+		{
+			CACHED.increment();
+			return;
+		}
+		
+		final long startAt = System.nanoTime();
+		indiv.measure(slot);
+		indiv.measureTime = System.nanoTime() - startAt;
+		if (!indiv.isCancelled())
+		{
+			// A hedged measurement's loser is cancelled, so only the one
+			// that completed is timed
+			MEASURE.record(indiv.measureTime);
+			synchronized (latency)
+			{
+				latency.addSample(indiv.measureTime / 1e6);
+			}
+		}
+		
+		if (cache != null && indiv.quality() != -1 && !indiv.isCancelled() && !indiv.hasFailed())
+			cache.store(key, indiv.typicality(), indiv.quality());  // don't cache user quitting, abandoned or failed
+	}
+	
+	/**
+	 * Measures a batch of individuals, concurrently if a pool is set.
+	 * If the user quits (quality -1), the rest of the batch is left unmeasured.
+	 * @param batch Individuals to measure.
+	 */
+	public void measure(final List<Individual> batch)
+	{
+		if (pool != null)
+		{
+			pool.measure(batch);
+			return;
+		}
+		for (final Individual indiv : batch)
+		{
+			measure(indiv);
+			if (indiv.quality() == -1)
+				break;
+		}
+	}
+	
+	/**
+	 * Measures a batch of genotypes.
+	 * @param genotypes Genotypes to measure; repaired in place.
+	 * @param typicality Receives the typicality of each genotype.
+	 * @param quality Receives the quality of each genotype.
+	 */
+	public void evaluate(final long[] genotypes, final double[] typicality, final double[] quality)
+	{
+		evaluate(genotypes, typicality, quality, genotypes.length);
+	}
+	
+	/**
+	 * Measures the first genotypes of a batch.
+	 * @param genotypes Genotypes to measure; repaired in place.
+	 * @param typicality Receives the typicality of each genotype.
+	 * @param quality Receives the quality of each genotype.
+	 * @param num Number of genotypes to measure, from the start of the arrays.
+	 */
+	public void evaluate(final long[] genotypes, final double[] typicality, final double[] quality, final int num)
+	{
+		evaluate(genotypes, typicality, quality, null, num);
+	}
+
+	/**
+	 * Measures the first genotypes of a batch. Domains may override this to 
+	 * schedule, deduplicate or pipeline the work. Default behaviour: constructs
+	 * and measures an individual for each genotype.
+	 * If the user quits (quality -1), later genotypes may be left unmeasured.
+	 * @param genotypes Genotypes to measure; repaired in place.
+	 * @param typicality Receives the typicality of each genotype.
+	 * @param quality Receives the quality of each genotype.
+	 * @param times Receives the time taken to measure each genotype in ns 
+	 *              (0 if not measured afresh), or null if not wanted.
+	 * @param num Number of genotypes to measure, from the start of the arrays.
+	 */
+	public void evaluate(final long[] genotypes, final double[] typicality, final double[] quality, final long[] times, final int num)
+	{
+		final List<Individual> batch = new ArrayList<Individual>(num);
+		for (int n = 0; n < num; n++)
+			batch.add(individual(genotypes[n]));
+		
+		measure(batch);
+		
+		for (int n = 0; n < num; n++)
+		{
+			final Individual indiv = batch.get(n);
+			genotypes[n]  = indiv.genotype();
+			typicality[n] = indiv.typicality();
+			quality[n]    = indiv.quality();
+			if (times != null)
+				times[n] = indiv.measureTime();
+		}
+	}
 
 	//------------------------------------------------------------------
 
+	/**
+	 * Sets the generator from which the random number streams are split, 
+	 * e.g. for reproducible runs.
+	 * @param generator Random number generator.
+	 */
+	public synchronized void setRng(final Rng generator)
+	{
+		rng = generator;
+		streams.clear();
+		current = newCurrent();
+	}
+	
+	/**
+	 * @return Per-thread stream holder, resolving stream 0 on first use.
+	 */
+	private ThreadLocal<Rng> newCurrent()
+	{
+		return new ThreadLocal<Rng>()
+		{
+			@Override
+			protected Rng initialValue()
+			{
+				return stream(0);
+			}
+		};
+	}
+	
+	/**
+	 * Streams are split in index order, whichever is asked for first, so 
+	 * stream i is the same on every run from the same generator.
+	 * @param index Stream index.
+	 * @return Random number stream with the specified index.
+	 */
+	public synchronized Rng stream(final int index)
+	{
+		while (streams.size() <= index)
+			streams.add(rng.split());
+		return streams.get(index);
+	}
+	
+	/**
+	 * Has the current thread draw from the specified stream, e.g. island i's
+	 * own, whichever pool thread it runs on. Threads draw from stream 0, the
+	 * main search thread's, until they choose another; no two threads should
+	 * draw from the same stream at once. Threads choose again after setRng().
+	 * @param index Stream index.
+	 */
+	public void useStream(final int index)
+	{
+		current.set(stream(index));
+	}
+	
+	/**
+	 * @return Random number stream for the current thread, without locking
+	 * the domain.
+	 */
+	public Rng rng()
+	{
+		return current.get();
+	}
+	
+	/**
+	 * Writes the state of the random number streams, e.g. to a checkpoint.
+	 * @param out Output.
+	 * @throws IOException If the state could not be written.
+	 */
+	public synchronized void writeState(final DataOutput out) throws IOException
+	{
+		rng.writeState(out);
+		out.writeInt(streams.size());
+		for (final Rng stream : streams)
+			stream.writeState(out);
+	}
+	
+	/**
+	 * Restores the random number streams written by writeState(), in place,
+	 * so the streams threads already draw from stay theirs.
+	 * @param in Input.
+	 * @throws IOException If the state could not be read.
+	 */
+	public synchronized void readState(final DataInput in) throws IOException
+	{
+		rng.readState(in);
+		final int num = in.readInt();
+		for (int n = 0; n < num; n++)
+		{
+			if (n == streams.size())
+				streams.add(new Rng(0));
+			streams.get(n).readState(in);
+		}
+		while (streams.size() > num)
+			streams.remove(streams.size() - 1);
+	}
+	
 	/**
 	 * @return Random genotype within this domain's bit range.
 	 */
 	public long randomGenotype()
 	{
-		return (rng.nextLong() & bitsMask);
+		return randomGenotype(rng());
+	}
+	
+	/**
+	 * @param generator Random number generator to use.
+	 * @return Random genotype within this domain's bit range.
+	 */
+	public long randomGenotype(final Random generator)
+	{
+		return (generator.nextLong() & bitsMask);
 	}
 	
 }
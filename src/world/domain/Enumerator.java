@@ -0,0 +1,82 @@
+package world.domain;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Walks the genotypes of a domain that stand for distinct individuals, each
+ * exactly once, in increasing (unsigned) order, e.g. for exhaustive search.
+ *
+ * By default every genotype stands for itself, so all 2^numBits are walked,
+ * but for 0, which individuals don't take (see Individual.repair()).
+ * Domains whose genotypes mostly stand for each other (see
+ * Domain.canonical()) walk only their canonical genotypes instead.
+ */
+public class Enumerator
+{
+	/** Last genotype of the domain. */
+	protected final long last;
+
+	/** Current genotype, once started. */
+	protected long genotype;
+
+	/** Whether next() has been called, or the walk resumed. */
+	protected boolean started = false;
+
+	/** Whether the walk is over. */
+	protected boolean done = false;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 * @param domain Domain to walk the genotypes of.
+	 */
+	public Enumerator(final Domain domain)
+	{
+		last = domain.bitsMask();
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Current genotype.
+	 */
+	public long genotype()
+	{
+		return genotype;
+	}
+
+	/**
+	 * Moves on to the next genotype.
+	 * @return Whether there was one, else the walk is over.
+	 */
+	public boolean next()
+	{
+		if (done)
+			return false;
+		if (!started)
+		{
+			started = true;
+			genotype = 0;
+		}
+		if (genotype == last)
+		{
+			done = true;
+			return false;
+		}
+		genotype++;
+		return true;
+	}
+
+	/**
+	 * Continues the walk after the specified genotype, e.g. when resuming.
+	 * @param after Genotype last walked.
+	 */
+	public void resume(final long after)
+	{
+		started = true;
+		done = false;
+		genotype = after;
+	}
+
+}
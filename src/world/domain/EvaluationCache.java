@@ -0,0 +1,340 @@
+package world.domain;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import world.Utils;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Persistent cache of measured results, keyed by genotype.
+ *
+ * Open-addressing (linear probing) hash table of genotype -> (typicality, quality)
+ * held in a memory-mapped file, so results survive between runs and are kept
+ * off the heap. Each slot is 24 bytes: genotype, typicality, quality.
+ * Key 0 marks an empty slot, so genotype 0 is stored in the header instead.
+ * The table grows into a new file, which then replaces the old in one step,
+ * so a crash while growing leaves the old table intact.
+ */
+public class EvaluationCache
+{
+	/** File signature. */
+	protected static final long MAGIC = 0x4556414c43414348L;  // "EVALCACH"
+
+	/** Header size in bytes. */
+	protected static final int HEADER = 64;
+
+	/** Slot size in bytes. */
+	protected static final int SLOT = 24;
+
+	/** Initial number of slots. */
+	protected static final int MIN_CAPACITY = 1 << 12;
+
+	/** Maximum number of slots (keeps the mapping under 2GB). */
+	protected static final int MAX_CAPACITY = 1 << 26;
+
+	/** Header offsets. */
+	protected static final int H_MAGIC = 0;
+	protected static final int H_CAPACITY = 8;
+	protected static final int H_SIZE = 16;
+	protected static final int H_ZERO = 24;
+	protected static final int H_ZERO_TYPICALITY = 32;
+	protected static final int H_ZERO_QUALITY = 40;
+
+	/** Path of the backing file. */
+	protected final File path;
+
+	/** Backing file. */
+	protected RandomAccessFile file;
+
+	/** Channel for the backing file. */
+	protected FileChannel channel;
+
+	/** Current mapping of the backing file. */
+	protected MappedByteBuffer buffer;
+
+	/** Number of slots (power of 2). */
+	protected int capacity;
+
+	/** Number of entries stored in slots. */
+	protected int size;
+
+	/** Number of successful lookups. */
+	protected long hits;
+
+	/** Number of failed lookups. */
+	protected long misses;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor. Opens the specified cache file, creating it if necessary.
+	 * @param path Cache file.
+	 * @throws IOException If the file cannot be opened or is not a cache file.
+	 */
+	public EvaluationCache(final File path) throws IOException
+	{
+		this.path = path;
+		file      = new RandomAccessFile(path, "rw");
+		channel   = file.getChannel();
+
+		if (channel.size() == 0)
+		{
+			remap(MIN_CAPACITY);
+			buffer.putLong(H_MAGIC, MAGIC);
+		}
+		else
+		{
+			final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+			final int cap = (int)header.getLong(H_CAPACITY);
+			if (header.getLong(H_MAGIC) != MAGIC || Integer.bitCount(cap) != 1 || channel.size() < HEADER + (long)cap * SLOT)
+			{
+				file.close();
+				throw new IOException(path + " is not a valid evaluation cache.");
+			}
+			remap(cap);
+			size = (int)buffer.getLong(H_SIZE);
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Number of entries stored.
+	 */
+	public synchronized int size()
+	{
+		return size + (int)buffer.getLong(H_ZERO);
+	}
+
+	/**
+	 * @return Number of successful lookups.
+	 */
+	public synchronized long hits()
+	{
+		return hits;
+	}
+
+	/**
+	 * @return Number of failed lookups.
+	 */
+	public synchronized long misses()
+	{
+		return misses;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Looks up the individual's genotype and, if found, sets its measured values.
+	 * @param indiv Individual to look up.
+	 * @return Whether the individual was found.
+	 */
+	public boolean fetch(final Individual indiv)
+	{
+		return fetch(indiv.genotype(), indiv);
+	}
+
+	/**
+	 * Looks up the specified key and, if found, sets the individual's measured values.
+	 * @param key Genotype to look up, e.g. the individual's canonical genotype.
+	 * @param indiv Individual to receive the values.
+	 * @return Whether the key was found.
+	 */
+	public synchronized boolean fetch(final long key, final Individual indiv)
+	{
+		if (key == 0)
+		{
+			if (buffer.getLong(H_ZERO) == 0)
+			{
+				misses++;
+				return false;
+			}
+			indiv.typicality = buffer.getDouble(H_ZERO_TYPICALITY);
+			indiv.quality    = buffer.getDouble(H_ZERO_QUALITY);
+			hits++;
+			return true;
+		}
+
+		final int at = slotOf(key);
+		if (at < 0)
+		{
+			misses++;
+			return false;
+		}
+		final int offset = HEADER + at * SLOT;
+		indiv.typicality = buffer.getDouble(offset + 8);
+		indiv.quality    = buffer.getDouble(offset + 16);
+		hits++;
+		return true;
+	}
+
+	/**
+	 * Stores the individual's measured values.
+	 * @param indiv Measured individual.
+	 */
+	public void store(final Individual indiv)
+	{
+		store(indiv.genotype(), indiv.typicality(), indiv.quality());
+	}
+
+	/**
+	 * Stores measured values for the specified genotype.
+	 * @param genotype Genotype.
+	 * @param typicality Typicality value.
+	 * @param quality Quality value.
+	 */
+	public synchronized void store(final long genotype, final double typicality, final double quality)
+	{
+		if (genotype == 0)
+		{
+			buffer.putDouble(H_ZERO_TYPICALITY, typicality);
+			buffer.putDouble(H_ZERO_QUALITY, quality);
+			buffer.putLong(H_ZERO, 1);
+			return;
+		}
+
+		int at = slotOf(genotype);
+		if (at < 0)
+		{
+			if (size + 1 > capacity / 2 && capacity < MAX_CAPACITY)
+				rehash(capacity * 2);
+			if (size + 1 >= capacity)
+				return;  // full: don't cache
+			at = ~slotOf(genotype);
+			size++;
+			buffer.putLong(H_SIZE, size);
+		}
+
+		// Write values before the key, so that a torn write leaves an empty slot
+		final int offset = HEADER + at * SLOT;
+		buffer.putDouble(offset + 8, typicality);
+		buffer.putDouble(offset + 16, quality);
+		buffer.putLong(offset, genotype);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param key Non-zero genotype.
+	 * @return Slot holding the key, else ~(free slot where it would go).
+	 */
+	protected int slotOf(final long key)
+	{
+		final int mask = capacity - 1;
+		int at = (int)Utils.hash(key) & mask;
+		while (true)
+		{
+			final long stored = buffer.getLong(HEADER + at * SLOT);
+			if (stored == key)
+				return at;
+			if (stored == 0)
+				return ~at;
+			at = (at + 1) & mask;
+		}
+	}
+
+	/**
+	 * Maps the backing file with the specified number of slots.
+	 */
+	protected void remap(final int cap) throws IOException
+	{
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long)cap * SLOT);
+		capacity = cap;
+		buffer.putLong(H_CAPACITY, capacity);
+	}
+
+	/**
+	 * Grows the table to the specified number of slots, reinserting all
+	 * entries into a new file, which is then flushed and moved over the old.
+	 * If that fails, the table stays as it was.
+	 */
+	protected void rehash(final int cap)
+	{
+		final long[]   keys = new long[size];
+		final double[] typs = new double[size];
+		final double[] qual = new double[size];
+
+		int n = 0;
+		for (int at = 0; at < capacity; at++)
+		{
+			final int offset = HEADER + at * SLOT;
+			final long key = buffer.getLong(offset);
+			if (key == 0)
+				continue;
+			keys[n] = key;
+			typs[n] = buffer.getDouble(offset + 8);
+			qual[n] = buffer.getDouble(offset + 16);
+			n++;
+		}
+
+		final MappedByteBuffer oldBuffer = buffer;
+		final int oldCapacity = capacity;
+		final File tmp = new File(path.getPath() + ".tmp");
+		try
+		{
+			final RandomAccessFile tmpFile = new RandomAccessFile(tmp, "rw");
+			try
+			{
+				tmpFile.setLength(0);
+				buffer   = tmpFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long)cap * SLOT);
+				capacity = cap;
+				for (int h = 0; h < HEADER; h += 8)
+					buffer.putLong(h, oldBuffer.getLong(h));
+				buffer.putLong(H_CAPACITY, capacity);
+
+				for (int i = 0; i < n; i++)
+				{
+					final int offset = HEADER + ~slotOf(keys[i]) * SLOT;
+					buffer.putDouble(offset + 8, typs[i]);
+					buffer.putDouble(offset + 16, qual[i]);
+					buffer.putLong(offset, keys[i]);
+				}
+				buffer.force();
+			}
+			finally
+			{
+				tmpFile.close();
+			}
+			Files.move(tmp.toPath(), path.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Utils.syncDirectory(path);
+
+			file.close();
+			file    = new RandomAccessFile(path, "rw");
+			channel = file.getChannel();
+			buffer  = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long)cap * SLOT);
+		}
+		catch (IOException e)
+		{
+			System.out.println("Failed to grow evaluation cache: " + e.getMessage());
+			buffer   = oldBuffer;
+			capacity = oldCapacity;
+			tmp.delete();
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Flushes the cache to disk and closes the backing file.
+	 */
+	public synchronized void close()
+	{
+		buffer.force();
+		try
+		{
+			file.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+}
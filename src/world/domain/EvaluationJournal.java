@@ -0,0 +1,315 @@
+package world.domain;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Append-only log of every evaluation, for offline analysis and for
+ * rebuilding caches and archives; read it back with JournalReader.
+ *
+ * Each record is RECORD bytes: genotype, typicality, quality, measurement
+ * time (ns, 0 if cached), generation, then the search name in UTF-8, padded
+ * with zeros. Records are appended to a buffer in memory, which a background
+ * thread writes out and forces to disk every so often (group commit), so
+ * appending never waits on the disk unless the buffer fills up. A record torn
+ * by a crash is dropped when the journal is next opened.
+ */
+public class EvaluationJournal
+{
+	/** File signature. */
+	public static final long MAGIC = 0x4a4f55524e414c31L;  // "JOURNAL1"
+
+	/** Header size in bytes: signature, record size. */
+	public static final int HEADER = 16;
+
+	/** Record size in bytes. */
+	public static final int RECORD = 64;
+
+	/** Record offsets. */
+	public static final int R_GENOTYPE = 0;
+	public static final int R_TYPICALITY = 8;
+	public static final int R_QUALITY = 16;
+	public static final int R_TIME = 24;
+	public static final int R_GENERATION = 32;
+	public static final int R_SEARCH = 36;
+
+	/** Bytes available for the search name. */
+	public static final int NAME_BYTES = RECORD - R_SEARCH;
+
+	/** Records buffered before writing. */
+	protected static final int BUFFER_RECORDS = 1024;
+
+	/** Backing file. */
+	protected final FileChannel channel;
+
+	/** Longest time a record waits before being written (ms). */
+	protected final long commitInterval;
+
+	/** Buffer being appended to, and buffer being written out. */
+	protected ByteBuffer filling;
+	protected ByteBuffer writing;
+
+	/** Set on close. */
+	protected boolean closed;
+
+	/** Number of records appended, and written out. */
+	protected long numAppended;
+	protected long numWritten;
+
+	/** Number of records to write out without waiting for the commit interval. */
+	protected long flushTarget;
+
+	/** Background writer. */
+	protected final Thread writer;
+
+	/** Search name last encoded, and its encoding, as the name rarely changes. */
+	private String lastName;
+	private byte[] lastNameBytes;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor. Opens the specified journal to append to, creating it if
+	 * necessary.
+	 * @param path           Journal file.
+	 * @param commitInterval Longest time a record waits before being written (ms).
+	 * @throws IOException If the file cannot be opened or is not a journal.
+	 */
+	public EvaluationJournal(final File path, final long commitInterval) throws IOException
+	{
+		this.commitInterval = commitInterval;
+
+		channel = FileChannel.open(path.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (channel.size() == 0)
+		{
+			final ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			header.putLong(MAGIC).putInt(RECORD).putInt(0).flip();
+			while (header.hasRemaining())
+				channel.write(header, header.position());
+			channel.force(true);
+		}
+		else
+		{
+			final ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining() && channel.read(header, header.position()) > 0)
+				continue;
+			if (header.position() < HEADER || header.getLong(0) != MAGIC || header.getInt(8) != RECORD)
+			{
+				channel.close();
+				throw new IOException(path + " is not a valid evaluation journal.");
+			}
+			// Drop any record torn by a crash
+			channel.truncate(HEADER + (channel.size() - HEADER) / RECORD * RECORD);
+		}
+		channel.position(channel.size());
+
+		filling = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD).order(ByteOrder.LITTLE_ENDIAN);
+		writing = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD).order(ByteOrder.LITTLE_ENDIAN);
+
+		writer = new Thread("Evaluation journal")
+		{
+			@Override
+			public void run()
+			{
+				writeLoop();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Appends a record of an evaluation.
+	 * @param search      Name of the search evaluating.
+	 * @param generation  Generation within the search.
+	 * @param genotype    Genotype.
+	 * @param typicality  Typicality value.
+	 * @param quality     Quality value.
+	 * @param measureTime Time taken to measure in ns, or 0 if cached.
+	 */
+	public synchronized void append
+	(
+		final String search, final int generation, final long genotype,
+		final double typicality, final double quality, final long measureTime
+	)
+	{
+		if (closed)
+			return;
+
+		while (!filling.hasRemaining())
+		{
+			// Writer hasn't caught up: hand over the buffer, and wait for it
+			notifyAll();
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+
+		final int at = filling.position();
+		filling.putLong(at + R_GENOTYPE, genotype);
+		filling.putDouble(at + R_TYPICALITY, typicality);
+		filling.putDouble(at + R_QUALITY, quality);
+		filling.putLong(at + R_TIME, measureTime);
+		filling.putInt(at + R_GENERATION, generation);
+
+		final byte[] name = encode(search);
+		for (int b = 0; b < NAME_BYTES; b++)
+			filling.put(at + R_SEARCH + b, (b < name.length) ? name[b] : 0);
+
+		filling.position(at + RECORD);
+		numAppended++;
+
+		if (!filling.hasRemaining())
+			notifyAll();  // write out now rather than at the next commit
+	}
+
+	/**
+	 * @return Number of records appended since opened.
+	 */
+	public synchronized long numAppended()
+	{
+		return numAppended;
+	}
+
+	/**
+	 * Waits until all records appended so far are on disk.
+	 */
+	public synchronized void flush()
+	{
+		final long target = numAppended;
+		flushTarget = Math.max(flushTarget, target);
+		while (numWritten < target && writer.isAlive())
+		{
+			notifyAll();
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Writes out all records appended and closes the journal.
+	 */
+	public void close()
+	{
+		synchronized (this)
+		{
+			closed = true;
+			notifyAll();
+		}
+		try
+		{
+			writer.join();
+			channel.close();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Background writer: every commit interval, or as soon as the buffer
+	 * fills, swaps buffers and writes out the full one, forcing it to disk.
+	 */
+	protected void writeLoop()
+	{
+		while (true)
+		{
+			final int numRecords;
+			final boolean last;
+			synchronized (this)
+			{
+				if (!closed && filling.hasRemaining() && numWritten >= flushTarget)
+				{
+					try
+					{
+						wait(commitInterval);
+					}
+					catch (InterruptedException e)
+					{
+						closed = true;
+					}
+				}
+				last = closed;
+
+				final ByteBuffer full = filling;
+				filling = writing;
+				writing = full;
+				filling.clear();
+				numRecords = writing.position() / RECORD;
+				writing.flip();
+				notifyAll();  // appenders may continue into the empty buffer
+			}
+
+			try
+			{
+				if (numRecords > 0)
+				{
+					while (writing.hasRemaining())
+						channel.write(writing);
+					channel.force(false);
+				}
+			}
+			catch (IOException e)
+			{
+				System.out.println("Failed to write evaluation journal: " + e.getMessage());
+				synchronized (this)
+				{
+					closed = true;
+					notifyAll();
+				}
+				return;
+			}
+
+			synchronized (this)
+			{
+				numWritten += numRecords;
+				notifyAll();
+			}
+			if (last)
+				return;
+		}
+	}
+
+	/**
+	 * @return UTF-8 encoding of the search name, up to NAME_BYTES.
+	 */
+	private byte[] encode(final String search)
+	{
+		if (!search.equals(lastName))
+		{
+			lastName = search;
+			lastNameBytes = search.getBytes(StandardCharsets.UTF_8);
+		}
+		return lastNameBytes;
+	}
+
+}
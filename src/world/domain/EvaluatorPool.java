@@ -0,0 +1,400 @@
+package world.domain;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import world.Metrics;
+import world.StreamingStats;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Pool of evaluation slots for measuring individuals concurrently.
+ *
+ * Each slot is prepared by the domain (e.g. with its own working directory)
+ * and is used by at most one measurement at a time.
+ *
+ * Optionally, slow measurements are hedged: once one has run longer than 95%
+ * of measurements do, a copy is started in a free slot, if there is one, and
+ * whichever finishes first is taken, the other being cancelled. A few stuck
+ * measurements then don't hold up a whole batch.
+ */
+public class EvaluatorPool
+{
+	/** Domain whose individuals are measured. */
+	protected final Domain domain;
+
+	/** Number of slots. */
+	protected final int numSlots;
+
+	/** Slots not currently in use. */
+	protected final BlockingQueue<Integer> freeSlots;
+
+	/** Worker threads. */
+	protected final ExecutorService executor;
+
+	/** Whether slow measurements are hedged. */
+	protected volatile boolean hedge;
+
+	/** Threads starting and running hedged copies, created when hedging is set. */
+	protected ScheduledExecutorService hedgeTimer;
+	protected ExecutorService hedgeExecutor;
+
+	/** Measurements needed before their p95 is trusted for hedging. */
+	protected static final int MIN_HEDGE_SAMPLES = 20;
+
+	/** Hedged copies started, and those finishing first. */
+	private static final Metrics.Counter HEDGED = Metrics.counter("pool.hedged");
+	private static final Metrics.Counter HEDGES_WON = Metrics.counter("pool.hedgesWon");
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 * @param domain Domain whose individuals are measured.
+	 * @param numSlots Number of concurrent evaluation slots.
+	 * @throws IOException If a slot cannot be prepared.
+	 */
+	public EvaluatorPool(final Domain domain, final int numSlots) throws IOException
+	{
+		this.domain   = domain;
+		this.numSlots = numSlots;
+
+		freeSlots = new ArrayBlockingQueue<Integer>(numSlots);
+		for (int slot = 0; slot < numSlots; slot++)
+		{
+			domain.prepareSlot(slot);
+			freeSlots.add(Integer.valueOf(slot));
+		}
+
+		executor = Executors.newFixedThreadPool(numSlots, threads("evaluator-"));
+	}
+
+	/**
+	 * @return Factory of daemon threads with the specified name prefix.
+	 */
+	protected static ThreadFactory threads(final String prefix)
+	{
+		return new ThreadFactory()
+		{
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(final Runnable task)
+			{
+				final Thread thread = new Thread(task, prefix + count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Number of slots.
+	 */
+	public int numSlots()
+	{
+		return numSlots;
+	}
+
+	/**
+	 * Sets whether slow measurements are hedged.
+	 * @param hedge Whether to start a copy of a measurement once it has run
+	 *              past the p95 of measurement times, taking whichever
+	 *              finishes first.
+	 */
+	public synchronized void setHedge(final boolean hedge)
+	{
+		if (hedge && hedgeTimer == null)
+		{
+			hedgeTimer = Executors.newSingleThreadScheduledExecutor(threads("hedge-timer-"));
+			hedgeExecutor = Executors.newCachedThreadPool(threads("hedge-"));
+		}
+		this.hedge = hedge;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Measures a batch of individuals concurrently, returning when all are done.
+	 * Once the user quits (quality -1), individuals not yet started are skipped.
+	 * @param batch Individuals to measure.
+	 */
+	public void measure(final List<Individual> batch)
+	{
+		final AtomicBoolean quit = new AtomicBoolean(false);
+		final List<Future<?>> pending = new ArrayList<Future<?>>(batch.size());
+		for (final Individual indiv : batch)
+			pending.add(submit(indiv, quit));
+
+		for (final Future<?> future : pending)
+		{
+			try
+			{
+				future.get();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+			catch (ExecutionException e)
+			{
+				e.getCause().printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Schedules measurement of an individual on the next free slot.
+	 * @param indiv Individual to measure.
+	 * @return Future completing when the individual has been measured.
+	 */
+	public Future<Individual> submit(final Individual indiv)
+	{
+		return submit(indiv, new AtomicBoolean(false));
+	}
+	
+	/**
+	 * Schedules measurement of an individual on the next free slot, unless 
+	 * the user has quit by then.
+	 * @param indiv Individual to measure.
+	 * @param quit Set once the user quits; shared by a batch.
+	 * @return Future completing when the individual has been measured or skipped.
+	 */
+	protected Future<Individual> submit(final Individual indiv, final AtomicBoolean quit)
+	{
+		return executor.submit(new Callable<Individual>()
+		{
+			@Override
+			public Individual call() throws InterruptedException
+			{
+				final Integer slot = freeSlots.take();
+				try
+				{
+					if (quit.get())
+						return indiv;
+					measure(indiv, slot.intValue());
+					if (indiv.quality() == -1)
+						quit.set(true);
+				}
+				finally
+				{
+					freeSlots.add(slot);
+				}
+				return indiv;
+			}
+		});
+	}
+
+	/**
+	 * Schedules measurement of an individual on the next free slot, adding it
+	 * to the queue once measured, so results can be taken in order of 
+	 * completion. If interrupted while waiting for a slot, the individual is
+	 * added cancelled and unmeasured, so whoever waits on the queue still
+	 * hears back from it.
+	 * @param indiv Individual to measure.
+	 * @param done Queue to receive the individual once measured.
+	 */
+	public void submit(final Individual indiv, final BlockingQueue<Individual> done)
+	{
+		executor.submit(new Callable<Individual>()
+		{
+			@Override
+			public Individual call()
+			{
+				final Integer slot;
+				try
+				{
+					slot = freeSlots.take();
+				}
+				catch (InterruptedException e)
+				{
+					indiv.cancel();
+					done.add(indiv);
+					Thread.currentThread().interrupt();
+					return indiv;
+				}
+				try
+				{
+					measure(indiv, slot.intValue());
+				}
+				catch (RuntimeException e)
+				{
+					e.printStackTrace();  // individual is passed on unmeasured
+				}
+				finally
+				{
+					freeSlots.add(slot);
+					done.add(indiv);
+				}
+				return indiv;
+			}
+		});
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Measures an individual in a slot taken by the calling thread, hedging
+	 * if it runs slow.
+	 */
+	protected void measure(final Individual indiv, final int slot)
+	{
+		final long delay = hedge ? hedgeDelay() : -1;
+		if (delay < 0)
+		{
+			domain.measure(indiv, slot);
+			return;
+		}
+
+		final Hedge copy = new Hedge(indiv);
+		final ScheduledFuture<?> start = hedgeTimer.schedule(copy, delay, TimeUnit.MILLISECONDS);
+		domain.measure(indiv, slot);
+		start.cancel(false);
+		copy.primaryDone();
+	}
+
+	/**
+	 * @return Time after which to hedge a measurement (ms), or -1 if too few
+	 *         measurements have been timed yet.
+	 */
+	protected long hedgeDelay()
+	{
+		final StreamingStats latency = domain.latency();
+		synchronized (latency)
+		{
+			if (latency.count() < MIN_HEDGE_SAMPLES)
+				return -1;
+			return (long)Math.ceil(latency.quantile(0.95));
+		}
+	}
+
+	/**
+	 * Copy of a measurement, started in a free slot if the original runs slow.
+	 * Whichever of the two finishes first decides the result.
+	 */
+	protected class Hedge implements Runnable
+	{
+		/** Original individual, measured by the pool thread. */
+		protected final Individual primary;
+
+		/** Copy of the individual, once started. */
+		protected volatile Individual copy;
+
+		/** Set by whichever finishes first. */
+		protected final AtomicBoolean decided = new AtomicBoolean(false);
+
+		/** Released once the copy has finished. */
+		protected final CountDownLatch copyDone = new CountDownLatch(1);
+
+		Hedge(final Individual primary)
+		{
+			this.primary = primary;
+		}
+
+		/**
+		 * Starts the copy, if the original is still running and a slot is free.
+		 */
+		@Override
+		public void run()
+		{
+			final Integer slot = freeSlots.poll();
+			if (slot == null)
+				return;  // all slots busy: no spare capacity to hedge with
+			if (decided.get())
+			{
+				freeSlots.add(slot);
+				return;
+			}
+			copy = domain.individual(primary.genotype());
+			if (decided.get())
+				copy.cancel();  // original finished meanwhile: the copy won't run
+			HEDGED.increment();
+			hedgeExecutor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						domain.measure(copy, slot.intValue());
+						if (decided.compareAndSet(false, true))
+						{
+							HEDGES_WON.increment();
+							primary.cancel();
+						}
+					}
+					finally
+					{
+						freeSlots.add(slot);
+						copyDone.countDown();
+					}
+				}
+			});
+		}
+
+		/**
+		 * Called once the original has finished, or been cancelled: takes the
+		 * copy's result if it finished first, no longer cancelled as it now
+		 * holds a measurement, else cancels the copy.
+		 */
+		void primaryDone()
+		{
+			if (decided.compareAndSet(false, true))
+			{
+				final Individual started = copy;
+				if (started != null)
+					started.cancel();
+				return;
+			}
+
+			try
+			{
+				copyDone.await();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+			primary.genotype   = copy.genotype();
+			primary.typicality = copy.typicality();
+			primary.quality    = copy.quality();
+			primary.failed     = copy.hasFailed();
+			primary.cancelled  = false;
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Stops the worker threads once current measurements have finished.
+	 */
+	public void shutdown()
+	{
+		executor.shutdown();
+		if (hedgeTimer != null)
+		{
+			hedgeTimer.shutdownNow();
+			hedgeExecutor.shutdown();
+		}
+	}
+
+}
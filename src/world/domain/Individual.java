@@ -21,6 +21,18 @@ public abstract class Individual
 
 	/** Quality estimate (0..1). */
 	protected double quality;
+
+	/** Time taken by the last measurement in ns, or 0 if it was cached. */
+	protected long measureTime;
+
+	/**
+	 * Set once the measurement is no longer wanted, e.g. a hedged copy finished
+	 * first; cleared again if the copy's result is taken over.
+	 */
+	protected volatile boolean cancelled;
+
+	/** Set if the measurement failed or timed out, so its result may not hold next time. */
+	protected boolean failed;
 		
 	//-------------------------------------------------------------------------
 
@@ -65,7 +77,7 @@ public abstract class Individual
 	{
 		// Default behaviour: ensure that at least one bit is on
 		if ((genotype & domain.bitsMask) == 0)
-			genotype |= (1L << domain.rng.nextInt(domain.numBits()));  // turn a random bit on
+			genotype |= (1L << domain.rng().nextInt(domain.numBits()));  // turn a random bit on
 	}
 
 	//-------------------------------------------------------------------------
@@ -96,6 +108,14 @@ public abstract class Individual
 	
 	//-------------------------------------------------------------------------
 
+	/**
+	 * @return Time taken by the last measurement in ns, or 0 if it was cached.
+	 */
+	public long measureTime()
+	{
+		return measureTime;
+	}
+	
 	/**
 	 * PRE: measureTypicality() and measureQuality() have already been called.
 	 * @return Fitness value of this individual.
@@ -116,4 +136,43 @@ public abstract class Individual
 		measureQuality();
 	}
 
+	/**
+	 * Abandons the measurement, from another thread: its result is not used
+	 * or cached. Domains that run external processes should override this to
+	 * stop them. Default behaviour: the measurement runs to completion.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+	}
+
+	/**
+	 * @return Whether the measurement has been abandoned, leaving this
+	 *         individual without a result.
+	 */
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * @return Whether the last measurement failed or timed out, rather than
+	 *         giving this individual's own result, e.g. jenn crashed or was
+	 *         stopped at the deadline; such results are not cached.
+	 */
+	public boolean hasFailed()
+	{
+		return failed;
+	}
+
+	/**
+	 * Measure typicality and quality in the specified evaluation slot.
+	 * Default behaviour: slots are not used.
+	 * @param slot Evaluation slot prepared by the domain, or -1 for none.
+	 */
+	public void measure(final int slot)
+	{
+		measure();
+	}
+
 }
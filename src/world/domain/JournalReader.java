@@ -0,0 +1,239 @@
+package world.domain;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import static world.domain.EvaluationJournal.HEADER;
+import static world.domain.EvaluationJournal.MAGIC;
+import static world.domain.EvaluationJournal.NAME_BYTES;
+import static world.domain.EvaluationJournal.RECORD;
+import static world.domain.EvaluationJournal.R_GENERATION;
+import static world.domain.EvaluationJournal.R_GENOTYPE;
+import static world.domain.EvaluationJournal.R_QUALITY;
+import static world.domain.EvaluationJournal.R_SEARCH;
+import static world.domain.EvaluationJournal.R_TIME;
+import static world.domain.EvaluationJournal.R_TYPICALITY;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Reads the records of an evaluation journal, either streamed through a small
+ * buffer, or memory-mapped for random access by index.
+ *
+ * Step through records with next(), or go to one with seek() if mapped, then
+ * read its fields. For example, to rebuild an evaluation cache:
+ *
+ *	final JournalReader reader = new JournalReader(file, false);
+ *	while (reader.next())
+ *		cache.store(reader.genotype(), reader.typicality(), reader.quality());
+ *	reader.close();
+ */
+public class JournalReader
+{
+	/** Records read into the buffer at a time, when streaming. */
+	protected static final int CHUNK_RECORDS = 4096;
+
+	/** Journal file. */
+	protected final FileChannel channel;
+
+	/** Whether the whole journal is mapped. */
+	protected final boolean mapped;
+
+	/** Whole journal if mapped, else the chunk of records being read. */
+	protected final ByteBuffer buffer;
+
+	/** Number of complete records. */
+	protected final long numRecords;
+
+	/** Index of the current record. */
+	protected long index = -1;
+
+	/** Offset of the current record in the buffer. */
+	protected int at = -RECORD;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 * @param path Journal file.
+	 * @param map  Whether to memory-map the journal (up to 2GB) for random access,
+	 *             else stream it.
+	 * @throws IOException If the file cannot be read or is not a journal.
+	 */
+	public JournalReader(final File path, final boolean map) throws IOException
+	{
+		channel = FileChannel.open(path.toPath(), StandardOpenOption.READ);
+
+		final ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining() && channel.read(header, header.position()) > 0)
+			continue;
+		if (header.position() < HEADER || header.getLong(0) != MAGIC || header.getInt(8) != RECORD)
+		{
+			channel.close();
+			throw new IOException(path + " is not a valid evaluation journal.");
+		}
+
+		numRecords = (channel.size() - HEADER) / RECORD;  // any torn record is ignored
+		mapped = map;
+		if (map)
+		{
+			if (numRecords * RECORD > Integer.MAX_VALUE)
+			{
+				channel.close();
+				throw new IOException(path + " is too large to map; stream it instead.");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER, numRecords * RECORD);
+		}
+		else
+		{
+			buffer = ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD);
+			buffer.limit(0);
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Number of complete records in the journal.
+	 */
+	public long size()
+	{
+		return numRecords;
+	}
+
+	/**
+	 * @return Index of the current record.
+	 */
+	public long index()
+	{
+		return index;
+	}
+
+	/**
+	 * Moves to the next record.
+	 * @return Whether there is one.
+	 * @throws IOException If the journal cannot be read.
+	 */
+	public boolean next() throws IOException
+	{
+		if (index + 1 >= numRecords)
+			return false;
+		index++;
+		at += RECORD;
+		if (!mapped && at >= buffer.limit())
+			fill();
+		return true;
+	}
+
+	/**
+	 * Moves to the specified record. Only if mapped.
+	 * @param record Record index.
+	 */
+	public void seek(final long record)
+	{
+		if (!mapped)
+			throw new UnsupportedOperationException("Journal is streamed, not mapped.");
+		if (record < 0 || record >= numRecords)
+			throw new IndexOutOfBoundsException("Record " + record + " of " + numRecords + ".");
+		index = record;
+		at = (int)(record * RECORD);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Genotype of the current record.
+	 */
+	public long genotype()
+	{
+		return buffer.getLong(at + R_GENOTYPE);
+	}
+
+	/**
+	 * @return Typicality of the current record.
+	 */
+	public double typicality()
+	{
+		return buffer.getDouble(at + R_TYPICALITY);
+	}
+
+	/**
+	 * @return Quality of the current record.
+	 */
+	public double quality()
+	{
+		return buffer.getDouble(at + R_QUALITY);
+	}
+
+	/**
+	 * @return Measurement time of the current record in ns, or 0 if cached.
+	 */
+	public long measureTime()
+	{
+		return buffer.getLong(at + R_TIME);
+	}
+
+	/**
+	 * @return Generation of the current record.
+	 */
+	public int generation()
+	{
+		return buffer.getInt(at + R_GENERATION);
+	}
+
+	/**
+	 * @return Name of the search that made the current record.
+	 */
+	public String search()
+	{
+		final byte[] name = new byte[NAME_BYTES];
+		int length = 0;
+		while (length < NAME_BYTES && (name[length] = buffer.get(at + R_SEARCH + length)) != 0)
+			length++;
+		return new String(name, 0, length, StandardCharsets.UTF_8);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Reads the chunk of records starting at the current one.
+	 */
+	protected void fill() throws IOException
+	{
+		buffer.clear();
+		final long end = Math.min(numRecords, index + CHUNK_RECORDS) * RECORD;
+		buffer.limit((int)(end - index * RECORD));
+		long position = HEADER + index * RECORD;
+		while (buffer.hasRemaining())
+		{
+			final int read = channel.read(buffer, position);
+			if (read < 0)
+				throw new IOException("Journal ended early.");
+			position += read;
+		}
+		buffer.flip();
+		at = 0;
+	}
+
+	/**
+	 * Closes the journal.
+	 */
+	public void close()
+	{
+		try
+		{
+			channel.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+}
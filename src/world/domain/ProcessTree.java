@@ -0,0 +1,161 @@
+package world.domain;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Kills a process together with all the processes it started, so that a
+ * child left behind (e.g. by a script) doesn't keep running, or keep the
+ * parent's output open.
+ *
+ * Descendants are found with ps and killed with kill, so only on Unix-like
+ * systems; elsewhere only the process itself is destroyed.
+ */
+public class ProcessTree
+{
+	private ProcessTree()
+	{
+		// Not instantiated
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Kills the process and its descendants.
+	 * @param process Process to kill.
+	 */
+	public static void kill(final Process process)
+	{
+		final long pid = pid(process);
+		if (pid > 0)
+		{
+			// Find the whole tree before any of it dies and is reparented
+			final List<String> command = new ArrayList<String>();
+			command.add("kill");
+			command.add("-KILL");
+			for (final Long descendant : descendants(pid))
+				command.add(descendant.toString());
+			if (command.size() > 2)
+				run(command);
+		}
+		process.destroy();
+	}
+
+	/**
+	 * @param process Process.
+	 * @return Its process id, or -1 if unknown.
+	 */
+	public static long pid(final Process process)
+	{
+		try
+		{
+			// Java 9 on
+			return ((Number)Process.class.getMethod("pid").invoke(process)).longValue();
+		}
+		catch (ReflectiveOperationException | RuntimeException e)
+		{
+			// Java 8 on Unix: private field of the implementation
+			try
+			{
+				final Field field = process.getClass().getDeclaredField("pid");
+				field.setAccessible(true);
+				return field.getInt(process);
+			}
+			catch (ReflectiveOperationException | RuntimeException e2)
+			{
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * @param pid Process id.
+	 * @return Ids of the process's descendants, children first.
+	 */
+	public static List<Long> descendants(final long pid)
+	{
+		final Map<Long, List<Long>> children = new HashMap<Long, List<Long>>();
+		try
+		{
+			final Process ps = new ProcessBuilder("ps", "-A", "-o", "pid=", "-o", "ppid=").redirectErrorStream(true).start();
+			final BufferedReader in = new BufferedReader(new InputStreamReader(ps.getInputStream(), "US-ASCII"));
+			try
+			{
+				String line;
+				while ((line = in.readLine()) != null)
+				{
+					final String[] words = line.trim().split("\\s+");
+					if (words.length != 2)
+						continue;
+					try
+					{
+						final Long parent = Long.valueOf(words[1]);
+						List<Long> list = children.get(parent);
+						if (list == null)
+							children.put(parent, list = new ArrayList<Long>());
+						list.add(Long.valueOf(words[0]));
+					}
+					catch (NumberFormatException e)
+					{
+						// Not a process line
+					}
+				}
+			}
+			finally
+			{
+				in.close();
+			}
+			ps.waitFor();
+		}
+		catch (IOException e)
+		{
+			// No ps: no descendants found
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		final List<Long> descendants = new ArrayList<Long>();
+		final List<Long> list = children.get(Long.valueOf(pid));
+		if (list != null)
+			descendants.addAll(list);
+		for (int n = 0; n < descendants.size(); n++)
+		{
+			final List<Long> grandchildren = children.get(descendants.get(n));
+			if (grandchildren != null)
+				descendants.addAll(grandchildren);
+		}
+		return descendants;
+	}
+
+	/**
+	 * Runs a command to completion, ignoring its output.
+	 */
+	protected static void run(final List<String> command)
+	{
+		try
+		{
+			final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+			process.getInputStream().close();
+			process.waitFor();
+		}
+		catch (IOException e)
+		{
+			// Nothing more to be done
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+package world.domain.jenn;
+
+import world.domain.Domain;
+import world.domain.Enumerator;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Walks the canonical genotypes of a grammar, i.e. each distinct phenotype
+ * exactly once, in increasing (unsigned) order.
+ *
+ * The walk is a depth-first search of the derivation tree, codon by codon:
+ * each codon used is only given the values its rule has choices for, codons
+ * not used stay zero, and a branch is dropped as soon as the codons left are
+ * too few to complete it. The next genotype is found from the current one
+ * alone, like an odometer, by advancing the last codon used that has choices
+ * left and clearing those after it, so the walk resumes from any genotype.
+ * The first phenotype, all of whose codons are zero, is given as another 
+ * genotype standing for it, as individuals don't take 0.
+ */
+public class GEEnumerator extends Enumerator {
+
+	/** Number of codon values available for a choice. */
+	private static final int NUM_VALUES = 1 << GEMapper.CODON_BITS;
+
+	private final GEMapper mapper;
+
+	/** Number of choices each codon used by the current genotype selects between. */
+	private final int[] moduli = new int[GEMapper.NUM_CODONS];
+
+	/** Result of deriving the current genotype: codons used, or -1 less that if not mapped. */
+	private int derived;
+
+	/**
+	 * Constructor.
+	 * @param domain Domain walked.
+	 * @param mapper Mapper of the domain's grammar.
+	 */
+	public GEEnumerator(final Domain domain, final GEMapper mapper) {
+		super(domain);
+		this.mapper = mapper;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Current genotype, or if that is 0 (see Individual.repair()), 
+	 *         another standing for it if there is one.
+	 */
+	@Override
+	public long genotype() {
+		if (genotype != 0)
+			return genotype;
+		if (derived < GEMapper.NUM_CODONS)
+			return 1;  // last codon not used
+		for (int c = 0; c < GEMapper.NUM_CODONS; c++)
+			if (moduli[c] < NUM_VALUES)
+				return (long)moduli[c] << (64 - GEMapper.CODON_BITS * (c + 1));  // same choice
+		return 0;
+	}
+
+	/**
+	 * Moves on to the next genotype that maps.
+	 */
+	@Override
+	public boolean next() {
+		if (done)
+			return false;
+		if (!started) {
+			started = true;
+			genotype = 0;
+			derived = mapper.derive(genotype, moduli);
+			if (derived >= 0)
+				return true;
+		}
+		while (advance()) {
+			derived = mapper.derive(genotype, moduli);
+			if (derived >= 0)
+				return true;
+		}
+		done = true;
+		return false;
+	}
+
+	/**
+	 * Moves on to the next branch of the derivation tree.
+	 * @return Whether there was one.
+	 */
+	private boolean advance() {
+		final int used = (derived >= 0) ? derived : -1 - derived;
+		for (int c = used - 1; c >= 0; c--) {
+			final int value = GEMapper.codon(genotype, c) + 1;
+			if (value < Math.min(moduli[c], NUM_VALUES)) {
+				final int shift = 64 - GEMapper.CODON_BITS * (c + 1);
+				genotype = (genotype & ~(-1L >>> (64 - shift - GEMapper.CODON_BITS))) | ((long)value << shift);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void resume(final long after) {
+		super.resume(mapper.canonical(after));  // e.g. standing for 0
+		derived = mapper.derive(genotype, moduli);
+	}
+
+}
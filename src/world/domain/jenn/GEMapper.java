@@ -0,0 +1,317 @@
+package world.domain.jenn;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Grammatical Evolution mapper, equivalent to GEMap::mapGE() in GEMapJenn
+ * with wrapping disabled.
+ *
+ * A 64-bit genotype is read as 16 four-bit codons, most significant first,
+ * exactly as jenn's main() does before mapping.
+ */
+public class GEMapper {
+
+	/** Number of codons in a genotype. */
+	public static final int NUM_CODONS = 16;
+
+	/** Number of bits per codon. */
+	public static final int CODON_BITS = 4;
+
+	/** Maximum number of mapping iterations (as per GEMap). */
+	public static final int MAX_ITERATIONS = 1000000;
+
+	/** Grammar to map against. */
+	private final Grammar grammar;
+
+	/** Fewest codons each symbol can be completed with, for pruning; made when first needed. */
+	private int[] minCodons;
+
+	/** Codon count standing for a symbol that can't be completed. */
+	private static final int UNREACHABLE = Integer.MAX_VALUE / 4;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 * @param grammar Grammar to map against.
+	 */
+	public GEMapper(final Grammar grammar) {
+		this.grammar = grammar;
+	}
+
+	/**
+	 * @return Grammar used by this mapper.
+	 */
+	public Grammar grammar() {
+		return grammar;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param genotype Genotype.
+	 * @param index Codon index (0..15).
+	 * @return Value of the specified codon (0..15).
+	 */
+	public static int codon(final long genotype, final int index) {
+		return (int)(genotype >>> (64 - CODON_BITS * (index + 1))) & ((1 << CODON_BITS) - 1);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Maps a genotype to its phenotype.
+	 * Safe to call concurrently, as all mapping state is local.
+	 * @param genotype Genotype to map.
+	 * @param phenotype Receives the phenotype string, or null if not required.
+	 * @return Number of codons used (effective size), or -1 if the genotype
+	 *         does not map to a complete phenotype.
+	 */
+	public int map(final long genotype, final StringBuilder phenotype) {
+		return map(genotype, phenotype, null);
+	}
+
+	/**
+	 * Maps a genotype to its phenotype, noting how each codon used is read.
+	 * @param genotype Genotype to map.
+	 * @param phenotype Receives the phenotype string, or null if not required.
+	 * @param moduli Receives the number of choices each codon used selects 
+	 *               between, or null if not required.
+	 * @return Number of codons used (effective size), or -1 if the genotype
+	 *         does not map to a complete phenotype.
+	 */
+	private int map(final long genotype, final StringBuilder phenotype, final int[] moduli) {
+		final int result = map(genotype, phenotype, moduli, null);
+		return (result < 0) ? -1 : result;
+	}
+
+	/**
+	 * Maps a genotype to its phenotype, noting how each codon used is read,
+	 * and optionally giving up as soon as the codons left can't complete it.
+	 * @param genotype Genotype to map.
+	 * @param phenotype Receives the phenotype string, or null if not required.
+	 * @param moduli Receives the number of choices each codon used selects 
+	 *               between, or null if not required.
+	 * @param bound Fewest codons each symbol can be completed with, to give up
+	 *              early by, or null to map to the end.
+	 * @return Number of codons used (effective size), or if the genotype does
+	 *         not map to a complete phenotype, -1 less the number used so far.
+	 */
+	private int map(final long genotype, final StringBuilder phenotype, final int[] moduli, final int[] bound) {
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = grammar.start();
+
+		int effSize = 0;
+		int iterations = MAX_ITERATIONS;
+
+		while (effSize < NUM_CODONS && top > 0 && iterations > 0) {
+			iterations--;
+			final int symbol = stack[--top];
+			final int effSizeAt = effSize;
+
+			switch (grammar.type(symbol)) {
+			case Grammar.T:
+			case Grammar.SP:
+				if (phenotype != null)
+					phenotype.append(grammar.name(symbol));
+				break;
+			case Grammar.QT: {
+				int repeats = grammar.minRepeat(symbol);
+				if (grammar.maxRepeat(symbol) != repeats) {
+					final int range = grammar.maxRepeat(symbol) - repeats + 1;
+					if (moduli != null)
+						moduli[effSize] = range;
+					repeats += codon(genotype, effSize++) % range;
+				}
+				if (top == 0)
+					return -1 - effSize;  // bad quantifier
+				final int repeatSymbol = stack[--top];
+				if (top + repeats > stack.length)
+					stack = grow(stack, top + repeats);
+				for (int r = 0; r < repeats; r++)
+					stack[top++] = repeatSymbol;
+				break;
+			}
+			case Grammar.NT: {
+				final int[][] prods = grammar.productions(symbol);
+				int choice = 0;
+				if (prods.length > 1) {
+					if (moduli != null)
+						moduli[effSize] = prods.length;
+					choice = codon(genotype, effSize++) % prods.length;
+				}
+				final int[] prod = prods[choice];
+
+				// Leading terminals go straight to the phenotype
+				int from = 0;
+				while (from < prod.length && isTerminal(prod[from])) {
+					if (phenotype != null)
+						phenotype.append(grammar.name(prod[from]));
+					from++;
+				}
+				if (top + prod.length - from > stack.length)
+					stack = grow(stack, top + prod.length - from);
+				for (int i = prod.length - 1; i >= from; i--)
+					stack[top++] = prod[i];
+				break;
+			}
+			default:
+				// XO markers are ignored
+			}
+
+			// Empty terminal symbols on top of stack straight onto phenotype
+			while (top > 0) {
+				final int next = stack[top - 1];
+				final int type = grammar.type(next);
+				if (type == Grammar.NT || type == Grammar.QT)
+					break;
+				if (type != Grammar.XO && phenotype != null)
+					phenotype.append(grammar.name(next));
+				top--;
+			}
+			
+			if (bound != null && effSize > effSizeAt && effSize + needed(stack, top, bound) > NUM_CODONS)
+				return -1 - effSize;  // too few codons left to complete
+		}
+		return (top == 0) ? effSize : -1 - effSize;
+	}
+
+	/**
+	 * @return Fewest codons the symbols on the stack can be completed with.
+	 */
+	private int needed(final int[] stack, final int top, final int[] bound) {
+		int needed = 0;
+		for (int i = top - 1; i >= 0; i--) {
+			if (grammar.type(stack[i]) == Grammar.QT) {
+				needed += repeatCodons(stack[i], (i > 0) ? stack[--i] : -1, bound);
+			} else {
+				needed += bound[stack[i]];
+			}
+			if (needed >= UNREACHABLE)
+				return UNREACHABLE;
+		}
+		return needed;
+	}
+
+	/**
+	 * @return Fewest codons a quantifier and the symbol it repeats can be 
+	 *         completed with.
+	 */
+	private int repeatCodons(final int quantifier, final int repeated, final int[] bound) {
+		if (repeated < 0)
+			return UNREACHABLE;  // bad quantifier
+		final int codon = (grammar.maxRepeat(quantifier) != grammar.minRepeat(quantifier)) ? 1 : 0;
+		return Math.min(UNREACHABLE, codon + grammar.minRepeat(quantifier) * bound[repeated]);
+	}
+
+	/**
+	 * @return Fewest codons each symbol can be completed with, UNREACHABLE if 
+	 *         it can't be: found by relaxation, as recursive rules refer back.
+	 */
+	private int[] minCodons() {
+		final int[] bound = new int[grammar.numSymbols()];
+		for (int symbol = 0; symbol < bound.length; symbol++) {
+			final int type = grammar.type(symbol);
+			bound[symbol] = (type == Grammar.NT || type == Grammar.QT) ? UNREACHABLE : 0;
+		}
+		for (boolean changed = true; changed; ) {
+			changed = false;
+			for (int symbol = 0; symbol < bound.length; symbol++) {
+				if (grammar.type(symbol) != Grammar.NT)
+					continue;  // quantifiers are counted with what they repeat
+				final int[][] prods = grammar.productions(symbol);
+				int best = UNREACHABLE;
+				for (final int[] prod : prods) {
+					int codons = (prods.length > 1) ? 1 : 0;
+					for (int i = 0; i < prod.length && codons < UNREACHABLE; i++)
+						codons += (grammar.type(prod[i]) == Grammar.QT) 
+							? repeatCodons(prod[i], (i + 1 < prod.length) ? prod[++i] : -1, bound)
+							: bound[prod[i]];
+					best = Math.min(best, codons);
+				}
+				if (best < bound[symbol]) {
+					bound[symbol] = best;
+					changed = true;
+				}
+			}
+		}
+		return bound;
+	}
+
+	/**
+	 * Follows a genotype's derivation codon by codon, as when mapping, but 
+	 * gives up as soon as the codons left are too few to complete it, so that
+	 * an enumeration can skip every genotype sharing the codons used so far.
+	 * @param genotype Genotype to derive.
+	 * @param moduli Receives the number of choices each codon used selects 
+	 *               between.
+	 * @return Number of codons used if the genotype maps, else -1 less the 
+	 *         number used when it was found not to.
+	 */
+	public int derive(final long genotype, final int[] moduli) {
+		if (minCodons == null)
+			minCodons = minCodons();  // same for every thread
+		return map(genotype, null, moduli, minCodons);
+	}
+
+	/**
+	 * @param genotype Genotype to map.
+	 * @return Phenotype string, or null if the genotype does not map.
+	 */
+	public String phenotype(final long genotype) {
+		final StringBuilder sb = new StringBuilder();
+		return (map(genotype, sb) < 0) ? null : sb.toString();
+	}
+
+	/**
+	 * Reduces a genotype to the one genotype standing for all those with the 
+	 * same phenotype: each codon used is reduced modulo its number of choices
+	 * and the unused codons are cleared.
+	 * @param genotype Genotype.
+	 * @return Canonical genotype, or the genotype itself if it does not map.
+	 */
+	public long canonical(final long genotype) {
+		final int[] moduli = new int[NUM_CODONS];
+		final int effSize = map(genotype, null, moduli);
+		if (effSize < 0)
+			return genotype;
+
+		long result = 0;
+		for (int c = 0; c < effSize; c++)
+			result |= (long)(codon(genotype, c) % moduli[c]) << (64 - CODON_BITS * (c + 1));
+		return result;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Whether the symbol is output directly to the phenotype.
+	 */
+	private boolean isTerminal(final int symbol) {
+		final int type = grammar.type(symbol);
+		return type == Grammar.T || type == Grammar.SP;
+	}
+
+	/**
+	 * @return Copy of the stack with at least the specified capacity.
+	 */
+	private static int[] grow(final int[] stack, final int capacity) {
+		final int[] result = new int[Math.max(capacity, stack.length * 2)];
+		System.arraycopy(stack, 0, result, 0, stack.length);
+		return result;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Splits a phenotype into the arguments that jenn sees after mapping.
+	 * @param phenotype Phenotype string.
+	 * @return Command line arguments (empty words removed).
+	 */
+	public static String[] arguments(final String phenotype) {
+		final String[] words = phenotype.trim().split(" +");
+		return (words.length == 1 && words[0].length() == 0) ? new String[0] : words;
+	}
+
+}
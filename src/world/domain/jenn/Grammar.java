@@ -0,0 +1,483 @@
+package world.domain.jenn;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * BNF grammar for GE mapping, read in the same way as GEMap::readBNFFile()
+ * in GEMapJenn so that Java-side mappings match the native mapper exactly.
+ *
+ * Symbols are compiled to integer ids once loaded, so that mapping does not
+ * need any string lookups.
+ */
+public class Grammar {
+
+	/** Default grammar file name, as used by GEMapJenn. */
+	public static final String DEFAULT_FILE = "grammar.bnf";
+
+	/** Symbol types (as per GEMap.h). */
+	public static final int NT = 0;
+	public static final int T  = 1;
+	public static final int DEF = 2;
+	public static final int OR = 3;
+	public static final int SP = 4;
+	public static final int QT = 5;
+	public static final int XO = 6;
+
+	/** Symbol names, indexed by symbol id. */
+	private String[] names;
+
+	/** Symbol types, indexed by symbol id. */
+	private int[] types;
+
+	/** Productions for each non-terminal symbol, as lists of symbol ids. */
+	private int[][][] prods;
+
+	/** Minimum and maximum repeats for quantifier symbols. */
+	private int[] minRepeat;
+	private int[] maxRepeat;
+
+	/** Start symbol id. */
+	private int start;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor.
+	 * @param text Grammar definition in (e)BNF format.
+	 */
+	public Grammar(final String text) {
+		parse(text);
+	}
+
+	/**
+	 * @param file Grammar file to load.
+	 * @return Grammar read from the specified file.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public static Grammar load(final File file) throws IOException {
+		return new Grammar(FileUtils.readFileToString(file));
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Start symbol id.
+	 */
+	public int start() {
+		return start;
+	}
+
+	/**
+	 * @return Number of symbols.
+	 */
+	public int numSymbols() {
+		return names.length;
+	}
+
+	/**
+	 * @param symbol Symbol id.
+	 * @return Symbol name.
+	 */
+	public String name(final int symbol) {
+		return names[symbol];
+	}
+
+	/**
+	 * @param symbol Symbol id.
+	 * @return Symbol type.
+	 */
+	public int type(final int symbol) {
+		return types[symbol];
+	}
+
+	/**
+	 * @param symbol Non-terminal symbol id.
+	 * @return Productions for this symbol.
+	 */
+	public int[][] productions(final int symbol) {
+		return prods[symbol];
+	}
+
+	/**
+	 * @param symbol Quantifier symbol id.
+	 * @return Minimum number of repeats.
+	 */
+	public int minRepeat(final int symbol) {
+		return minRepeat[symbol];
+	}
+
+	/**
+	 * @param symbol Quantifier symbol id.
+	 * @return Maximum number of repeats.
+	 */
+	public int maxRepeat(final int symbol) {
+		return maxRepeat[symbol];
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Symbol table entry used while reading the grammar.
+	 */
+	private static class Entry {
+		final int id;
+		int type;
+		int minRepeat = 1;
+		int maxRepeat = 1;
+		final List<List<String>> prods = new ArrayList<List<String>>();
+
+		Entry(final int id, final int type) {
+			this.id = id;
+			this.type = type;
+		}
+	}
+
+	/** Symbol table, only used while reading the grammar. */
+	private Map<String, Entry> table;
+
+	/** Symbol names in order of first appearance, only used while reading. */
+	private List<String> order;
+
+	/**
+	 * Adds a symbol to the table, or changes its type if already present.
+	 * @param name Symbol name.
+	 * @param type Symbol type.
+	 * @return Table entry for this symbol.
+	 */
+	private Entry define(final String name, final int type) {
+		Entry entry = table.get(name);
+		if (entry == null) {
+			entry = new Entry(order.size(), type);
+			table.put(name, entry);
+			order.add(name);
+		}
+		entry.type = type;
+		return entry;
+	}
+
+	/**
+	 * @param name Symbol name.
+	 * @return Current type of the named symbol.
+	 */
+	private int typeOf(final String name) {
+		return table.get(name).type;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Splits the grammar text into tokens, as per GEMap::tokenise().
+	 * @param text Grammar text.
+	 * @return List of tokens.
+	 */
+	private List<String> tokenise(final String text) {
+		final List<String> tokens = new ArrayList<String>();
+		final StringBuilder token = new StringBuilder();
+		final List<Integer> repeatValues = new ArrayList<Integer>();
+
+		boolean escaped = false;
+		boolean quoted = false;
+		boolean doublequoted = false;
+		boolean squarebracketed = false;
+		boolean terminal = false;
+
+		for (int i = 0; i < text.length(); i++) {
+			final char ch = text.charAt(i);
+
+			if (escaped) {
+				escaped = false;
+				switch (ch) {
+				case 'n': token.append('\n'); break;
+				case 'r': token.append('\r'); break;
+				case 't': token.append('\t'); break;
+				case 'f': token.append('\f'); break;
+				default:  token.append(ch);
+				}
+				continue;
+			}
+
+			switch (ch) {
+			case '\\':
+				escaped = true;
+				break;
+			case '<':
+				if (terminal && !quoted && !doublequoted) {
+					flush(token, tokens, T);
+					terminal = false;
+				}
+				token.append(ch);
+				break;
+			case '>':
+				token.append(ch);
+				if (!terminal && !quoted && !doublequoted) {
+					final String name = token.toString();
+					tokens.add(name);
+					define(name, name.equals("<GEXOMarker>") ? XO : T);
+					token.setLength(0);
+					terminal = true;
+				}
+				break;
+			case '[':
+				if (!squarebracketed && !quoted && !doublequoted) {
+					flush(token, tokens, T);
+					terminal = true;
+					squarebracketed = true;
+				}
+				token.append(ch);
+				break;
+			case ':':
+				token.append(ch);
+				if (squarebracketed)
+					repeatValues.add(Integer.valueOf(lastRepeatValue(token)));
+				break;
+			case ']':
+				token.append(ch);
+				if (squarebracketed && !quoted && !doublequoted) {
+					repeatValues.add(Integer.valueOf(lastRepeatValue(token)));
+					if (repeatValues.size() > 2
+							|| (repeatValues.size() == 2 && repeatValues.get(0).intValue() > repeatValues.get(1).intValue()))
+						throw new IllegalArgumentException("Error reading quantifier " + token + " from grammar.");
+					final String name = token.toString();
+					tokens.add(name);
+					final Entry entry = define(name, QT);
+					entry.minRepeat = repeatValues.get(0).intValue();
+					entry.maxRepeat = repeatValues.get(repeatValues.size() - 1).intValue();
+					repeatValues.clear();
+					token.setLength(0);
+					terminal = true;
+					squarebracketed = false;
+				}
+				break;
+			case '"':
+				if (!quoted) {
+					doublequoted = !doublequoted;
+					if (flush(token, tokens, T))
+						terminal = true;
+				} else {
+					token.append(ch);
+				}
+				break;
+			case '\'':
+				if (!doublequoted) {
+					quoted = !quoted;
+					if (flush(token, tokens, T))
+						terminal = true;
+				} else {
+					token.append(ch);
+				}
+				break;
+			case '=':
+				if (!quoted && !doublequoted && token.toString().equals("::")) {
+					token.append(ch);
+					flush(token, tokens, DEF);
+					terminal = true;
+				} else {
+					token.append(ch);
+				}
+				break;
+			case ' ':
+			case '\t':
+			case '\r':
+			case '\n':
+				if (!quoted && !doublequoted) {
+					flush(token, tokens, T);
+					terminal = true;
+					// Always default to a single space between symbols
+					if (tokens.isEmpty() || !tokens.get(tokens.size() - 1).equals(" ")) {
+						tokens.add(" ");
+						define(" ", SP);
+					}
+				} else {
+					token.append(ch);
+				}
+				break;
+			case '|':
+				flush(token, tokens, T);
+				tokens.add("|");
+				define("|", OR);
+				terminal = true;
+				break;
+			default:
+				token.append(ch);
+			}
+		}
+		flush(token, tokens, T);
+		return tokens;
+	}
+
+	/**
+	 * Adds the current token (if any) to the token list and symbol table.
+	 * @return Whether a token was added.
+	 */
+	private boolean flush(final StringBuilder token, final List<String> tokens, final int type) {
+		if (token.length() == 0)
+			return false;
+		final String name = token.toString();
+		tokens.add(name);
+		define(name, type);
+		token.setLength(0);
+		return true;
+	}
+
+	/**
+	 * @return Integer value between the last delimiter and the closing
+	 *         character of a quantifier token such as "[2:5]".
+	 */
+	private static int lastRepeatValue(final StringBuilder token) {
+		int from = token.length() - 2;
+		while (from >= 1 && token.charAt(from) != '[' && token.charAt(from) != ':')
+			from--;
+		try {
+			return Integer.parseInt(token.substring(from + 1, token.length() - 1).trim());
+		} catch (NumberFormatException e) {
+			return 0;  // as per atoi()
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Reads the grammar rules, as per GEMap::readBNFString().
+	 * @param text Grammar text.
+	 */
+	private void parse(final String text) {
+		table = new HashMap<String, Entry>();
+		order = new ArrayList<String>();
+
+		final List<String> tokens = tokenise(text);
+		if (tokens.isEmpty())
+			throw new IllegalArgumentException("Empty grammar.");
+
+		final int RULEDEF = 0, SIGNDEF = 1, PRULE = 2;
+		int state = RULEDEF;
+		String currentRule = null;
+		List<String> currentProduction = new ArrayList<String>();
+
+		for (int ti = 0; ti < tokens.size(); ti++) {
+			final String tok = tokens.get(ti);
+			final int type = typeOf(tok);
+
+			switch (state) {
+			case RULEDEF:
+				if (type == SP)
+					break;
+				if (type != NT && type != T)
+					throw new IllegalArgumentException("Syntax error reading grammar at '" + tok + "'.");
+				trimSpaces(currentProduction);
+				if (currentRule != null)
+					addProduction(currentRule, currentProduction);
+				currentRule = tok;
+				currentProduction = new ArrayList<String>();
+				state = SIGNDEF;
+				break;
+			case SIGNDEF:
+				if (type == SP)
+					break;
+				if (type != DEF)
+					throw new IllegalArgumentException("Syntax error reading grammar at '" + tok + "'.");
+				state = PRULE;
+				while (ti < tokens.size() - 1 && typeOf(tokens.get(ti + 1)) == SP)
+					ti++;  // ignore spaces following ::=
+				break;
+			case PRULE:
+				if (type == SP) {
+					if (ti > 0 && typeOf(tokens.get(ti - 1)) != SP)
+						currentProduction.add(tok);
+					break;
+				}
+				if (type == OR) {
+					trimSpaces(currentProduction);
+					addProduction(currentRule, currentProduction);
+					currentProduction = new ArrayList<String>();
+					while (ti < tokens.size() - 1 && typeOf(tokens.get(ti + 1)) == SP)
+						ti++;  // ignore spaces following |
+					break;
+				}
+				if (type == T || type == NT || type == XO) {
+					int lookahead = ti + 1;
+					while (lookahead < tokens.size() && typeOf(tokens.get(lookahead)) == SP)
+						lookahead++;
+					if (lookahead < tokens.size() && typeOf(tokens.get(lookahead)) == DEF) {
+						// Start of a new rule: put back the token
+						ti--;
+						state = RULEDEF;
+						break;
+					}
+					currentProduction.add(tok);
+					break;
+				}
+				if (type == QT && ti + 1 < tokens.size()) {
+					final int next = typeOf(tokens.get(ti + 1));
+					if (next == T || next == NT || next == SP) {
+						currentProduction.add(tok);
+						break;
+					}
+					throw new IllegalArgumentException("Syntax error reading grammar (incorrect quantifier).");
+				}
+				throw new IllegalArgumentException("Syntax error reading grammar at '" + tok + "'.");
+			}
+		}
+		if (currentRule != null) {
+			trimSpaces(currentProduction);
+			addProduction(currentRule, currentProduction);
+		}
+
+		compile(tokens.get(0));
+		table = null;
+		order = null;
+	}
+
+	/**
+	 * Removes trailing spaces from a production.
+	 */
+	private static void trimSpaces(final List<String> production) {
+		while (!production.isEmpty() && production.get(production.size() - 1).equals(" "))
+			production.remove(production.size() - 1);
+	}
+
+	/**
+	 * Adds a production to the specified rule, which becomes a non-terminal.
+	 */
+	private void addProduction(final String rule, final List<String> production) {
+		define(rule, NT).prods.add(production);
+	}
+
+	/**
+	 * Converts the symbol table to id-based arrays.
+	 * @param startName Start symbol.
+	 */
+	private void compile(final String startName) {
+		final int num = order.size();
+		names = new String[num];
+		types = new int[num];
+		prods = new int[num][][];
+		minRepeat = new int[num];
+		maxRepeat = new int[num];
+
+		for (int s = 0; s < num; s++) {
+			final Entry entry = table.get(order.get(s));
+			names[s] = order.get(s);
+			types[s] = entry.type;
+			minRepeat[s] = entry.minRepeat;
+			maxRepeat[s] = entry.maxRepeat;
+			prods[s] = new int[entry.prods.size()][];
+			for (int p = 0; p < entry.prods.size(); p++) {
+				final List<String> production = entry.prods.get(p);
+				prods[s][p] = new int[production.size()];
+				for (int i = 0; i < production.size(); i++)
+					prods[s][p][i] = table.get(production.get(i)).id;
+			}
+		}
+		start = table.get(startName).id;
+	}
+
+}
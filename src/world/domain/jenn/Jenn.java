@@ -2,13 +2,26 @@ package world.domain.jenn;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteWatchdog;
+import org.apache.commons.exec.LogOutputStream;
+import org.apache.commons.exec.PumpStreamHandler;
+import org.apache.commons.exec.Watchdog;
 import org.apache.commons.io.FileUtils;
 
+import world.Metrics;
 import world.domain.Domain;
 import world.domain.Individual;
+import world.domain.ProcessTree;
 
 //-----------------------------------------------------------------------------
 
@@ -16,12 +29,39 @@ public class Jenn extends Individual {
 	
 	public static final String JENN_DIR = File.separator + "GEMapJenn";
 
+	/** Time spent in each phase of measuring with jenn. */
+	private static final Metrics.Timer SPAWN = Metrics.timer("jenn.spawn");
+	private static final Metrics.Timer WAIT = Metrics.timer("jenn.wait");
+	private static final Metrics.Timer READ = Metrics.timer("jenn.read");
+	private static final Metrics.Timer PARSE = Metrics.timer("jenn.parse");
+	private static final Metrics.Timer DELETE = Metrics.timer("jenn.delete");
+	private static final Metrics.Timer WORKER = Metrics.timer("jenn.worker");
+	private static final Metrics.Counter FAILURES = Metrics.counter("jenn.failures");
+	private static final Metrics.Counter TIMEOUTS = Metrics.counter("jenn.timeouts");
+	private static final Metrics.Timer RENDER = Metrics.timer("jenn.render");
+	private static final Metrics.Counter FILE_RESULTS = Metrics.counter("jenn.fileResults");
+
+	/** Environment asking jenn for its result on stdout rather than in fitness.txt. */
+	private static final Map<String, String> RESULT_ENVIRONMENT = resultEnvironment();
+
 	private double cachedFitness = 0;
 	
 	private DefaultExecutor executor ;
 	
 	private String workingDir;
 	
+	/** Time jenn was last started (ns). */
+	private long launchedAt;
+	
+	/** Watchdog of the jenn process running, if any. */
+	private volatile TreeWatchdog watchdog;
+	
+	/** Resident worker measuring, if any. */
+	private volatile JennWorker activeWorker;
+	
+	/** Phenotype derived by the in-process mapper, or null if not mapped. */
+	private String phenotype;
+	
 	/**
 	 * Constructor.
 	 * @param domain Domain associated with this individual.
@@ -29,7 +69,17 @@ public class Jenn extends Individual {
 	 */
 	public Jenn(final Domain domain, final long genotype) {
 		super(domain, genotype);
-		executor = new DefaultExecutor();
+		executor = new DefaultExecutor() {
+			@Override
+			@SuppressWarnings("rawtypes")
+			protected Process launch(final CommandLine command, final Map env, final File dir) throws IOException {
+				final Process process = super.launch(command, env, dir);
+				launchedAt = System.nanoTime();
+				if (cancelled)
+					ProcessTree.kill(process);  // cancelled while starting
+				return process;
+			}
+		};
 		workingDir = executor.getWorkingDirectory().getAbsolutePath() + JENN_DIR;
 	}		
 
@@ -54,33 +104,295 @@ public class Jenn extends Individual {
 
 	/**
 	 * Quality is interactively assigned. This method makes a system call to 
-	 * Jenn and waits for fitness to be assigned.
+	 * Jenn and waits for fitness to be assigned. If a deadline is set and 
+	 * passes first, jenn is killed and the timeout score given instead.
+	 * No image is saved unless rendering eagerly; see JennDomain.render().
+	 * The result is read from jenn's output, or from fitness.txt if this jenn
+	 * doesn't report it there.
 	 */
 	@Override
 	public void measureQuality() {
+		final JennDomain jennDomain = (JennDomain)domain;
+		final String image = (jennDomain.render() == JennDomain.Render.EAGER) ? "yes" : "no";
+		
+		// Use a resident worker if there is one, rather than starting jenn
+		final JennWorker worker = jennDomain.worker(workingDir);
+		if (worker != null) {
+			final long startAt = System.nanoTime();
+			activeWorker = worker;
+			try {
+				if (cancelled)
+					throw new IOException("Cancelled.");
+				quality = worker.measure(genotype, image, jennDomain.measureSize(), jennDomain.deadline());
+			} catch (TimeoutException e) {
+				worker.kill();  // stuck: restarted for the next measurement
+				timedOut(jennDomain);
+			} catch (IOException ioe) {
+				quality = 0;
+				if (!cancelled)
+					failed();
+			}
+			activeWorker = null;
+			WORKER.record(System.nanoTime() - startAt);
+			cachedFitness = quality;
+			return;
+		}
 		
 		String command = workingDir + File.separator + "jenn";
 		CommandLine commandLine = CommandLine.parse(command);
 		commandLine.addArgument(new Long(genotype).toString());
-		commandLine.addArgument("yes");
+		commandLine.addArgument(image);
+		if (jennDomain.measureSize() != null)
+			commandLine.addArgument(jennDomain.measureSize());
 		executor.setWorkingDirectory(new File(workingDir));
+		final ResultStream results = new ResultStream();
+		executor.setStreamHandler(new PumpStreamHandler(results, System.err));
+		final TreeWatchdog dog = new TreeWatchdog((jennDomain.deadline() > 0) ? jennDomain.deadline() : ExecuteWatchdog.INFINITE_TIMEOUT);
+		executor.setWatchdog(dog);
+		watchdog = dog;
+		long at = System.nanoTime();
+		launchedAt = 0;
 		try {
-			int exitValue = executor.execute(commandLine);
+			if (cancelled)
+				throw new IOException("Cancelled.");
+			int exitValue = executor.execute(commandLine, RESULT_ENVIRONMENT);
+			final long exitedAt = System.nanoTime();
+			SPAWN.record(launchedAt - at);
+			WAIT.record(exitedAt - launchedAt);
+			results.close();
 			
-			File fitnessFile = new File(workingDir + File.separator + "fitness.txt");
-			String ftnsStr = FileUtils.readFileToString(fitnessFile).trim();
-			quality = Double.parseDouble(ftnsStr);
-		
-			// delete the fitness file
-			FileUtils.deleteQuietly(fitnessFile);
+			if (results.found()) {
+				quality = results.fitness();
+				if (phenotype == null && results.valid())
+					phenotype = results.phenotype();  // mapped by jenn
+				PARSE.record(System.nanoTime() - exitedAt);
+			} else {
+				// Older jenn: result left in fitness.txt
+				FILE_RESULTS.increment();
+				File fitnessFile = new File(workingDir + File.separator + "fitness.txt");
+				String ftnsStr = FileUtils.readFileToString(fitnessFile).trim();
+				READ.record(System.nanoTime() - exitedAt);
+				at = System.nanoTime();
+				quality = Double.parseDouble(ftnsStr);
+				PARSE.record(System.nanoTime() - at);
+			
+				// delete the fitness file
+				at = System.nanoTime();
+				FileUtils.deleteQuietly(fitnessFile);
+				DELETE.record(System.nanoTime() - at);
+			}
 			
-		} catch (IOException ioe) {
+		} catch (IOException | NumberFormatException e) {
 			quality = 0;
+			if (dog.killed() && !cancelled)
+				timedOut(jennDomain);
+			else if (!cancelled)
+				failed();
 		} 
+		watchdog = null;
 	
 		// save last value
 		cachedFitness = quality;
 	}
+	
+	/**
+	 * Notes a measurement that failed, e.g. jenn missing, crashed or its
+	 * result unreadable: it scores 0, but isn't cached.
+	 */
+	private void failed() {
+		failed = true;
+		FAILURES.increment();
+	}
+	
+	/**
+	 * Scores a measurement that passed the deadline.
+	 */
+	private void timedOut(final JennDomain jennDomain) {
+		quality = jennDomain.timeoutScore();
+		failed = true;  // may well finish in time under less load
+		TIMEOUTS.increment();
+		System.err.println(String.format("jenn passed the %dms deadline on 0x%x, and was stopped.", 
+				Long.valueOf(jennDomain.deadline()), Long.valueOf(genotype)));
+	}
+	
+	/**
+	 * Stops jenn if it is running for this individual.
+	 */
+	@Override
+	public void cancel() {
+		super.cancel();
+		final TreeWatchdog dog = watchdog;
+		if (dog != null)
+			dog.destroyProcess();
+		final JennWorker worker = activeWorker;
+		if (worker != null)
+			worker.kill();
+	}
+
+	/**
+	 * @return This process's environment, with jenn asked to report its 
+	 *         result on stdout.
+	 */
+	private static Map<String, String> resultEnvironment() {
+		final Map<String, String> env = new HashMap<String, String>(System.getenv());
+		env.put("JENN_RESULT", "stdout");
+		return env;
+	}
+
+	/**
+	 * jenn's output, passed through, less the result lines 
+	 * "#result <fitness> <valid> <image|-> <phenotype>", of which the last
+	 * is kept: jenn reports 0.5 first, to stand if it crashes.
+	 */
+	private static class ResultStream extends LogOutputStream {
+		private static final String TAG = "#result ";
+
+		private boolean found;
+		private double fitness;
+		private boolean valid;
+		private String phenotype;
+
+		@Override
+		protected void processLine(final String line, final int level) {
+			if (!line.startsWith(TAG)) {
+				System.out.println(line);
+				return;
+			}
+			final String[] words = line.substring(TAG.length()).trim().split("\\s+", 4);
+			try {
+				fitness = Double.parseDouble(words[0]);
+			} catch (NumberFormatException e) {
+				System.out.println(line);  // not a result after all
+				return;
+			}
+			found = true;
+			valid = words.length > 1 && words[1].equals("1");
+			phenotype = (words.length > 3) ? words[3].trim() : null;
+		}
+
+		/**
+		 * @return Whether jenn reported a result.
+		 */
+		boolean found() {
+			return found;
+		}
+
+		double fitness() {
+			return fitness;
+		}
+
+		/**
+		 * @return Whether the genotype maps.
+		 */
+		boolean valid() {
+			return valid;
+		}
+
+		/**
+		 * @return Phenotype jenn derived, or null if not reported.
+		 */
+		String phenotype() {
+			return phenotype;
+		}
+	}
+
+	/**
+	 * Watchdog that kills jenn together with any processes it started, when 
+	 * the deadline passes or the measurement is cancelled, so that none is 
+	 * left running or holding jenn's output open.
+	 */
+	private static class TreeWatchdog extends ExecuteWatchdog {
+		private Process process;
+		private boolean killed;
+
+		TreeWatchdog(final long timeout) {
+			super(timeout);
+		}
+
+		@Override
+		public synchronized void start(final Process process) {
+			this.process = process;
+			super.start(process);
+		}
+
+		@Override
+		public synchronized void stop() {
+			process = null;
+			super.stop();
+		}
+
+		@Override
+		public synchronized void timeoutOccured(final Watchdog w) {
+			if (process != null) {
+				try {
+					process.exitValue();
+				} catch (IllegalThreadStateException e) {
+					// Still running
+					killed = true;
+					ProcessTree.kill(process);
+				}
+			}
+			super.timeoutOccured(w);
+		}
+
+		/**
+		 * @return Whether jenn was killed.
+		 */
+		synchronized boolean killed() {
+			return killed;
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Image file name jenn saves the phenotype as.
+	 */
+	private String imageName() {
+		return String.format("0x%x.png", Long.valueOf(genotype));
+	}
+
+	/**
+	 * @return Whether an image of the phenotype was saved while measuring.
+	 */
+	public boolean hasImage() {
+		return new File(workingDir, imageName()).exists() || ((JennDomain)domain).locate(imageName()).exists();
+	}
+
+	/**
+	 * Has jenn save an image of the phenotype and quit, for export.
+	 * @param dir Working directory to render in, holding jenn.
+	 * @param size Window size, e.g. "1024x768", or null for jenn's own.
+	 * @return Whether the image was saved.
+	 */
+	public boolean render(final File dir, final String size) {
+		final JennDomain jennDomain = (JennDomain)domain;
+		final CommandLine commandLine = CommandLine.parse(dir.getPath() + File.separator + "jenn");
+		commandLine.addArgument(Long.toString(genotype));
+		commandLine.addArgument("dump");
+		if (size != null)
+			commandLine.addArgument(size);
+		executor.setWorkingDirectory(dir);
+		executor.setStreamHandler(new PumpStreamHandler(new ResultStream(), System.err));  // result not needed
+		executor.setWatchdog(new TreeWatchdog((jennDomain.deadline() > 0) ? jennDomain.deadline() : ExecuteWatchdog.INFINITE_TIMEOUT));
+		executor.setExitValues(null);  // only the image matters
+		
+		final long startAt = System.nanoTime();
+		try {
+			executor.execute(commandLine, RESULT_ENVIRONMENT);
+		} catch (IOException e) {
+			// Checked below
+		}
+		RENDER.record(System.nanoTime() - startAt);
+		FileUtils.deleteQuietly(new File(dir, "fitness.txt"));
+		
+		workingDir = dir.getPath();
+		if (!new File(dir, imageName()).exists()) {
+			System.err.println(String.format("jenn did not render 0x%x.", Long.valueOf(genotype)));
+			return false;
+		}
+		return true;
+	}
 
 	/**
 	 * Converts the genotype to a Jenn-friendly input
@@ -101,24 +413,90 @@ public class Jenn extends Individual {
 	/**
 	 * Export phenotype to file.
 	 * Files are automatically saved by GEMapJenn to the working directory as 
-	 * <genotype>.png where (where genotype is in hex format)
+	 * <genotype>.png where (where genotype is in hex format). The export is
+	 * a hard link to that file where possible, else a copy. Images rendered
+	 * for export are then removed from the render directory.
+	 * @return File exported to, or "" if the image could not be exported.
 	 */
 	@Override
 	public String export(final String path) {
-		String pngFile = String.format("0x%x.png", Long.valueOf(genotype));
-		String srcFile = workingDir + File.separator + pngFile;
+		String pngFile = imageName();
+		File srcFile = new File(workingDir, pngFile);
+		if (!srcFile.exists())
+			srcFile = ((JennDomain)domain).locate(pngFile);  // e.g. rendered in another slot
 		final String fileName = path + "/" + pngFile;
 		
+		final Path target = Paths.get(fileName);
 		try {
-			FileUtils.copyFile(new File(srcFile), new File(fileName));
+			Files.deleteIfExists(target);
+			try {
+				Files.createLink(target, srcFile.toPath());
+			} catch (IOException | UnsupportedOperationException e) {
+				// e.g. on another file system
+				Files.copy(srcFile.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+			}
 		} catch (IOException e) {
-			System.err.println("Unable to save file");
+			System.err.println("Unable to save file " + fileName + ": " + e.getMessage());
+			return "";
 		}
+		if (srcFile.getParentFile().getAbsoluteFile().equals(((JennDomain)domain).renderDir()))
+			FileUtils.deleteQuietly(srcFile);  // the export holds it now
 		return fileName;
 	}
 
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Phenotype string this genotype maps to, or null if it does not
+	 *         map (or has not been measured yet).
+	 */
+	public String phenotype() {
+		return phenotype;
+	}
+
+	/**
+	 * @return Arguments jenn derives from the phenotype, or null if the
+	 *         genotype does not map (or has not been measured yet).
+	 */
+	public String[] commandLine() {
+		return (phenotype == null) ? null : GEMapper.arguments(phenotype);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Runs jenn in the slot's own working directory, so that concurrent 
+	 * measurements don't share fitness.txt. Exported images are then taken 
+	 * from that directory too.
+	 */
+	@Override
+	public void measure(final int slot) {
+		if (slot >= 0)
+			workingDir = ((JennDomain)domain).slotDir(slot).getPath();
+		measure();
+	}
+
 	//-------------------------------------------------------------------------
 	public void measure() {
+		if (cancelled) {
+			quality = 0;
+			cachedFitness = 0;
+			measureTypicality();
+			return;
+		}
+		
+		// Genotypes that don't map would only make jenn report 0.0, so don't run it
+		final GEMapper mapper = ((JennDomain)domain).mapper();
+		if (mapper != null) {
+			phenotype = mapper.phenotype(genotype);
+			if (phenotype == null) {
+				quality = 0;
+				cachedFitness = 0;
+				measureTypicality();
+				return;
+			}
+		}
+		
 		// changing the standard order for this subclass since typicality is derived from the quality
 		measureQuality();
 		measureTypicality();
@@ -1,9 +1,58 @@
 package world.domain.jenn;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
 import world.domain.Domain;
+import world.domain.Enumerator;
 import world.domain.Individual;
 
 public class JennDomain extends Domain {
+	
+	/** Directory holding the per-slot copies of jenn, within JENN_DIR. */
+	public static final String SLOTS_DIR = "slots";
+	
+	/** Directory images are rendered in for export, within SLOTS_DIR. */
+	public static final String RENDER_DIR = "render";
+	
+	/**
+	 * When images are rendered: EAGER while measuring each individual (and 
+	 * again for export if at a different size), LAZY only for those exported.
+	 */
+	public enum Render { EAGER, LAZY }
+	
+	/** Files each slot needs its own copy of. */
+	private static final String[] SLOT_FILES = { "jenn", Grammar.DEFAULT_FILE };
+	
+	/** In-process GE mapper, or null if the grammar could not be loaded. */
+	private GEMapper mapper;
+	
+	/** Resident worker command (e.g. "jenn --worker"), or null to run jenn once per individual. */
+	private final String workerCommand = System.getProperty("worker");
+	
+	/** Resident workers, by working directory. */
+	private final Map<String, JennWorker> workers = new HashMap<String, JennWorker>();
+	
+	/** Longest jenn may take over a measurement (ms), or 0 for no limit, e.g. -Ddeadline=60 (seconds). */
+	private final long deadline = 1000L * Integer.getInteger("deadline", 0).intValue();
+	
+	/** Quality given to measurements that pass the deadline: 0.5 counts as a crash, 0 as not mapping. */
+	private final double timeoutScore = Double.parseDouble(System.getProperty("timeoutScore", "0.5"));
+	
+	/** When images are rendered, e.g. -Drender=eager. */
+	private final Render render = Render.valueOf(System.getProperty("render", "lazy").toUpperCase());
+	
+	/** jenn's window size while measuring, e.g. -DmeasureSize=160x120 for thumbnails, or null for its own. */
+	private final String measureSize = size("measureSize");
+	
+	/** jenn's window size when rendering for export, e.g. -DexportSize=1024x768, or null for its own. */
+	private final String exportSize = size("exportSize");
 			
 	/**
 	 * Default constructor.
@@ -22,6 +71,278 @@ public class JennDomain extends Domain {
 		return indiv;
 	}
 	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Genotypes mapping to the same phenotype render the same, so stand for
+	 * each other.
+	 */
+	@Override
+	public long canonical(final long genotype) {
+		return (mapper == null) ? genotype : mapper.canonical(genotype);
+	}
+
+	/**
+	 * Scores genotypes that don't map without creating individuals or running
+	 * jenn, and measures repeats of a phenotype within the batch only once; 
+	 * the rest are measured as a batch as usual.
+	 */
+	@Override
+	public void evaluate(final long[] genotypes, final double[] typicality, final double[] quality, final long[] times, final int num) {
+		if (mapper == null) {
+			super.evaluate(genotypes, typicality, quality, times, num);
+			return;
+		}
+		
+		// Index in the batch of the first occurrence of each phenotype to measure
+		final Map<Long, Integer> first = new HashMap<Long, Integer>();
+		final int[] source = new int[num];
+		final boolean[] repeat = new boolean[num];  // same genotype as its source
+		for (int n = 0; n < num; n++) {
+			source[n] = n;
+			if (times != null)
+				times[n] = 0;  // unless measured below
+			if ((genotypes[n] & bitsMask()) != 0 && mapper.map(genotypes[n], null) < 0) {
+				typicality[n] = 0;  // won't map, as per Jenn.measure()
+				quality[n] = 0;
+				source[n] = -1;
+				continue;
+			}
+			final Long key = Long.valueOf(mapper.canonical(genotypes[n]));
+			final Integer prev = first.get(key);
+			if (prev == null) {
+				first.put(key, Integer.valueOf(n));
+			} else {
+				source[n] = prev.intValue();
+				repeat[n] = (genotypes[n] == genotypes[source[n]]);
+			}
+		}
+		if (first.isEmpty())
+			return;
+		
+		final int numTodo = first.size();
+		final long[] todo = new long[numTodo];
+		final int[] at = new int[numTodo];
+		for (int n = 0, t = 0; n < num; n++)
+			if (source[n] == n) {
+				todo[t] = genotypes[n];
+				at[t++] = n;
+			}
+		final double[] todoTypicality = new double[numTodo];
+		final double[] todoQuality = new double[numTodo];
+		final long[] todoTimes = (times == null) ? null : new long[numTodo];
+		super.evaluate(todo, todoTypicality, todoQuality, todoTimes, numTodo);
+		
+		for (int t = 0; t < numTodo; t++) {
+			genotypes[at[t]] = todo[t];  // repaired
+			typicality[at[t]] = todoTypicality[t];
+			quality[at[t]] = todoQuality[t];
+			if (times != null)
+				times[at[t]] = todoTimes[t];
+		}
+		for (int n = 0; n < num; n++)
+			if (source[n] >= 0 && source[n] != n) {
+				if (repeat[n])
+					genotypes[n] = genotypes[source[n]];  // repaired the same
+				typicality[n] = typicality[source[n]];
+				quality[n] = quality[source[n]];
+			}
+	}
+	
+	/**
+	 * Walks the distinct phenotypes through the grammar's derivation tree, 
+	 * rather than every genotype, if the grammar was loaded.
+	 */
+	@Override
+	public Enumerator enumerator() {
+		return (mapper == null) ? super.enumerator() : new GEEnumerator(this, mapper);
+	}
+	
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return In-process GE mapper, or null if unavailable (in which case
+	 *         jenn does the mapping itself).
+	 */
+	public GEMapper mapper() {
+		return mapper;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param slot Evaluation slot.
+	 * @return Working directory for jenn runs in this slot.
+	 */
+	public File slotDir(final int slot) {
+		return new File(new File("." + Jenn.JENN_DIR, SLOTS_DIR), "slot" + slot).getAbsoluteFile();
+	}
+	
+	/**
+	 * Gives the slot its own working directory with a copy of jenn and its 
+	 * grammar, so that concurrent runs don't share fitness.txt.
+	 */
+	@Override
+	public void prepareSlot(final int slot) throws IOException {
+		final File dir = slotDir(slot);
+		for (final String name : SLOT_FILES)
+			copyToSlot(name, dir);
+		if (workerCommand != null && new File("." + Jenn.JENN_DIR, workerProgram()).exists())
+			copyToSlot(workerProgram(), dir);  // e.g. a stand-in script
+		FileUtils.deleteQuietly(new File(dir, "fitness.txt"));  // left over from an interrupted run
+	}
+	
+	/**
+	 * @param name File written by jenn, e.g. an image.
+	 * @return The file in JENN_DIR or whichever slot directory holds it, 
+	 *         else the (missing) file in JENN_DIR.
+	 */
+	public File locate(final String name) {
+		final File file = new File("." + Jenn.JENN_DIR, name).getAbsoluteFile();
+		if (file.exists())
+			return file;
+		final File[] dirs = new File("." + Jenn.JENN_DIR, SLOTS_DIR).listFiles();
+		if (dirs != null)
+			for (final File dir : dirs)
+				if (new File(dir, name).exists())
+					return new File(dir, name).getAbsoluteFile();
+		return file;
+	}
+	
+	/**
+	 * @return Working directory for rendering images for export.
+	 */
+	public File renderDir() {
+		return new File(new File("." + Jenn.JENN_DIR, SLOTS_DIR), RENDER_DIR).getAbsoluteFile();
+	}
+	
+	/**
+	 * Renders images for export, in a directory of their own: of all the 
+	 * individuals if rendered lazily, else of those whose image was not kept 
+	 * at the export size while measuring. Rendered one at a time, so as not 
+	 * to compete with measurements running.
+	 */
+	@Override
+	public void render(final List<Individual> indivs) {
+		final List<Jenn> todo = new ArrayList<Jenn>();
+		for (final Individual indiv : indivs)
+			if (render == Render.LAZY || measureSize != null || !((Jenn)indiv).hasImage())
+				todo.add((Jenn)indiv);
+		if (todo.isEmpty())
+			return;
+		
+		final File dir = renderDir();
+		try {
+			for (final String name : SLOT_FILES)
+				copyToSlot(name, dir);
+		} catch (IOException e) {
+			System.err.println("Unable to prepare " + dir + " for rendering: " + e.getMessage());
+			return;
+		}
+		for (final Jenn indiv : todo)
+			indiv.render(dir, exportSize);
+	}
+	
+	/**
+	 * Copies a file from JENN_DIR to a slot directory, unless already up to date.
+	 */
+	private static void copyToSlot(final String name, final File dir) throws IOException {
+		final File src = new File("." + Jenn.JENN_DIR, name);
+		final File dest = new File(dir, name);
+		if (dest.exists() && dest.lastModified() == src.lastModified())
+			return;
+		FileUtils.copyFile(src, dest);
+		if (src.canExecute())
+			dest.setExecutable(true);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @return Program name of the resident worker command.
+	 */
+	private String workerProgram() {
+		return workerCommand.trim().split("\\s+")[0];
+	}
+	
+	/**
+	 * @return Longest jenn may take over a measurement (ms), or 0 for no limit.
+	 */
+	public long deadline() {
+		return deadline;
+	}
+	
+	/**
+	 * @return Quality given to measurements that pass the deadline.
+	 */
+	public double timeoutScore() {
+		return timeoutScore;
+	}
+	
+	/**
+	 * @return When images are rendered.
+	 */
+	public Render render() {
+		return render;
+	}
+	
+	/**
+	 * @return jenn's window size while measuring, e.g. "160x120", or null.
+	 */
+	public String measureSize() {
+		return measureSize;
+	}
+	
+	/**
+	 * @return Window size property as "<width>x<height>", or null if not set
+	 *         or invalid.
+	 */
+	private static String size(final String property) {
+		final String value = System.getProperty(property);
+		if (value == null)
+			return null;
+		if (!value.matches("[1-9][0-9]*x[1-9][0-9]*")) {
+			System.err.println("Ignoring " + property + "=" + value + ": expected <width>x<height>, e.g. 320x240.");
+			return null;
+		}
+		return value;
+	}
+	
+	/**
+	 * @param dir Working directory.
+	 * @return Resident worker for this directory, started if necessary, or 
+	 *         null if jenn should be run once per individual.
+	 */
+	public synchronized JennWorker worker(final String dir) {
+		if (workerCommand == null)
+			return null;
+		
+		JennWorker worker = workers.get(dir);
+		if (worker == null || !worker.isAlive()) {
+			try {
+				worker = new JennWorker(new File(dir), workerCommand);
+			} catch (IOException e) {
+				System.err.println("Unable to start jenn worker '" + workerCommand + "' in " + dir + ": " + e.getMessage());
+				return null;
+			}
+			workers.put(dir, worker);
+		}
+		return worker;
+	}
+	
+	/**
+	 * Stops any resident workers, as well as releasing the pool and cache.
+	 */
+	@Override
+	public void close() {
+		super.close();
+		synchronized (this) {
+			for (final JennWorker worker : workers.values())
+				worker.close();
+			workers.clear();
+		}
+	}
+	
 	//-------------------------------------------------------------------------
 
 	/**
@@ -29,6 +350,14 @@ public class JennDomain extends Domain {
 	 */
 	@SuppressWarnings({ "cast", "unchecked" })
 	public void init() {	
+		final File grammarFile = new File("." + Jenn.JENN_DIR, Grammar.DEFAULT_FILE);
+		try {
+			mapper = new GEMapper(Grammar.load(grammarFile));
+		} catch (IOException e) {
+			System.err.println("Unable to read " + grammarFile + ", mapping left to jenn.");
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage() + " Mapping left to jenn.");
+		}
 	}
 	
 	//-------------------------------------------------------------------------
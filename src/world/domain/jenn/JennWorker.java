@@ -0,0 +1,327 @@
+package world.domain.jenn;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import world.domain.ProcessTree;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Client for a resident jenn worker process ("jenn --worker").
+ *
+ * The worker reads requests "<id> <genotype> [yes|dump|no] [WxH]" on its
+ * stdin, one per line, and answers each with "<id> <fitness> <image>" on its stdout,
+ * where image is "-" if none was written. Requests from any number of threads
+ * are multiplexed onto the one process and matched to replies by id, so
+ * process startup and grammar parsing are only paid once.
+ */
+public class JennWorker {
+
+	/**
+	 * Reply to a single request, available once the worker has answered.
+	 */
+	public static class Reply {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private double fitness;
+		private String image;
+		private IOException failure;
+
+		/**
+		 * Waits for the worker's answer.
+		 * @return This reply.
+		 * @throws IOException If the worker failed before answering.
+		 */
+		public Reply await() throws IOException {
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for jenn worker.");
+			}
+			if (failure != null)
+				throw failure;
+			return this;
+		}
+
+		/**
+		 * Waits for the worker's answer, up to the specified time.
+		 * @param timeout Longest time to wait (ms), or 0 for no limit.
+		 * @return This reply.
+		 * @throws IOException If the worker failed before answering.
+		 * @throws TimeoutException If the worker has not answered in time.
+		 */
+		public Reply await(final long timeout) throws IOException, TimeoutException {
+			if (timeout <= 0)
+				return await();
+			try {
+				if (!done.await(timeout, TimeUnit.MILLISECONDS))
+					throw new TimeoutException("jenn worker took over " + timeout + "ms.");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for jenn worker.");
+			}
+			if (failure != null)
+				throw failure;
+			return this;
+		}
+
+		/**
+		 * @return Fitness reported by jenn.
+		 */
+		public double fitness() {
+			return fitness;
+		}
+
+		/**
+		 * @return Image file written by jenn (relative to its working
+		 *         directory), or null if none.
+		 */
+		public String image() {
+			return image;
+		}
+
+		void complete(final double fitness, final String image) {
+			this.fitness = fitness;
+			this.image = image;
+			done.countDown();
+		}
+
+		void fail(final IOException failure) {
+			this.failure = failure;
+			done.countDown();
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	private final Process process;
+
+	private final Writer requests;
+
+	/** Requests sent but not yet answered, by id. */
+	private final Map<Long, Reply> pending = new HashMap<Long, Reply>();
+
+	private long nextId = 0;
+
+	private boolean alive = true;
+
+	/**
+	 * Constructor. Starts the worker process.
+	 * @param dir Working directory of the worker (holding grammar.bnf).
+	 * @param command Worker command, e.g. "jenn --worker". The program is
+	 *        looked up in the working directory first.
+	 * @throws IOException If the worker cannot be started.
+	 */
+	public JennWorker(final File dir, final String command) throws IOException {
+		final List<String> words = new ArrayList<String>(Arrays.asList(command.trim().split("\\s+")));
+		final File program = new File(dir, words.get(0));
+		if (program.exists())
+			words.set(0, program.getAbsolutePath());
+
+		process = new ProcessBuilder(words).directory(dir).start();
+		requests = new OutputStreamWriter(process.getOutputStream(), "US-ASCII");
+
+		final Thread replies = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readReplies();
+			}
+		}, "jenn-worker-replies");
+		replies.setDaemon(true);
+		replies.start();
+
+		final Thread errors = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				forward(process.getErrorStream());
+			}
+		}, "jenn-worker-errors");
+		errors.setDaemon(true);
+		errors.start();
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Whether the worker process is still accepting requests.
+	 */
+	public synchronized boolean isAlive() {
+		return alive;
+	}
+
+	/**
+	 * Sends a request to the worker without waiting for the answer.
+	 * @param genotype Genotype to measure.
+	 * @param dump Whether jenn should save an image of the phenotype.
+	 * @return Reply, to be waited on.
+	 * @throws IOException If the worker is not running.
+	 */
+	public Reply submit(final long genotype, final boolean dump) throws IOException {
+		return submit(genotype, dump ? "yes" : null, null);
+	}
+
+	/**
+	 * Sends a request to the worker without waiting for the answer.
+	 * @param genotype Genotype to measure.
+	 * @param image Image argument for jenn: "yes" to save an image of the 
+	 *        phenotype, "dump" to save it and quit, "no" or null for none.
+	 * @param size Window size, e.g. "320x240", or null for jenn's own.
+	 * @return Reply, to be waited on.
+	 * @throws IOException If the worker is not running.
+	 */
+	public Reply submit(final long genotype, final String image, final String size) throws IOException {
+		final StringBuilder request = new StringBuilder();
+		request.append(genotype);
+		if (image != null || size != null)
+			request.append(' ').append((image == null) ? "no" : image);
+		if (size != null)
+			request.append(' ').append(size);
+		
+		final Reply reply = new Reply();
+		synchronized (this) {
+			if (!alive)
+				throw new IOException("jenn worker has exited.");
+			final long id = nextId++;
+			pending.put(Long.valueOf(id), reply);
+			try {
+				requests.write(id + " " + request + "\n");
+				requests.flush();
+			} catch (IOException e) {
+				pending.remove(Long.valueOf(id));
+				throw e;
+			}
+		}
+		return reply;
+	}
+
+	/**
+	 * Measures a genotype, waiting for the answer.
+	 * @param genotype Genotype to measure.
+	 * @param dump Whether jenn should save an image of the phenotype.
+	 * @return Fitness reported by jenn.
+	 * @throws IOException If the worker failed.
+	 */
+	public double measure(final long genotype, final boolean dump) throws IOException {
+		return submit(genotype, dump).await().fitness();
+	}
+
+	/**
+	 * Measures a genotype, waiting for the answer up to the specified time.
+	 * @param genotype Genotype to measure.
+	 * @param image Image argument for jenn, as for submit().
+	 * @param size Window size, e.g. "320x240", or null for jenn's own.
+	 * @param timeout Longest time to wait (ms), or 0 for no limit.
+	 * @return Fitness reported by jenn.
+	 * @throws IOException If the worker failed.
+	 * @throws TimeoutException If the worker has not answered in time; it is
+	 *         then presumably stuck, so kill() it.
+	 */
+	public double measure(final long genotype, final String image, final String size, final long timeout) throws IOException, TimeoutException {
+		return submit(genotype, image, size).await(timeout).fitness();
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Matches replies from the worker to pending requests, until it exits.
+	 */
+	private void readReplies() {
+		try {
+			final BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), "US-ASCII"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				final String[] words = line.trim().split("\\s+");
+				if (words.length < 2)
+					continue;  // not a reply
+				final Long id;
+				try {
+					id = Long.valueOf(words[0]);
+				} catch (NumberFormatException e) {
+					continue;  // not a reply
+				}
+				final Reply reply;
+				synchronized (this) {
+					reply = pending.remove(id);
+				}
+				if (reply == null)
+					continue;
+				
+				// Answered one way or the other, so that nothing waits for good
+				double fitness;
+				try {
+					fitness = Double.parseDouble(words[1]);
+				} catch (NumberFormatException e) {
+					fitness = Double.NaN;  // e.g. "nan" or "inf" from C++
+				}
+				if (Double.isNaN(fitness) || Double.isInfinite(fitness))
+					reply.fail(new IOException("jenn worker gave fitness '" + words[1] + "'."));
+				else
+					reply.complete(fitness, (words.length < 3 || words[2].equals("-")) ? null : words[2]);
+			}
+		} catch (IOException e) {
+			// Worker has gone: fail whatever is outstanding
+		}
+
+		synchronized (this) {
+			alive = false;
+			for (final Reply reply : pending.values())
+				reply.fail(new IOException("jenn worker exited before answering."));
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Passes the worker's error output through.
+	 */
+	private static void forward(final InputStream stream) {
+		final byte[] buffer = new byte[4096];
+		try {
+			int n;
+			while ((n = stream.read(buffer)) > 0)
+				System.err.write(buffer, 0, n);
+		} catch (IOException e) {
+			// Worker has gone
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Stops the worker. Outstanding requests fail.
+	 */
+	public void close() {
+		try {
+			requests.close();  // worker exits at end of input
+		} catch (IOException e) {
+			// Already gone
+		}
+		process.destroy();
+	}
+
+	/**
+	 * Kills the worker and any processes it started, e.g. if stuck. 
+	 * Outstanding requests fail.
+	 */
+	public void kill() {
+		synchronized (this) {
+			alive = false;  // not to be used again
+		}
+		ProcessTree.kill(process);
+	}
+
+}
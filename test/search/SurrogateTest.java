@@ -0,0 +1,102 @@
+package search;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import world.Check;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Checks that the surrogate learns a codon-wise rule well enough to screen
+ * candidates, passes candidates through until it has learnt enough, and
+ * reads back the model it writes.
+ */
+public class SurrogateTest {
+	/** Genotype bits: four codons. */
+	private static final int NUM_BITS = 16;
+
+	public static void main(final String[] args) throws IOException {
+		final Random random = new Random(1);
+		final Surrogate surrogate = new Surrogate(NUM_BITS, 4);
+
+		// Too few results learnt: candidates are taken as they come
+		final long[] candidates = new long[200];
+		final long[] chosen = new long[10];
+		for (int n = 0; n < candidates.length; n++)
+			candidates[n] = random.nextInt(1 << NUM_BITS);
+		for (int n = 0; n < Surrogate.MIN_SAMPLES - 1; n++)
+			learn(surrogate, random.nextInt(1 << NUM_BITS));
+		surrogate.select(candidates, candidates.length, chosen, chosen.length);
+		for (int n = 0; n < chosen.length; n++)
+			Check.equal(candidates[n], chosen[n], "unscreened candidate " + n);
+
+		// Learns which genotypes are typical, and which good
+		for (int n = 0; n < 5000; n++)
+			learn(surrogate, random.nextInt(1 << NUM_BITS));
+		int correct = 0;
+		for (int n = 0; n < 1000; n++) {
+			final long genotype = random.nextInt(1 << NUM_BITS);
+			if ((surrogate.predictTypical(genotype) >= 0.5) == typical(genotype))
+				correct++;
+		}
+		Check.that(correct >= 950, "typicality predicted for " + correct + " of 1000");
+
+		// Screens candidates for typical, better ones
+		double meanQuality = 0;
+		for (final long genotype : candidates)
+			meanQuality += typical(genotype) ? quality(genotype) : 0;
+		meanQuality /= candidates.length;
+		surrogate.select(candidates, candidates.length, chosen, chosen.length);
+		double chosenQuality = 0;
+		for (final long genotype : chosen) {
+			Check.that(typical(genotype), "chosen " + genotype + " typical");
+			chosenQuality += quality(genotype);
+		}
+		chosenQuality /= chosen.length;
+		Check.that(chosenQuality > 2 * meanQuality,
+				"chosen quality " + chosenQuality + " above mean " + meanQuality);
+
+		// Reads back what it wrote, and only for the same genotype size
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		surrogate.writeState(new DataOutputStream(bytes));
+		final Surrogate restored = new Surrogate(NUM_BITS, 4);
+		restored.readState(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		Check.equal(surrogate.numLearned(), restored.numLearned(), "restored results learnt");
+		for (int n = 0; n < 100; n++) {
+			final long genotype = random.nextInt(1 << NUM_BITS);
+			Check.equal(surrogate.score(genotype), restored.score(genotype), "restored score of " + genotype);
+		}
+		try {
+			new Surrogate(2 * NUM_BITS, 4).readState(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+			Check.that(false, "other genotype size rejected");
+		} catch (IOException e) {
+			Check.that(true, "other genotype size rejected");
+		}
+
+		Check.done("SurrogateTest");
+	}
+
+	/**
+	 * Typical if the first codon is below 8.
+	 */
+	private static boolean typical(final long genotype) {
+		return (genotype >>> (NUM_BITS - Surrogate.CODON_BITS)) < 8;
+	}
+
+	/**
+	 * Better the higher the last codon.
+	 */
+	private static double quality(final long genotype) {
+		return (genotype & 15) / 15.0;
+	}
+
+	private static void learn(final Surrogate surrogate, final long genotype) {
+		surrogate.learn(genotype, typical(genotype) ? 1 : 0, quality(genotype), 0.5);
+	}
+
+}
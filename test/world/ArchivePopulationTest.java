@@ -0,0 +1,83 @@
+package world;
+
+import java.util.Random;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Checks that ArchivePopulation keeps exactly the best that a Population of
+ * the same size keeps, through insertions, duplicates, ties in fitness and
+ * removals.
+ */
+public class ArchivePopulationTest
+{
+	public static void main(final String[] args)
+	{
+		final TestDomain domain = new TestDomain(1);
+
+		// Removing frees a slot other than the next one filled
+		final ArchivePopulation archive = new ArchivePopulation(domain, 3, new Rng(2));
+		final Population reference = new Population(3);
+		insert(archive, reference, 11, 0.9, 0.9);
+		insert(archive, reference, 22, 0.8, 0.8);
+		remove(archive, reference, 0);
+		insert(archive, reference, 33, 0.1, 0.1);
+		compare(archive, reference, "remove then insert");
+		Check.equal(22, archive.genotype(0), "best after removing the first");
+		Check.equal(33, archive.genotype(1), "second after removing the first");
+
+		// Random interleavings, with duplicates and ties
+		final Random random = new Random(3);
+		for (int round = 0; round < 50; round++)
+		{
+			final int maxBest = 1 + random.nextInt(20);
+			final ArchivePopulation best = new ArchivePopulation(domain, maxBest, new Rng(round));
+			final Population full = new Population(maxBest);
+			for (int step = 0; step < 400; step++)
+			{
+				if (full.size() > 0 && random.nextInt(4) == 0)
+				{
+					remove(best, full, random.nextInt(full.size()));
+				}
+				else
+				{
+					final long genotype = 1 + random.nextInt(60);
+					insert(best, full, genotype, random.nextInt(3) / 2.0, random.nextInt(5) / 4.0);
+				}
+				compare(best, full, "round " + round + ", step " + step);
+			}
+		}
+		Check.done("ArchivePopulationTest");
+	}
+
+	//-------------------------------------------------------------------------
+
+	private static void insert(final Population a, final Population b, final long genotype, final double typicality, final double quality)
+	{
+		a.insert(genotype, typicality, quality);
+		b.insert(genotype, typicality, quality);
+	}
+
+	private static void remove(final Population a, final Population b, final int i)
+	{
+		a.remove(i);
+		b.remove(i);
+	}
+
+	/**
+	 * Checks that both hold the same members in the same order.
+	 */
+	private static void compare(final Population archive, final Population reference, final String when)
+	{
+		Check.equal(reference.size(), archive.size(), when + ": size");
+		final int num = Math.min(reference.size(), archive.size());
+		for (int i = 0; i < num; i++)
+		{
+			Check.equal(reference.genotype(i), archive.genotype(i), when + ": genotype " + i);
+			Check.equal(reference.fitness(i), archive.fitness(i), when + ": fitness " + i);
+		}
+		for (int i = 0; i < num; i++)
+			Check.that(archive.contains(reference.genotype(i)), when + ": contains " + reference.genotype(i));
+	}
+
+}
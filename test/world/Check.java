@@ -0,0 +1,73 @@
+package world;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Checks for the tests in this folder, each a main class run by "ant test".
+ * Failures are reported as they are found, and the test exits with status 1
+ * at the end if there were any.
+ */
+public final class Check
+{
+	/** Number of checks made, and failed. */
+	private static int numChecks;
+	private static int numFailed;
+
+	//-------------------------------------------------------------------------
+
+	private Check()
+	{
+		// static only
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param ok   Whether the check passed.
+	 * @param what What was checked, reported on failure.
+	 */
+	public static void that(final boolean ok, final String what)
+	{
+		numChecks++;
+		if (!ok)
+		{
+			numFailed++;
+			System.out.println("FAILED: " + what);
+		}
+	}
+
+	/**
+	 * @param expected Expected value.
+	 * @param actual   Actual value.
+	 * @param what     What was checked, reported on failure.
+	 */
+	public static void equal(final long expected, final long actual, final String what)
+	{
+		that(expected == actual, what + ": expected " + expected + ", got " + actual);
+	}
+
+	/**
+	 * @param expected Expected value.
+	 * @param actual   Actual value.
+	 * @param what     What was checked, reported on failure.
+	 */
+	public static void equal(final double expected, final double actual, final String what)
+	{
+		that(Double.compare(expected, actual) == 0, what + ": expected " + expected + ", got " + actual);
+	}
+
+	/**
+	 * Reports the outcome, exiting with status 1 if any check failed.
+	 * @param test Name of the test.
+	 */
+	public static void done(final String test)
+	{
+		if (numFailed > 0)
+		{
+			System.out.println(test + ": " + numFailed + " of " + numChecks + " checks failed.");
+			System.exit(1);
+		}
+		System.out.println(test + ": " + numChecks + " checks passed.");
+	}
+
+}
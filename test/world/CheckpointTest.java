@@ -0,0 +1,95 @@
+package world;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import search.Search;
+import search.SearchGA;
+import search.SearchMC;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Checks that a snapshot restores the search, the domain's random number 
+ * streams and the master population as they were, by saving the restored
+ * run again and comparing, and that snapshots of other runs are refused.
+ */
+public class CheckpointTest
+{
+	public static void main(final String[] args) throws IOException
+	{
+		final File dir = Files.createTempDirectory("checkpoint").toFile();
+		final File first = new File(dir, "first.checkpoint");
+		final File second = new File(dir, "second.checkpoint");
+		try
+		{
+			// A run part of the way through
+			final TestDomain domain = new TestDomain(1);
+			final World world = Utils.world;
+			final Search search = new SearchGA();
+			search.conduct(500);
+			domain.stream(2).nextLong();  // e.g. an island's
+			new Checkpoint(first, 0, 7, domain).save(search, world.population());
+			Check.that(first.exists() && !new File(first.getPath() + ".tmp").exists(), "snapshot renamed into place");
+			Check.equal(7, Checkpoint.seed(first), "seed");
+
+			// The same run set up afresh, then restored
+			final TestDomain restoredDomain = new TestDomain(2);
+			final World restoredWorld = Utils.world;
+			final List<Search> searches = new ArrayList<Search>();
+			searches.add(new SearchGA());
+			final Checkpoint checkpoint = new Checkpoint(first, 0, 7, restoredDomain);
+			Check.equal(0, checkpoint.restore(searches, restoredWorld.population()), "search restored");
+
+			final Population master = world.population();
+			final Population restored = restoredWorld.population();
+			Check.equal(master.size(), restored.size(), "master population size");
+			for (int i = 0; i < Math.min(master.size(), restored.size()); i++)
+			{
+				Check.equal(master.genotype(i), restored.genotype(i), "master genotype " + i);
+				Check.equal(master.fitness(i), restored.fitness(i), "master fitness " + i);
+			}
+
+			// Saved again, it is the same snapshot
+			new Checkpoint(second, 0, 7, restoredDomain).save(searches.get(0), restored);
+			Check.that(Arrays.equals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath())), "restored run saves the same snapshot");
+
+			for (int stream = 0; stream < 4; stream++)
+				Check.equal(domain.stream(stream).nextLong(), restoredDomain.stream(stream).nextLong(), "domain stream " + stream);
+
+			// Snapshots of other runs
+			try
+			{
+				new Checkpoint(first, 0, 8, restoredDomain).restore(searches, restored);
+				Check.that(false, "snapshot of another seed refused");
+			}
+			catch (IOException e)
+			{
+				Check.that(true, "snapshot of another seed refused");
+			}
+			try
+			{
+				final List<Search> others = new ArrayList<Search>();
+				others.add(new SearchMC());
+				checkpoint.restore(others, restored);
+				Check.that(false, "snapshot of another search refused");
+			}
+			catch (IOException e)
+			{
+				Check.that(true, "snapshot of another search refused");
+			}
+		}
+		finally
+		{
+			first.delete();
+			second.delete();
+			dir.delete();
+		}
+		Check.done("CheckpointTest");
+	}
+
+}
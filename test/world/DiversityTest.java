@@ -0,0 +1,159 @@
+package world;
+
+import java.util.Random;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Checks Diversity against brute force: per-bit counts kept incrementally,
+ * built by transposing blocks (on one thread or several) and merged agree,
+ * and the diversity measures match those computed from the genotypes.
+ */
+public class DiversityTest
+{
+	public static void main(final String[] args)
+	{
+		final Random random = new Random(1);
+
+		// Transposing twice gives back the matrix, with bits swapped across
+		final long[] rows = new long[Long.SIZE];
+		for (int r = 0; r < Long.SIZE; r++)
+			rows[r] = random.nextLong();
+		final long[] transposed = rows.clone();
+		Diversity.transpose(transposed);
+		for (int r = 0; r < Long.SIZE; r++)
+			for (int c = 0; c < Long.SIZE; c++)
+				Check.that(((transposed[c] >>> r) & 1) == ((rows[r] >>> c) & 1), "transposed bit " + r + "," + c);
+		Diversity.transpose(transposed);
+		for (int r = 0; r < Long.SIZE; r++)
+			Check.equal(rows[r], transposed[r], "transposed back row " + r);
+
+		// Empty and single genotypes have no diversity
+		final Diversity empty = new Diversity();
+		Check.equal(0.0, empty.coi(64), "empty COI");
+		Check.equal(0.0, empty.hamming(64), "empty Hamming");
+		Check.equal(0.0, empty.entropy(64), "empty entropy");
+		empty.add(-1L);
+		Check.equal(0.0, empty.hamming(64), "single Hamming");
+
+		// Small sets, with biased bits and sizes not a multiple of 64
+		for (int trial = 0; trial < 20; trial++)
+		{
+			final int num = 2 + random.nextInt(300);
+			final int numBits = 1 + random.nextInt(64);
+			final long[] genotypes = genotypes(num + 10, numBits, random);
+			final String what = "trial " + trial + " of " + num + " x " + numBits + " bits";
+
+			final Diversity added = new Diversity();
+			for (int n = 5; n < num + 5; n++)
+				added.add(genotypes[n]);
+			final Diversity counted = Diversity.of(genotypes, 5, num + 5);
+			final long[] onCounts = onCounts(genotypes, 5, num + 5);
+			Check.equal(num, added.size(), what + ": size added");
+			Check.equal(num, counted.size(), what + ": size counted");
+			for (int b = 0; b < Long.SIZE; b++)
+			{
+				Check.equal(onCounts[b], added.onCount(b), what + ": added bit " + b);
+				Check.equal(onCounts[b], counted.onCount(b), what + ": counted bit " + b);
+			}
+
+			// Measures, against the genotypes themselves
+			double coi = 0;
+			double entropy = 0;
+			for (int b = 0; b < numBits; b++)
+			{
+				double mean = 0;
+				for (int n = 5; n < num + 5; n++)
+					mean += (genotypes[n] >>> b) & 1;
+				mean /= num;
+				for (int n = 5; n < num + 5; n++)
+				{
+					final double dev = ((genotypes[n] >>> b) & 1) - mean;
+					coi += dev * dev / num;
+				}
+				if (mean > 0 && mean < 1)
+					entropy -= (mean * Math.log(mean) + (1 - mean) * Math.log(1 - mean)) / Math.log(2);
+			}
+			double distance = 0;
+			for (int i = 5; i < num + 5; i++)
+				for (int j = i + 1; j < num + 5; j++)
+					distance += Long.bitCount(genotypes[i] ^ genotypes[j]);
+			distance /= num * (num - 1) / 2.0;
+			close(coi / numBits, counted.coi(numBits), what + ": COI");
+			close(distance / numBits, counted.hamming(numBits), what + ": Hamming");
+			close(entropy / numBits, counted.entropy(numBits), what + ": entropy");
+
+			// Removing some, and merging them back
+			final Diversity removed = new Diversity();
+			for (int n = 5; n < num + 5; n += 3)
+			{
+				added.remove(genotypes[n]);
+				removed.add(genotypes[n]);
+			}
+			final long[] kept = onCounts(genotypes, 5, num + 5);
+			for (int n = 5; n < num + 5; n += 3)
+				for (int b = 0; b < Long.SIZE; b++)
+					kept[b] -= (genotypes[n] >>> b) & 1;
+			for (int b = 0; b < Long.SIZE; b++)
+				Check.equal(kept[b], added.onCount(b), what + ": bit " + b + " after removing");
+			added.merge(removed);
+			Check.equal(num, added.size(), what + ": size merged");
+			for (int b = 0; b < Long.SIZE; b++)
+				Check.equal(onCounts[b], added.onCount(b), what + ": bit " + b + " merged");
+			close(counted.hamming(numBits), added.hamming(numBits), what + ": Hamming merged");
+
+			added.clear();
+			Check.equal(0, added.size(), what + ": size cleared");
+			Check.equal(0, added.onCount(0), what + ": bit 0 cleared");
+		}
+
+		// Large enough to count on several threads
+		final int num = 4 * Diversity.PARALLEL_THRESHOLD + 37;
+		final long[] genotypes = genotypes(num, 64, random);
+		final Diversity counted = Diversity.of(genotypes, 3, num);
+		final long[] onCounts = onCounts(genotypes, 3, num);
+		Check.equal(num - 3, counted.size(), "large: size");
+		for (int b = 0; b < Long.SIZE; b++)
+			Check.equal(onCounts[b], counted.onCount(b), "large: bit " + b);
+
+		Check.done("DiversityTest");
+	}
+
+	/**
+	 * @return Random genotypes within numBits bits, each bit on with its own
+	 *         probability, some bits always on or off.
+	 */
+	private static long[] genotypes(final int num, final int numBits, final Random random)
+	{
+		final double[] p = new double[numBits];
+		for (int b = 0; b < numBits; b++)
+			p[b] = (b % 7 == 0) ? (b % 2) : random.nextDouble();
+		final long[] genotypes = new long[num];
+		for (int n = 0; n < num; n++)
+			for (int b = 0; b < numBits; b++)
+				if (random.nextDouble() < p[b])
+					genotypes[n] |= 1L << b;
+		return genotypes;
+	}
+
+	/**
+	 * @return Number of genotypes in the range with each bit on.
+	 */
+	private static long[] onCounts(final long[] genotypes, final int from, final int to)
+	{
+		final long[] onCounts = new long[Long.SIZE];
+		for (int n = from; n < to; n++)
+			for (int b = 0; b < Long.SIZE; b++)
+				onCounts[b] += (genotypes[n] >>> b) & 1;
+		return onCounts;
+	}
+
+	/**
+	 * Checks that a measure matches to within rounding.
+	 */
+	private static void close(final double expected, final double actual, final String what)
+	{
+		Check.that(Math.abs(expected - actual) <= 1e-9, what + " is " + actual + ", expected " + expected);
+	}
+
+}
@@ -0,0 +1,74 @@
+package world;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Checks FitnessIndex's ranking against a plain list kept in rank order,
+ * through insertions (with ties), removals by rank and of the last, and
+ * repeated lookups, and that node ids are reused once removed.
+ */
+public class FitnessIndexTest
+{
+	public static void main(final String[] args)
+	{
+		final Random random = new Random(1);
+		for (int round = 0; round < 20; round++)
+		{
+			final FitnessIndex index = new FitnessIndex();
+			final List<Integer> nodes = new ArrayList<Integer>();  // node ids in rank order
+			final List<Double> fitness = new ArrayList<Double>();  // by node id
+
+			for (int step = 0; step < 2000; step++)
+			{
+				final int op = random.nextInt(10);
+				if (op < 6 || nodes.isEmpty())
+				{
+					// Insert after all of greater or equal fitness
+					final double f = random.nextInt(8) / 8.0;
+					final int node = index.insert(f);
+					Check.that(!nodes.contains(Integer.valueOf(node)), "new node " + node + " is not in use");
+					Check.that(node < index.capacity(), "node " + node + " within capacity");
+					while (fitness.size() <= node)
+						fitness.add(null);
+					fitness.set(node, Double.valueOf(f));
+					int rank = 0;
+					while (rank < nodes.size() && fitness.get(nodes.get(rank).intValue()).doubleValue() >= f)
+						rank++;
+					nodes.add(rank, Integer.valueOf(node));
+				}
+				else if (op < 8)
+				{
+					final int rank = random.nextInt(nodes.size());
+					Check.equal(nodes.remove(rank).intValue(), index.remove(rank), "round " + round + ": remove rank " + rank);
+				}
+				else if (op < 9)
+				{
+					Check.equal(nodes.remove(nodes.size() - 1).intValue(), index.removeLast(), "round " + round + ": remove last");
+				}
+				else
+				{
+					// Scan, enough to flatten the tree
+					for (int rank = 0; rank < nodes.size(); rank++)
+						Check.equal(nodes.get(rank).intValue(), index.node(rank), "round " + round + ": scan rank " + rank);
+				}
+
+				Check.equal(nodes.size(), index.size(), "round " + round + ", step " + step + ": size");
+				if (!nodes.isEmpty())
+				{
+					final int rank = random.nextInt(nodes.size());
+					Check.equal(nodes.get(rank).intValue(), index.node(rank), "round " + round + ", step " + step + ": rank " + rank);
+				}
+			}
+
+			index.clear();
+			Check.equal(0, index.size(), "size when cleared");
+			Check.equal(FitnessIndex.NIL, index.removeLast(), "remove last when empty");
+		}
+		Check.done("FitnessIndexTest");
+	}
+
+}
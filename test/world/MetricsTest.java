@@ -0,0 +1,161 @@
+package world;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.management.Attribute;
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Checks Metrics and MetricsReporter: counters updated from several threads
+ * sum exactly, timer quantiles are within their buckets' resolution of the
+ * exact ones, and snapshots reach the CSV and NDJSON files and the MBean.
+ */
+public class MetricsTest
+{
+	public static void main(final String[] args) throws Exception
+	{
+		// Counters, updated concurrently
+		final Metrics.Counter counter = Metrics.counter("test.counter");
+		Check.that(Metrics.counter("test.counter") == counter, "counter registered once");
+		final Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++)
+		{
+			threads[t] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for (int n = 0; n < 100000; n++)
+						counter.increment();
+					counter.add(5);
+				}
+			});
+			threads[t].start();
+		}
+		for (final Thread thread : threads)
+			thread.join();
+		Check.equal(4 * 100005, counter.sum(), "counter sum");
+
+		// Timers, against exact quantiles
+		final Metrics.Timer timer = Metrics.timer("test.timer");
+		Check.that(Metrics.timer("test.timer") == timer, "timer registered once");
+		Check.equal(0.0, timer.quantile(0.5), "empty quantile");
+		final Random random = new Random(1);
+		final long[] durations = new long[10000];
+		long total = 0;
+		for (int n = 0; n < durations.length; n++)
+		{
+			durations[n] = (long)Math.exp(random.nextDouble() * 20);
+			timer.record(durations[n]);
+			total += durations[n];
+		}
+		timer.record(-5);  // counted as 0
+		Check.equal(durations.length + 1, timer.count(), "timer count");
+		Check.equal(total, timer.total(), "timer total");
+		final long[] sorted = Arrays.copyOf(durations, durations.length + 1);
+		Arrays.sort(sorted);
+		Check.equal(sorted[sorted.length - 1], timer.max(), "timer max");
+		for (final double q : new double[] { 0.01, 0.1, 0.5, 0.9, 0.99, 1 })
+		{
+			final long exact = sorted[(int)Math.ceil(q * sorted.length) - 1];
+			final double estimate = timer.quantile(q);
+			Check.that(Math.abs(estimate - exact) <= exact / 8.0 + 1, "quantile " + q + " is " + estimate + ", exactly " + exact);
+		}
+
+		final Map<String, Number> snapshot = Metrics.snapshot();
+		Check.equal(counter.sum(), snapshot.get("test.counter").longValue(), "snapshot counter");
+		Check.equal(timer.count(), snapshot.get("test.timer.count").longValue(), "snapshot timer count");
+		Check.equal(total / 1e6 / timer.count(), snapshot.get("test.timer.mean").doubleValue(), "snapshot timer mean");
+		Check.equal(timer.max() / 1e6, snapshot.get("test.timer.max").doubleValue(), "snapshot timer max");
+		Check.that(snapshot.containsKey("test.timer.p99"), "snapshot timer p99");
+
+		// Reported to CSV, with a header, and over JMX
+		final File csv = File.createTempFile("metrics", ".csv");
+		final File ndjson = File.createTempFile("metrics", ".ndjson");
+		try
+		{
+			MetricsReporter reporter = new MetricsReporter(csv, 3600000);
+			counter.add(10);
+			reporter.report();
+			Metrics.counter("test.later").increment();
+			reporter.report();
+
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(MetricsReporter.OBJECT_NAME);
+			Check.equal(counter.sum(), ((Number)server.getAttribute(name, "test.counter")).longValue(), "JMX counter");
+			Check.that(server.getAttribute(name, "test.counter.rate") instanceof Double, "JMX counter rate");
+			Check.that(server.getAttribute(name, "test.timer.rate") instanceof Double, "JMX timer rate");
+			Check.that(server.getMBeanInfo(name).getAttributes().length > 10, "JMX attributes listed");
+			try
+			{
+				server.getAttribute(name, "test.missing");
+				Check.that(false, "missing attribute throws");
+			}
+			catch (AttributeNotFoundException e)
+			{
+				Check.that(true, "missing attribute throws");
+			}
+			try
+			{
+				server.setAttribute(name, new Attribute("test.counter", Long.valueOf(0)));
+				Check.that(false, "attributes are read-only");
+			}
+			catch (AttributeNotFoundException e)
+			{
+				Check.that(true, "attributes are read-only");
+			}
+			try
+			{
+				server.invoke(name, "reset", new Object[0], new String[0]);
+				Check.that(false, "operations throw");
+			}
+			catch (ReflectionException e)
+			{
+				Check.that(e.getTargetException() instanceof NoSuchMethodException, "operations throw no such method");
+			}
+			reporter.close();
+
+			final List<String> lines = Files.readAllLines(csv.toPath(), StandardCharsets.UTF_8);
+			Check.equal(6, lines.size(), "CSV lines: header, 2 rows, new header, 2 rows");
+			final List<String> header = Arrays.asList(lines.get(0).split(","));
+			Check.equal(0, header.indexOf("time"), "CSV time first");
+			Check.that(header.contains("test.counter.rate"), "CSV counter rate");
+			Check.that(!header.contains("test.later"), "CSV header before new metric");
+			Check.that(lines.get(3).contains("test.later"), "CSV header again for new metric");
+			final int column = header.indexOf("test.counter");
+			Check.equal(counter.sum() - 10, Long.parseLong(lines.get(1).split(",")[column]), "CSV counter before");
+			Check.equal(counter.sum(), Long.parseLong(lines.get(2).split(",")[column]), "CSV counter after");
+
+			// Reported to NDJSON, an object per line
+			reporter = new MetricsReporter(ndjson, 3600000);
+			reporter.close();
+			final List<String> objects = Files.readAllLines(ndjson.toPath(), StandardCharsets.UTF_8);
+			Check.equal(2, objects.size(), "NDJSON lines");
+			for (final String object : objects)
+			{
+				Check.that(object.startsWith("{\"time\":") && object.endsWith("}"), "NDJSON object: " + object);
+				Check.that(object.contains("\"test.counter\":" + counter.sum() + ","), "NDJSON counter: " + object);
+			}
+		}
+		finally
+		{
+			csv.delete();
+			ndjson.delete();
+		}
+
+		Check.done("MetricsTest");
+	}
+
+}
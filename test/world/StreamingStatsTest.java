@@ -0,0 +1,125 @@
+package world;
+
+import java.util.Arrays;
+import java.util.Random;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Checks StreamingStats against Stats and exact quantiles: moments from one
+ * pass, or merged from several, match those computed from all samples, and
+ * quantile estimates are within the sketch's relative accuracy.
+ */
+public class StreamingStatsTest
+{
+	/** Quantiles checked. */
+	private static final double[] QUANTILES = { 0, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 1 };
+
+	public static void main(final String[] args)
+	{
+		final Random random = new Random(1);
+		for (int dist = 0; dist < 5; dist++)
+		{
+			final int num = 1 + random.nextInt(50000);
+			final double[] samples = new double[num];
+			for (int n = 0; n < num; n++)
+				samples[n] = sample(dist, random);
+
+			// One pass, against the stored samples
+			final StreamingStats streaming = new StreamingStats("one pass");
+			final Stats stored = new Stats("stored");
+			for (final double sample : samples)
+			{
+				streaming.addSample(sample);
+				stored.addSample(sample);
+			}
+			streaming.measure();
+			stored.measure();
+			final String what = "distribution " + dist + " of " + num;
+			Check.equal(num, streaming.count(), what + ": count");
+			close(stored.mean(), streaming.mean(), what + ": mean");
+			close(stored.varn(), streaming.varn(), what + ": variance");
+			close(stored.conf(), streaming.conf(), what + ": confidence");
+			Check.equal(stored.min(), streaming.min(), what + ": min");
+			Check.equal(stored.max(), streaming.max(), what + ": max");
+
+			final double[] sorted = samples.clone();
+			Arrays.sort(sorted);
+			for (final double q : QUANTILES)
+			{
+				final double exact = sorted[(int)(q * (num - 1))];
+				final double estimate = streaming.quantile(q);
+				Check.that(Math.abs(estimate - exact) <= 0.01 * Math.abs(exact) + 1e-9,
+						what + ": quantile " + q + " is " + estimate + ", exactly " + exact);
+			}
+
+			// Merged from uneven parts, some empty
+			final StreamingStats merged = new StreamingStats("merged");
+			int from = 0;
+			while (from < num)
+			{
+				final int to = Math.min(num, from + random.nextInt(num / 3 + 2));
+				final StreamingStats part = new StreamingStats("part");
+				for (int n = from; n < to; n++)
+					part.addSample(samples[n]);
+				merged.merge(part);
+				from = to;
+			}
+			merged.measure();
+			Check.equal(num, merged.count(), what + ": merged count");
+			close(streaming.mean(), merged.mean(), what + ": merged mean");
+			close(streaming.varn(), merged.varn(), what + ": merged variance");
+			Check.equal(streaming.min(), merged.min(), what + ": merged min");
+			Check.equal(streaming.max(), merged.max(), what + ": merged max");
+			for (final double q : QUANTILES)
+				Check.equal(streaming.quantile(q), merged.quantile(q), what + ": merged quantile " + q);
+		}
+
+		// Empty
+		final StreamingStats empty = new StreamingStats("empty");
+		empty.merge(new StreamingStats("also empty"));
+		empty.measure();
+		Check.equal(0, empty.count(), "empty count");
+		Check.equal(0.0, empty.min(), "empty min");
+		Check.equal(0.0, empty.devn(), "empty deviation");
+		Check.that(Double.isNaN(empty.p50()), "empty median is NaN");
+
+		try
+		{
+			new QuantileSketch(0.01).merge(new QuantileSketch(0.02));
+			Check.that(false, "sketches of different accuracy not merged");
+		}
+		catch (IllegalArgumentException e)
+		{
+			Check.that(true, "sketches of different accuracy not merged");
+		}
+		Check.done("StreamingStatsTest");
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Sample from a uniform, exponential, log-normal, signed normal, 
+	 *         or discrete distribution with zeros.
+	 */
+	private static double sample(final int dist, final Random random)
+	{
+		switch (dist)
+		{
+		case 0:  return 1000 * random.nextDouble();
+		case 1:  return -Math.log(1 - random.nextDouble()) * 50;
+		case 2:  return Math.exp(2 * random.nextGaussian());
+		case 3:  return 10 * random.nextGaussian();
+		default: return random.nextInt(6) / 5.0;
+		}
+	}
+
+	/**
+	 * Checks two values agree to within rounding.
+	 */
+	private static void close(final double expected, final double actual, final String what)
+	{
+		Check.that(Math.abs(expected - actual) <= 1e-9 * Math.max(1, Math.abs(expected)), what + ": expected " + expected + ", got " + actual);
+	}
+
+}
@@ -0,0 +1,58 @@
+package world;
+
+import world.domain.Domain;
+import world.domain.Individual;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * In-memory domain for tests: individuals hold whatever values they are
+ * given, and measure to values derived from a hash of their genotype.
+ * Creating one installs a world over it as Utils.world, for populations.
+ */
+public class TestDomain extends Domain
+{
+	/**
+	 * Constructor.
+	 * @param seed Seed for the domain's random number generator.
+	 */
+	public TestDomain(final long seed)
+	{
+		super("Test", 64);
+		setRng(new Rng(seed));
+		Utils.world = new World(this)
+		{
+			// domain only
+		};
+	}
+
+	//-------------------------------------------------------------------------
+
+	@Override
+	public Individual individual(final long genotype)
+	{
+		final Individual indiv = new Individual(this, genotype)
+		{
+			@Override
+			public void measureTypicality()
+			{
+				typicality = Utils.hash(genotype()) & 1;
+			}
+
+			@Override
+			public void measureQuality()
+			{
+				quality = (Utils.hash(genotype()) >>> 11) * 0x1.0p-53;
+			}
+
+			@Override
+			public String export(final String path)
+			{
+				return "";
+			}
+		};
+		indiv.repair();
+		return indiv;
+	}
+
+}
@@ -0,0 +1,125 @@
+package world.domain;
+
+import java.io.File;
+import java.io.IOException;
+
+import world.Check;
+import world.TestDomain;
+import world.Utils;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Checks that the evaluation cache keeps every entry as it grows well past
+ * its initial capacity and when reopened, and that the domain doesn't cache
+ * measurements that failed.
+ */
+public class EvaluationCacheTest
+{
+	/** Entries stored, enough to grow the table several times. */
+	private static final int NUM = 20000;
+
+	public static void main(final String[] args) throws IOException
+	{
+		final File file = File.createTempFile("evaluation", ".cache");
+		file.delete();
+		try
+		{
+			final TestDomain domain = new TestDomain(1);
+			EvaluationCache cache = new EvaluationCache(file);
+			final int initial = cache.capacity;
+			for (int n = 0; n < NUM; n++)
+				cache.store(genotype(n), typicality(n), quality(n));
+			cache.store(0, 0.5, 0.25);
+			cache.store(genotype(7), 1, 1);  // replaces
+			Check.that(cache.capacity > initial, "capacity grew from " + initial + " to " + cache.capacity);
+			Check.equal(NUM + 1, cache.size(), "entries");
+			Check.that(!new File(file.getPath() + ".tmp").exists(), "no temporary file left");
+			check(cache, domain, "grown");
+			cache.close();
+
+			cache = new EvaluationCache(file);
+			Check.equal(NUM + 1, cache.size(), "entries when reopened");
+			check(cache, domain, "reopened");
+
+			// Failed measurements are measured again next time
+			final Domain failing = new TestDomain(2)
+			{
+				@Override
+				public Individual individual(final long genotype)
+				{
+					return new Individual(this, genotype)
+					{
+						@Override
+						public void measureTypicality()
+						{
+							typicality = 1;
+						}
+
+						@Override
+						public void measureQuality()
+						{
+							quality = 0;
+							failed = (genotype() & 1) != 0;
+						}
+
+						@Override
+						public String export(final String path)
+						{
+							return "";
+						}
+					};
+				}
+			};
+			failing.setCache(cache);
+			for (long genotype = 1L << 40; genotype < (1L << 40) + 100; genotype++)
+			{
+				final Individual indiv = failing.individual(genotype);
+				failing.measure(indiv);
+				Check.that(indiv.hasFailed() == ((genotype & 1) != 0), "failed flag of " + genotype);
+				Check.that(cache.fetch(genotype, failing.individual(genotype)) == !indiv.hasFailed(), "cached unless failed: " + genotype);
+			}
+			cache.close();
+		}
+		finally
+		{
+			file.delete();
+		}
+		Check.done("EvaluationCacheTest");
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Checks every entry stored is found with its values, and others not.
+	 */
+	private static void check(final EvaluationCache cache, final Domain domain, final String when)
+	{
+		final Individual indiv = domain.individual(1);
+		for (int n = 0; n < NUM; n++)
+		{
+			Check.that(cache.fetch(genotype(n), indiv), when + ": found " + n);
+			Check.equal((n == 7) ? 1 : typicality(n), indiv.typicality(), when + ": typicality " + n);
+			Check.equal((n == 7) ? 1 : quality(n), indiv.quality(), when + ": quality " + n);
+		}
+		Check.that(cache.fetch(0, indiv) && indiv.quality() == 0.25, when + ": found 0");
+		for (int n = NUM; n < NUM + 1000; n++)
+			Check.that(!cache.fetch(genotype(n), indiv), when + ": not found " + n);
+	}
+
+	private static long genotype(final int n)
+	{
+		return Utils.hash(n + 1) | 1L << 63;
+	}
+
+	private static double typicality(final int n)
+	{
+		return (n % 3) / 2.0;
+	}
+
+	private static double quality(final int n)
+	{
+		return (n % 11) / 10.0;
+	}
+
+}
@@ -0,0 +1,117 @@
+package world.domain;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import world.Check;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Checks that evaluations appended to a journal read back the same, streamed
+ * and mapped, across buffer and chunk boundaries, after reopening to append
+ * more, and with a torn record at the end dropped.
+ */
+public class EvaluationJournalTest
+{
+	/** Search names recorded, the last as long as a record holds. */
+	private static final String[] SEARCHES = { "GA", "Steady state", "Enum", "GA island 123456789012345678" };
+
+	public static void main(final String[] args) throws IOException
+	{
+		final File file = File.createTempFile("evaluation", ".journal");
+		file.delete();
+		try
+		{
+			// Written in two sessions, with a torn record between them
+			final int numFirst = 5000;
+			final int numSecond = 3000;
+			append(file, 0, numFirst);
+			final RandomAccessFile torn = new RandomAccessFile(file, "rw");
+			torn.setLength(torn.length() + EvaluationJournal.RECORD / 2);
+			torn.close();
+			append(file, numFirst, numSecond);
+
+			final int num = numFirst + numSecond;
+			Check.equal(EvaluationJournal.HEADER + (long)num * EvaluationJournal.RECORD, file.length(), "journal length");
+
+			for (final boolean map : new boolean[] { false, true })
+			{
+				final JournalReader reader = new JournalReader(file, map);
+				Check.equal(num, reader.size(), "records, " + (map ? "mapped" : "streamed"));
+				int n = 0;
+				while (reader.next())
+				{
+					Check.equal(n, reader.index(), "index");
+					check(reader, n++);
+				}
+				Check.equal(num, n, "records read, " + (map ? "mapped" : "streamed"));
+				if (map)
+				{
+					final Random random = new Random(1);
+					for (int s = 0; s < 1000; s++)
+					{
+						final int record = random.nextInt(num);
+						reader.seek(record);
+						check(reader, record);
+					}
+				}
+				reader.close();
+			}
+		}
+		finally
+		{
+			file.delete();
+		}
+		Check.done("EvaluationJournalTest");
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Appends the records from the specified index, then closes the journal.
+	 */
+	private static void append(final File file, final int from, final int num) throws IOException
+	{
+		final EvaluationJournal journal = new EvaluationJournal(file, 10);
+		for (int n = from; n < from + num; n++)
+		{
+			journal.append(SEARCHES[n % SEARCHES.length], n / 100, genotype(n), typicality(n), quality(n), n * 1000L);
+			if (n % 1500 == 0)
+				journal.flush();
+		}
+		Check.equal(num, journal.numAppended(), "records appended");
+		journal.close();
+	}
+
+	/**
+	 * Checks the current record is the n-th appended.
+	 */
+	private static void check(final JournalReader reader, final int n)
+	{
+		Check.equal(genotype(n), reader.genotype(), "genotype " + n);
+		Check.equal(typicality(n), reader.typicality(), "typicality " + n);
+		Check.equal(quality(n), reader.quality(), "quality " + n);
+		Check.equal(n * 1000L, reader.measureTime(), "measure time " + n);
+		Check.equal(n / 100, reader.generation(), "generation " + n);
+		Check.that(SEARCHES[n % SEARCHES.length].equals(reader.search()), "search " + n + ": " + reader.search());
+	}
+
+	private static long genotype(final int n)
+	{
+		return world.Utils.hash(n);
+	}
+
+	private static double typicality(final int n)
+	{
+		return (n % 3) / 2.0;
+	}
+
+	private static double quality(final int n)
+	{
+		return (n % 7) / 6.0;
+	}
+
+}
@@ -0,0 +1,184 @@
+package world.domain;
+
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import world.Check;
+import world.Metrics;
+import world.TestDomain;
+import world.Utils;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Checks hedged measurement: nothing is hedged until enough measurements
+ * have been timed; when the copy of a stuck measurement finishes first, the
+ * original comes back holding the copy's result, not cancelled; when the
+ * original finishes first, the copy is stopped; and only the measurement
+ * that completed is timed.
+ */
+public class EvaluatorPoolTest
+{
+	/** Genotype whose first measurement is stuck until cancelled. */
+	private static final long SLOW = 0x5107L;
+
+	/** Genotype whose first measurement is late, and later ones stuck. */
+	private static final long LATE = 0x1a7eL;
+
+	/** Genotype whose first measurement is late, before hedging starts. */
+	private static final long EARLY = 0xea21L;
+
+	/** How long a stuck measurement waits to be cancelled (ms). */
+	private static final long STUCK = 5000;
+
+	/** How long a late measurement takes (ms). */
+	private static final long DELAY = 200;
+
+	private static final Metrics.Counter HEDGED = Metrics.counter("pool.hedged");
+	private static final Metrics.Counter HEDGES_WON = Metrics.counter("pool.hedgesWon");
+
+	public static void main(final String[] args) throws Exception
+	{
+		final StuckDomain domain = new StuckDomain();
+		domain.setNumSlots(2);
+		domain.setHedge(true);
+		final EvaluatorPool pool = domain.pool();
+
+		// Too few measurements timed yet to hedge by
+		final long hedgedBefore = HEDGED.sum();
+		pool.submit(domain.individual(EARLY)).get();
+		Check.equal(hedgedBefore, HEDGED.sum(), "not hedged before enough are timed");
+
+		// Time enough quick measurements to hedge by
+		for (long genotype = 1; genotype < 2 * EvaluatorPool.MIN_HEDGE_SAMPLES; genotype++)
+			pool.submit(domain.individual(genotype)).get();
+		long timed = domain.latency().count();
+		Check.equal(2 * EvaluatorPool.MIN_HEDGE_SAMPLES, timed, "measurements timed");
+
+		// The stuck original loses to its copy, whose result it takes over
+		final long wonBefore = HEDGES_WON.sum();
+		long startAt = System.nanoTime();
+		final BlockingQueue<Individual> done = new LinkedBlockingQueue<Individual>();
+		final Individual indiv = domain.individual(SLOW);
+		pool.submit(indiv, done);
+		final Individual result = done.poll(STUCK * 2, TimeUnit.MILLISECONDS);
+		long elapsed = (System.nanoTime() - startAt) / 1000000;
+
+		Check.that(result == indiv, "original passed on");
+		Check.that(elapsed < STUCK, "copy finished first, in " + elapsed + "ms");
+		Check.equal(wonBefore + 1, HEDGES_WON.sum(), "hedges won");
+		Check.that(!indiv.isCancelled(), "original holds a result, not cancelled");
+		Check.that(!indiv.hasFailed(), "original not failed");
+		Check.equal(1.0, indiv.typicality(), "typicality taken from copy");
+		Check.equal(expected(SLOW), indiv.quality(), "quality taken from copy");
+		Check.equal(timed + 1, domain.latency().count(), "only the copy timed");
+
+		// The late original beats its stuck copy, which is stopped
+		timed = domain.latency().count();
+		final long hedged = HEDGED.sum();
+		startAt = System.nanoTime();
+		final Individual late = pool.submit(domain.individual(LATE)).get();
+		Check.that(domain.stopped.await(STUCK / 2, TimeUnit.MILLISECONDS), "copy stopped");
+		elapsed = (System.nanoTime() - startAt) / 1000000;
+
+		Check.that(elapsed < STUCK / 2, "original finished first, in " + elapsed + "ms");
+		Check.equal(hedged + 1, HEDGED.sum(), "copy started");
+		Check.equal(wonBefore + 1, HEDGES_WON.sum(), "copy didn't win");
+		Check.that(!late.isCancelled(), "original not cancelled");
+		Check.equal(expected(LATE), late.quality(), "original's own quality");
+		Check.equal(timed + 1, domain.latency().count(), "only the original timed");
+
+		domain.close();
+		Check.done("EvaluatorPoolTest");
+	}
+
+	/**
+	 * @return Quality that a completed measurement gives.
+	 */
+	static double expected(final long genotype)
+	{
+		return (Utils.hash(genotype) >>> 11) * 0x1.0p-53;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Domain whose first measurement of SLOW, and later ones of LATE, are
+	 * stuck until cancelled; the first of LATE or EARLY takes DELAY, and all
+	 * others finish at once.
+	 */
+	static class StuckDomain extends TestDomain
+	{
+		/** Genotypes whose measurement has been started. */
+		final Set<Long> started = ConcurrentHashMap.newKeySet();
+
+		/** Released once a stuck measurement of LATE has been cancelled. */
+		final CountDownLatch stopped = new CountDownLatch(1);
+
+		StuckDomain()
+		{
+			super(1);
+		}
+
+		@Override
+		public Individual individual(final long genotype)
+		{
+			return new Individual(this, genotype)
+			{
+				@Override
+				public void measureTypicality()
+				{
+					typicality = 1;
+				}
+
+				@Override
+				public void measureQuality()
+				{
+					final boolean first = started.add(Long.valueOf(genotype()));
+					if (genotype() == (first ? SLOW : LATE))
+					{
+						if (waitCancelled(STUCK) && genotype() == LATE)
+							stopped.countDown();
+						typicality = 0;
+						quality    = 0;
+						return;
+					}
+					if (first && (genotype() == LATE || genotype() == EARLY))
+						waitCancelled(DELAY);
+					quality = expected(genotype());
+				}
+
+				/**
+				 * @return Whether cancelled within the time given (ms).
+				 */
+				private boolean waitCancelled(final long time)
+				{
+					final long stopAt = System.currentTimeMillis() + time;
+					while (!isCancelled() && System.currentTimeMillis() < stopAt)
+					{
+						try
+						{
+							Thread.sleep(1);
+						}
+						catch (InterruptedException e)
+						{
+							break;
+						}
+					}
+					return isCancelled();
+				}
+
+				@Override
+				public String export(final String path)
+				{
+					return "";
+				}
+			};
+		}
+	}
+
+}
@@ -0,0 +1,162 @@
+package world.domain.jenn;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import search.SearchEnum;
+import world.Check;
+import world.TestDomain;
+import world.domain.Enumerator;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Checks GEEnumerator and GEMapper.canonical() against brute force over a
+ * small grammar, whose phenotypes all use 3 codons or fewer: the walk must
+ * give each canonical genotype found by trying every value of the first 4
+ * codons exactly once, and SearchEnum's shards must cover it between them.
+ */
+public class GEEnumeratorTest {
+
+	/**
+	 * Phenotypes of 2 or 3 codons, and a branch (c) that never completes,
+	 * using up the codons as it recurses.
+	 */
+	static final String GRAMMAR =
+			"<s> ::= a <x> | b <y> <y> | c <r> | d <l>\n" +
+			"<x> ::= 0 | 1 | 2\n" +
+			"<y> ::= p | q\n" +
+			"<r> ::= z <r> | w <r>\n" +
+			"<l> ::= e | f <m>\n" +
+			"<m> ::= g | h\n";
+
+	public static void main(final String[] args) {
+		final GEMapper mapper = new GEMapper(new Grammar(GRAMMAR));
+
+		// Brute force: the canonical genotypes of all that map
+		final Set<Long> expected = new TreeSet<Long>();
+		final Set<String> phenotypes = new HashSet<String>();
+		for (long codons = 0; codons < (1 << 16); codons++) {
+			final long genotype = codons << 48;
+			final String phenotype = mapper.phenotype(genotype);
+			if (phenotype != null) {
+				expected.add(Long.valueOf(mapper.canonical(genotype)));
+				phenotypes.add(phenotype);
+			}
+		}
+		Check.equal(10, phenotypes.size(), "distinct phenotypes");
+		Check.equal(phenotypes.size(), expected.size(), "canonical genotypes");
+
+		// The walk: each once, in increasing order
+		final List<Long> walked = walk(mapper, new GEEnumerator(new TestDomain(1), mapper));
+		final Set<Long> canonical = new TreeSet<Long>();
+		final Set<String> seen = new HashSet<String>();
+		for (final Long genotype : walked) {
+			Check.that(genotype.longValue() != 0, "walk gives no genotype 0");
+			canonical.add(Long.valueOf(mapper.canonical(genotype.longValue())));
+			Check.that(seen.add(mapper.phenotype(genotype.longValue())), "phenotype of " + Long.toHexString(genotype.longValue()) + " walked once");
+		}
+		Check.equal(expected.size(), walked.size(), "genotypes walked");
+		Check.that(canonical.equals(expected), "walk " + hex(canonical) + " is " + hex(expected));
+		for (int n = 1; n < walked.size(); n++)
+			Check.that(Long.compareUnsigned(walked.get(n - 1).longValue(), walked.get(n).longValue()) < 0, "walk in increasing order at " + n);
+
+		// Resuming after each genotype continues the walk exactly
+		for (int n = 0; n < walked.size(); n++) {
+			final GEEnumerator rest = new GEEnumerator(new TestDomain(1), mapper);
+			rest.resume(walked.get(n).longValue());
+			Check.that(walk(mapper, rest).equals(walked.subList(n + 1, walked.size())), "resumed after " + n);
+		}
+
+		// Canonical genotypes stand for the same phenotype, and are their own
+		final Random random = new Random(2);
+		for (int n = 0; n < 100000; n++) {
+			final long genotype = random.nextLong();
+			final String phenotype = mapper.phenotype(genotype);
+			final long reduced = mapper.canonical(genotype);
+			if (phenotype == null) {
+				Check.equal(genotype, reduced, "unmapped genotype is its own canonical");
+				continue;
+			}
+			Check.that(phenotype.equals(mapper.phenotype(reduced)), "canonical of " + Long.toHexString(genotype) + " maps the same");
+			Check.equal(reduced, mapper.canonical(reduced), "canonical of canonical");
+			Check.that(expected.contains(Long.valueOf(reduced)), "canonical of " + Long.toHexString(genotype) + " found by brute force");
+		}
+
+		// Shards i/n: each position measured by exactly one, in order
+		for (int numShards = 1; numShards <= 4; numShards++) {
+			final List<Long> merged = new ArrayList<Long>();
+			for (int shard = 0; shard < numShards; shard++) {
+				final List<Long> measured = search(mapper, 0, Long.MAX_VALUE, shard, numShards);
+				for (int n = 0; n < measured.size(); n++)
+					Check.equal(walked.get(shard + n * numShards).longValue(), measured.get(n).longValue(),
+							"shard " + shard + "/" + numShards + ", genotype " + n);
+				merged.addAll(measured);
+			}
+			Check.equal(walked.size(), merged.size(), "genotypes measured by " + numShards + " shards");
+			Check.that(new HashSet<Long>(merged).equals(new HashSet<Long>(walked)), numShards + " shards cover the walk");
+		}
+
+		// A range of positions
+		Check.that(search(mapper, 2, 7, 0, 1).equals(walked.subList(2, 7)), "range 2-7");
+		final List<Long> odd = new ArrayList<Long>();
+		for (int at = 4; at < 9; at += 2)
+			odd.add(walked.get(at));
+		Check.that(search(mapper, 3, 9, 1, 2).equals(odd), "range 3-9, shard 1/2");
+		Check.done("GEEnumeratorTest");
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Genotypes left in the walk.
+	 */
+	private static List<Long> walk(final GEMapper mapper, final Enumerator walk) {
+		final List<Long> genotypes = new ArrayList<Long>();
+		while (walk.next())
+			genotypes.add(Long.valueOf(walk.genotype()));
+		return genotypes;
+	}
+
+	/**
+	 * @return Genotypes measured by an exhaustive search of the grammar.
+	 */
+	private static List<Long> search(final GEMapper mapper, final long from, final long to, final int shard, final int numShards) {
+		final List<Long> measured = new ArrayList<Long>();
+		new TestDomain(1) {
+			@Override
+			public Enumerator enumerator() {
+				return new GEEnumerator(this, mapper);
+			}
+
+			@Override
+			public long canonical(final long genotype) {
+				return mapper.canonical(genotype);
+			}
+
+			@Override
+			public void evaluate(final long[] genotypes, final double[] typicality, final double[] quality, final long[] times, final int num) {
+				for (int n = 0; n < num; n++)
+					measured.add(Long.valueOf(genotypes[n]));
+				super.evaluate(genotypes, typicality, quality, times, num);
+			}
+		};
+		new SearchEnum(from, to, shard, numShards).conduct(1000);
+		return measured;
+	}
+
+	/**
+	 * @return Genotypes in hex, for reporting.
+	 */
+	private static String hex(final Set<Long> genotypes) {
+		final StringBuilder sb = new StringBuilder();
+		for (final Long genotype : genotypes)
+			sb.append((sb.length() == 0) ? "" : " ").append(Long.toHexString(genotype.longValue()));
+		return "[" + sb + "]";
+	}
+
+}
@@ -0,0 +1,127 @@
+package world.domain.jenn;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import world.Check;
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Checks the resident worker protocol against a scripted stand-in for
+ * "jenn --worker": replies matched to requests by id when they come back out
+ * of order, request arguments passed through, unreadable fitness failing the
+ * request, and requests failing rather than waiting for good once the worker
+ * is stuck or gone.
+ */
+public class JennWorkerTest {
+
+	/**
+	 * Answers "<id> <genotype> [image] [size]" with fitness genotype/100 and
+	 * the arguments it was given as the image, after a delay that puts the
+	 * replies out of order; some genotypes misbehave.
+	 */
+	static final String WORKER =
+			"#!/bin/bash\n" +
+			"while read -r ID GENOTYPE IMAGE SIZE; do\n" +
+			"  case $GENOTYPE in\n" +
+			"    13) echo \"$ID nan -\" ;;\n" +
+			"    21) sleep 10; exit 1 ;;\n" +
+			"    99) exit 0 ;;\n" +
+			"    *) echo \"not a reply\"\n" +
+			"       (sleep 0.0$(( GENOTYPE % 7 )); echo \"$ID $(( GENOTYPE / 100 )).$(( GENOTYPE % 100 / 10 ))$(( GENOTYPE % 10 )) ${IMAGE:-none}@${SIZE:-none}\") & ;;\n" +
+			"  esac\n" +
+			"done\n" +
+			"wait\n";
+
+	public static void main(final String[] args) throws Exception {
+		final File dir = Files.createTempDirectory("worker").toFile();
+		final File script = new File(dir, "worker");
+		Files.write(script.toPath(), WORKER.getBytes(StandardCharsets.US_ASCII));
+		script.setExecutable(true);
+		try {
+			// Many requests in flight from several threads at once
+			final JennWorker worker = new JennWorker(dir, "worker");
+			final List<Thread> threads = new ArrayList<Thread>();
+			for (int t = 0; t < 4; t++) {
+				final int first = 100 + 50 * t;
+				final Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							final List<JennWorker.Reply> replies = new ArrayList<JennWorker.Reply>();
+							for (int g = first; g < first + 50; g++)
+								replies.add(worker.submit(g, null, null));
+							for (int g = first; g < first + 50; g++)
+								Check.equal(g / 100.0, replies.get(g - first).await().fitness(), "fitness of " + g);
+						} catch (IOException e) {
+							Check.that(false, "request failed: " + e.getMessage());
+						}
+					}
+				});
+				threads.add(thread);
+				thread.start();
+			}
+			for (final Thread thread : threads)
+				thread.join();
+
+			// Arguments
+			Check.that("yes@160x120".equals(worker.submit(305, "yes", "160x120").await().image()), "image and size passed");
+			Check.that("no@none".equals(worker.submit(306, "no", null).await().image()), "no image passed");
+			Check.that("none@none".equals(worker.submit(307, false).await().image()), "no arguments passed");
+			Check.equal(3.08, worker.measure(308, "dump", null, 5000), "measured with a deadline");
+
+			// Unreadable fitness fails that request only
+			try {
+				worker.measure(13, false);
+				Check.that(false, "nan fitness fails the request");
+			} catch (IOException e) {
+				Check.that(e.getMessage().contains("nan"), "nan fitness fails the request: " + e.getMessage());
+			}
+			Check.equal(3.09, worker.measure(309, false), "next request after nan");
+
+			// Stuck: times out, then killed, failing whatever is outstanding
+			final JennWorker.Reply outstanding = worker.submit(21, false);
+			try {
+				worker.measure(21, null, null, 200);
+				Check.that(false, "stuck request times out");
+			} catch (TimeoutException e) {
+				Check.that(true, "stuck request times out");
+			}
+			worker.kill();
+			Check.that(!worker.isAlive(), "killed worker is not alive");
+			try {
+				outstanding.await(5000);
+				Check.that(false, "outstanding request fails when killed");
+			} catch (IOException e) {
+				Check.that(true, "outstanding request fails when killed");
+			}
+			try {
+				worker.submit(310, false);
+				Check.that(false, "killed worker refuses requests");
+			} catch (IOException e) {
+				Check.that(true, "killed worker refuses requests");
+			}
+
+			// Exits without answering
+			final JennWorker exiting = new JennWorker(dir, "worker");
+			try {
+				exiting.submit(99, false).await(5000);
+				Check.that(false, "request fails when the worker exits");
+			} catch (IOException e) {
+				Check.that(!exiting.isAlive(), "request fails when the worker exits");
+			}
+			exiting.close();
+		} finally {
+			script.delete();
+			dir.delete();
+		}
+		Check.done("JennWorkerTest");
+	}
+
+}